@@ -0,0 +1,59 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+
+/**
+ * Sets up ProCAKE and a casebase of synthetic traces for the benchmarks, without a database.
+ */
+class BenchmarkCasebase {
+
+    private static boolean cakeStarted = false;
+
+    private BenchmarkCasebase() {
+    }
+
+    /**
+     * Sets up the ProCAKE instance once per JVM.
+     */
+    static synchronized void setupCake() {
+
+        if (cakeStarted) return;
+        ProCAKEService.setupCake();
+        cakeStarted = true;
+    }
+
+    /**
+     * Converts a synthetic log and publishes its traces as the casebase.
+     *
+     * @param numberOfTraces     number of traces of the casebase
+     * @param eventsPerTrace     mean number of events of a trace
+     * @param numberOfActivities number of distinct event names
+     * @return ids of the traces of the casebase
+     */
+    static String[] load(int numberOfTraces, int eventsPerTrace, int numberOfActivities) {
+
+        setupCake();
+
+        String[] traces = SyntheticLogs.traces(numberOfTraces, eventsPerTrace, numberOfActivities, 1);
+        String[] traceIDs = traceIDs(numberOfTraces);
+
+        // converted in a single chunk on the calling thread, the executor is not used
+        CasebaseLoader loader = new CasebaseLoader(ProCAKEService.model, null, numberOfTraces, 1);
+        loader.convertChunk(SyntheticLogs.prefix(), SyntheticLogs.suffix(), traceIDs, traces);
+
+        ProCAKEService.publish(loader.getPool(), Map.of("synthetic", traceIDs),
+                new CasebaseIndex(loader.getFeaturesByTrace(), Map.of()));
+
+        return traceIDs;
+    }
+
+    /**
+     * @return ids for the given number of traces
+     */
+    static String[] traceIDs(int numberOfTraces) {
+
+        String[] traceIDs = new String[numberOfTraces];
+        for (int i = 0; i < numberOfTraces; i++) traceIDs[i] = "trace-" + i;
+        return traceIDs;
+    }
+}
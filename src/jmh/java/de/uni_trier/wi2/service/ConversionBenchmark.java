@@ -0,0 +1,72 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.procake.data.object.*;
+import de.uni_trier.wi2.procake.data.object.nest.*;
+import de.uni_trier.wi2.procake.data.objectpool.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Benchmarks the conversion of XES traces to {@link NESTSequentialWorkflowObject}s.</p>
+ *
+ * <p><i>convertQuery</i> converts a single query trace like a retrieval does. <i>convertChunk</i> converts a chunk of
+ * traces like {@link CasebaseLoader} does when the casebase is loaded, its score being per trace. The baseline
+ * <i>scanFeatures</i> only reads the event names of the traces of the chunk in the single StAX pass the loader makes
+ * besides the conversion, which shows the costs of touching the XES at all.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConversionBenchmark {
+
+    static final int CHUNK_SIZE = 100;
+
+    @Param({"20"})
+    public int eventsPerTrace;
+
+    @Param({"20"})
+    public int numberOfActivities;
+
+    private String query;
+    private String prefix;
+    private String[] traceIDs;
+    private String[] traces;
+    private String chunk;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        BenchmarkCasebase.setupCake();
+
+        query = SyntheticLogs.trace(eventsPerTrace, numberOfActivities, 42);
+        prefix = SyntheticLogs.prefix();
+        traceIDs = BenchmarkCasebase.traceIDs(CHUNK_SIZE);
+        traces = SyntheticLogs.traces(CHUNK_SIZE, eventsPerTrace, numberOfActivities, 1);
+        chunk = prefix + String.join("", traces) + SyntheticLogs.suffix();
+    }
+
+    @Benchmark
+    public NESTSequentialWorkflowObject convertQuery() {
+        return ProCAKEService.convertQuery(query);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public ReadableObjectPool<DataObject> convertChunk() {
+
+        CasebaseLoader loader = new CasebaseLoader(ProCAKEService.model, null, CHUNK_SIZE, 1);
+        loader.convertChunk(prefix, SyntheticLogs.suffix(), traceIDs, traces);
+        return loader.getPool();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public List<TraceFeatures> scanFeatures() {
+        return TraceFeatures.ofLog(chunk);
+    }
+}
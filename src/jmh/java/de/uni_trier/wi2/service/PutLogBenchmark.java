@@ -0,0 +1,47 @@
+package de.uni_trier.wi2.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * <p>Benchmarks the splitting of a log into its header and its traces by the {@link XESLogReader} used by
+ * {@link DatabaseService#putLog(java.io.InputStream)}, without the database.</p>
+ *
+ * <p>The baseline <i>scan</i> only finds the start of every trace, which every way of splitting the log has to
+ * do.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PutLogBenchmark {
+
+    @Param({"1000"})
+    public int numberOfTraces;
+
+    @Param({"20"})
+    public int eventsPerTrace;
+
+    private String log;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        log = SyntheticLogs.log(numberOfTraces, eventsPerTrace, 20, 1);
+    }
+
+    @Benchmark
+    public String[] splitLog() {
+        return DatabaseService.splitLog(log);
+    }
+
+    @Benchmark
+    public int scan() {
+
+        int numberOfTraces = 0;
+        for (int i = log.indexOf("<trace"); i >= 0; i = log.indexOf("<trace", i + 1)) numberOfTraces++;
+        return numberOfTraces;
+    }
+}
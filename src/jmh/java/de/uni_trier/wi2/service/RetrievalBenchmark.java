@@ -0,0 +1,94 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import de.uni_trier.wi2.procake.similarity.impl.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Benchmarks {@link ProCAKEService#retrieve(RetrievalParameters)} with each global similarity measure registered
+ * for sequences.</p>
+ *
+ * <p>The retrieval cache is disabled, so every invocation compares the query with the whole casebase. The query is
+ * converted once and taken from the query cache afterwards. {@link de.uni_trier.wi2.procake.similarity.base.SMObjectEqual}
+ * is the baseline, it only checks the traces for equality and thus shows the costs of the retrieval itself.</p>
+ *
+ * <p>Local similarity measures, e.g. {@link de.uni_trier.wi2.eval.SMNumericComparison100} on the numeric attributes of
+ * the events, are configured by passing the XML representation of a
+ * {@link de.uni_trier.wi2.utils.SimilarityMeasureFunc} as parameter <i>localSimilarityMeasureFunc</i>.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RetrievalBenchmark {
+
+    @Param({"1000"})
+    public int numberOfTraces;
+
+    @Param({"20"})
+    public int eventsPerTrace;
+
+    @Param({"20"})
+    public int numberOfActivities;
+
+    @Param({"SMObjectEqualImpl", "SMListDTWImplExt", "SMListSWAImplExt", "SMListMappingImplExt", "SMListCorrectnessImplExt"})
+    public String globalSimilarityMeasure;
+
+    // empty means the default local similarity measures are used
+    @Param({""})
+    public String localSimilarityMeasureFunc;
+
+    @Param({"10"})
+    public int numberOfResults;
+
+    @Param({"1"})
+    public int numberOfWorkers;
+
+    private RetrievalParameters parameters;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+
+        BenchmarkCasebase.load(numberOfTraces, eventsPerTrace, numberOfActivities);
+        ProCAKEService.setRetrievalCacheSize(0);
+
+        parameters = new RetrievalParameters(
+                SyntheticLogs.trace(eventsPerTrace, numberOfActivities, 42),
+                measure(globalSimilarityMeasure).getSystemName(),
+                null,
+                localSimilarityMeasureFunc.isEmpty() ? null : localSimilarityMeasureFunc,
+                null,
+                null,
+                null,
+                numberOfResults,
+                numberOfWorkers,
+                null,
+                null,
+                null);
+    }
+
+    @Benchmark
+    public List<Retrieval> retrieve() throws Exception {
+        return ProCAKEService.retrieve(parameters);
+    }
+
+    private static SimilarityMeasureImpl measure(String className) throws ReflectiveOperationException {
+
+        for (String packageName : new String[]{
+                "de.uni_trier.wi2.extension.similarity.measure.",
+                "de.uni_trier.wi2.extension.similarity.measure.collection.",
+                "de.uni_trier.wi2.procake.similarity.base.impl.",
+                "de.uni_trier.wi2.eval."}) {
+            try {
+                return (SimilarityMeasureImpl) Class.forName(packageName + className).getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+        throw new ClassNotFoundException(className);
+    }
+}
@@ -0,0 +1,107 @@
+package de.uni_trier.wi2.service;
+
+import java.time.*;
+import java.util.*;
+
+/**
+ * <p>Generates XES logs of configurable size for the benchmarks.</p>
+ *
+ * <p>The traces are random walks over a fixed set of activities, so traces share activities and n-grams like the
+ * traces of real processes do. Every event has a name, a timestamp and further attributes of the types XES knows,
+ * so the conversion and the local similarity measures have as much to do as for real logs. The same parameters
+ * always yield the same log.</p>
+ */
+class SyntheticLogs {
+
+    private static final String HEADER = """
+            <?xml version="1.0" encoding="UTF-8" ?>
+            <log xes.version="1.0" xes.features="nested-attributes" openxes.version="1.0RC7">
+            <extension name="Concept" prefix="concept" uri="http://www.xes-standard.org/concept.xesext"/>
+            <extension name="Time" prefix="time" uri="http://www.xes-standard.org/time.xesext"/>
+            <global scope="event">
+            <string key="concept:name" value="__INVALID__"/>
+            </global>
+            <string key="concept:name" value="synthetic"/>
+            """;
+
+    private static final String FOOTER = "</log>";
+
+    private SyntheticLogs() {
+    }
+
+    /**
+     * @param numberOfTraces     number of traces of the log
+     * @param eventsPerTrace     mean number of events of a trace, the actual numbers vary by up to half of it
+     * @param numberOfActivities number of distinct event names
+     * @param seed               seed of the random numbers
+     * @return XES log
+     */
+    static String log(int numberOfTraces, int eventsPerTrace, int numberOfActivities, long seed) {
+
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder(HEADER);
+        for (int i = 0; i < numberOfTraces; i++) appendTrace(log, "trace-" + i, eventsPerTrace, numberOfActivities, random);
+        return log.append(FOOTER).toString();
+    }
+
+    /**
+     * @return XES log containing a single trace
+     */
+    static String trace(int eventsPerTrace, int numberOfActivities, long seed) {
+        return log(1, eventsPerTrace, numberOfActivities, seed);
+    }
+
+    /**
+     * @return the header of the logs, i.e. a log without traces missing the closing tag
+     */
+    static String prefix() {
+        return HEADER;
+    }
+
+    /**
+     * @return the closing tag missing from {@link #prefix()}
+     */
+    static String suffix() {
+        return FOOTER;
+    }
+
+    /**
+     * @return the traces of a log, each a String starting with "&lt;trace" and ending with "&lt;/trace&gt;"
+     */
+    static String[] traces(int numberOfTraces, int eventsPerTrace, int numberOfActivities, long seed) {
+
+        Random random = new Random(seed);
+        String[] traces = new String[numberOfTraces];
+        for (int i = 0; i < numberOfTraces; i++) {
+            StringBuilder trace = new StringBuilder();
+            appendTrace(trace, "trace-" + i, eventsPerTrace, numberOfActivities, random);
+            traces[i] = trace.toString();
+        }
+        return traces;
+    }
+
+    private static void appendTrace(StringBuilder log, String name, int eventsPerTrace, int numberOfActivities, Random random) {
+
+        int length = Math.max(1, eventsPerTrace + random.nextInt(eventsPerTrace + 1) - eventsPerTrace / 2);
+        long time = 1_600_000_000_000L + random.nextInt(1_000_000) * 60_000L;
+        int activity = random.nextInt(numberOfActivities);
+
+        log.append("<trace>\n<string key=\"concept:name\" value=\"").append(name).append("\"/>\n");
+        for (int i = 0; i < length; i++) {
+            // mostly move on to one of the next activities, sometimes jump
+            activity = random.nextInt(10) == 0 ? random.nextInt(numberOfActivities)
+                    : (activity + 1 + random.nextInt(2)) % numberOfActivities;
+            time += random.nextInt(3_600_000);
+
+            log.append("<event>\n")
+                    .append("<string key=\"concept:name\" value=\"activity-").append(activity).append("\"/>\n")
+                    .append("<date key=\"time:timestamp\" value=\"").append(Instant.ofEpochMilli(time)).append("\"/>\n")
+                    .append("<string key=\"org:resource\" value=\"resource-").append(random.nextInt(20)).append("\"/>\n")
+                    .append("<int key=\"cost\" value=\"").append(random.nextInt(1000)).append("\"/>\n")
+                    .append("<float key=\"duration\" value=\"").append(random.nextDouble() * 100).append("\"/>\n")
+                    .append("<boolean key=\"urgent\" value=\"").append(random.nextBoolean()).append("\"/>\n")
+                    .append("</event>\n");
+        }
+        log.append("</trace>\n");
+    }
+}
@@ -3,9 +3,12 @@ package de.uni_trier.wi2.config;
 import de.uni_trier.wi2.*;
 import de.uni_trier.wi2.service.*;
 import org.slf4j.*;
+import org.springframework.beans.factory.annotation.*;
 import org.springframework.boot.*;
 import org.springframework.context.annotation.*;
 
+import java.nio.file.*;
+
 /**
  * Configuration class to automatically connect to the database when the {@link RESTAPI} is started.
  */
@@ -15,6 +18,39 @@ class ConnectToDatabase {
     private static final Logger log = LoggerFactory.getLogger(ConnectToDatabase.class);
 
 
+    @Value("${database.pool.maximumSize:10}")
+    private int maximumPoolSize;
+
+    @Value("${database.pool.minimumIdle:2}")
+    private int minimumIdle;
+
+    @Value("${database.pool.connectionTimeout:30000}")
+    private long connectionTimeout;
+
+    @Value("${database.insert.chunkSize:500}")
+    private int insertChunkSize;
+
+    @Value("${database.insert.maxChunkKB:4096}")
+    private int insertMaxChunkKB;
+
+    @Value("${database.insert.jdbcBatch:false}")
+    private boolean insertJdbcBatch;
+
+    @Value("${database.upload.threads:1}")
+    private int uploadThreads;
+
+    @Value("${database.upload.queueCapacity:4}")
+    private int uploadQueueCapacity;
+
+    // empty means the directory of temporary files is used
+    @Value("${database.upload.spoolDirectory:}")
+    private String uploadSpoolDirectory;
+
+    // empty means no trace store is used
+    @Value("${database.traceStore.path:}")
+    private String traceStorePath;
+
+
     @Bean
     CommandLineRunner connect() {
         return args -> {
@@ -23,8 +59,21 @@ class ConnectToDatabase {
             String databasePassword = args[2];
 
             DatabaseService.setUrlUsernamePassword(databaseUrl, databaseUsername, databasePassword);
+            DatabaseService.setPoolSize(maximumPoolSize, minimumIdle, connectionTimeout);
+            DatabaseService.setInsertChunks(insertChunkSize, insertMaxChunkKB, insertJdbcBatch);
+            UploadService.setJobs(uploadThreads, uploadQueueCapacity,
+                    uploadSpoolDirectory.isBlank() ? null : Path.of(uploadSpoolDirectory));
 
             log.info(DatabaseService.connectToDatabase());
+
+            if (!traceStorePath.isBlank()) {
+                try {
+                    DatabaseService.openTraceStore(Path.of(traceStorePath));
+                    log.info("trace store opened: {}", DatabaseService.getTraceStoreStatistics());
+                } catch (Exception e) {
+                    log.warn("trace store {} could not be opened, traces are read from the database: {}", traceStorePath, e.getMessage());
+                }
+            }
         };
     }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package de.uni_trier.wi2.config;
 import de.uni_trier.wi2.*;
 import de.uni_trier.wi2.service.*;
 import org.slf4j.*;
+import org.springframework.beans.factory.annotation.*;
 import org.springframework.boot.*;
 import org.springframework.context.annotation.*;
 
@@ -14,9 +15,80 @@ class SetupProCAKE {
 
     private static final Logger log = LoggerFactory.getLogger(SetupProCAKE.class);
 
+    // 0 means one thread per available processor
+    @Value("${casebase.load.threads:0}")
+    private int loadThreads;
+
+    @Value("${casebase.load.chunkSize:500}")
+    private int loadChunkSize;
+
+    // 0 means one worker per available processor
+    @Value("${retrieval.workers:0}")
+    private int retrievalWorkers;
+
+    @Value("${retrieval.minCasesPerWorker:100}")
+    private int minCasesPerWorker;
+
+    // 0 disables the cache
+    @Value("${retrieval.cache.size:1000}")
+    private int retrievalCacheSize;
+
+    // 0 disables the cache
+    @Value("${retrieval.queryCache.size:1000}")
+    private int queryCacheSize;
+
+    @Value("${retrieval.config.registered:1000}")
+    private int registeredConfigurations;
+
+    @Value("${retrieval.stream.segmentSize:1000}")
+    private int streamSegmentSize;
+
+    @Value("${retrieval.earlyAbandoning.batchSize:250}")
+    private int earlyAbandoningBatchSize;
+
+    @Value("${retrieval.signature.nGramSize:3}")
+    private int signatureNGramSize;
+
+    @Value("${retrieval.signature.minHashSize:64}")
+    private int signatureMinHashSize;
+
+    @Value("${retrieval.signature.embeddingSize:64}")
+    private int signatureEmbeddingSize;
+
+    @Value("${retrieval.ann.enabled:false}")
+    private boolean nearestNeighbourIndex;
+
+    @Value("${retrieval.ann.maxLinks:16}")
+    private int nearestNeighbourLinks;
+
+    @Value("${retrieval.ann.efConstruction:100}")
+    private int nearestNeighbourConstructionWidth;
+
+    @Value("${retrieval.ann.efSearch:100}")
+    private int nearestNeighbourSearchWidth;
+
+    // 0 disables the warning
+    @Value("${casebase.memory.warningThresholdMB:0}")
+    private long memoryWarningThreshold;
+
     @Bean
     CommandLineRunner setupInstance() {
         return args -> {
+            ProCAKEService.setLoadConfiguration(
+                    loadThreads > 0 ? loadThreads : Runtime.getRuntime().availableProcessors(),
+                    loadChunkSize);
+            ProCAKEService.setRetrievalConfiguration(
+                    retrievalWorkers > 0 ? retrievalWorkers : Runtime.getRuntime().availableProcessors(),
+                    minCasesPerWorker);
+            ProCAKEService.setRetrievalCacheSize(retrievalCacheSize);
+            ProCAKEService.setQueryCacheSize(queryCacheSize);
+            ProCAKEService.setRegisteredConfigurationCapacity(registeredConfigurations);
+            ProCAKEService.setStreamSegmentSize(streamSegmentSize);
+            ProCAKEService.setEarlyAbandoningBatchSize(earlyAbandoningBatchSize);
+            ProCAKEService.setSignatureConfiguration(signatureNGramSize, signatureMinHashSize, signatureEmbeddingSize);
+            ProCAKEService.setNearestNeighbourConfiguration(nearestNeighbourIndex, nearestNeighbourLinks,
+                    nearestNeighbourConstructionWidth, nearestNeighbourSearchWidth);
+            ProCAKEService.setMemoryWarningThreshold(memoryWarningThreshold);
             log.info(ProCAKEService.setupCake());
             log.info(ProCAKEService.loadCasebase());
         };
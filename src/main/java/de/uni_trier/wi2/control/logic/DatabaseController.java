@@ -1,16 +1,25 @@
 package de.uni_trier.wi2.control.logic;
 
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+import de.uni_trier.wi2.model.*;
 import de.uni_trier.wi2.service.*;
 import org.jetbrains.annotations.*;
+import org.slf4j.*;
 import org.springframework.hateoas.*;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.*;
+import org.springframework.web.servlet.mvc.method.annotation.*;
+import org.springframework.web.util.*;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
 
@@ -20,35 +29,117 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
 @RestController
 public class DatabaseController {
 
-    DatabaseController() {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseController.class);
+
+    private static final String CASEBASE_VERSION = "casebaseVersion";
+
+    /**
+     * Number of logs listed per page if no limit is given.
+     */
+    private static final int LOG_PAGE_SIZE = 100;
+
+    /**
+     * Number of trace ids read at once when all traces of a log are listed.
+     */
+    private static final int TRACE_PAGE_SIZE = 1000;
+
+    /**
+     * The object mapper configured by Spring, so streamed responses are serialized like the other responses.
+     */
+    private final ObjectMapper objectMapper;
+
+    DatabaseController(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
     }
 
+    /**
+     * <p>Returns a page of the logs ordered by their ids, including the ids of their traces and their metadata.</p>
+     *
+     * <p>At most as many logs as the limit are returned, {@link #LOG_PAGE_SIZE} by default, starting after the given
+     * log id, and the link to the next page is sent in the <i>Link</i> header (keyset pagination). The logs of the page
+     * and their metadata are read before the response is sent, so a failing database is answered with an error
+     * status. The ids of the traces are written while they are read page by page.</p>
+     *
+     * @param after  id of the last log of the previous page (optional)
+     * @param limit  maximum number of logs (optional)
+     * @param traces whether the ids of the traces of the logs are included
+     * @param links  whether every trace is linked
+     * @return JSON array of the logs
+     */
     @GetMapping("/log")
-    @ResponseBody
-    public List<Map<String, Object>> getLog() throws SQLException {
+    public ResponseEntity<StreamingResponseBody> getLog(@RequestParam(required = false) String after,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestParam(defaultValue = "true") boolean traces,
+                                                        @RequestParam(defaultValue = "true") boolean links) throws SQLException {
         try {
-            while (DatabaseService.connection == null) Thread.sleep(100); //todo delete after eval
+            while (!DatabaseService.isConnected()) Thread.sleep(100); //todo delete after eval
         } catch (Exception ignored) {}
 
-
-        List<Map<String, Object>> logs = new ArrayList<>();
-        Map<String, Object> log;
-        for (String logID : DatabaseService.getLogIDs(true)) {
-            log = getLog(logID);
-            logs.add(log);
-
+        // the links are built while the request is available, the response is written afterwards
+        String logHref = linkTo(DatabaseController.class).slash("log").toUri().toString();
+        String traceHref = linkTo(DatabaseController.class).slash("trace").toUri().toString();
+
+        // the page is read before the response is sent, so the link to the next page can be sent as header
+        int pageSize = limit == null ? LOG_PAGE_SIZE : Math.max(1, limit);
+        List<Map<String, Object>> page = DatabaseService.getLogs(after, pageSize + 1, true);
+
+        HttpHeaders headers = new HttpHeaders();
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            String next = (String) page.get(pageSize - 1).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__logID);
+            headers.add(HttpHeaders.LINK, nextLink(UriComponentsBuilder.fromHttpUrl(logHref)
+                    .queryParam("after", next)
+                    .queryParam("limit", pageSize)
+                    .queryParam("traces", traces)
+                    .queryParam("links", links)));
         }
 
+        List<String> logIDs = new ArrayList<>(page.size());
+        for (Map<String, Object> log : page)
+            logIDs.add((String) log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__logID));
+        Map<String, Map<String, String>> metadata = DatabaseService.getLogMetadata(logIDs);
+
+        List<Map<String, Object>> logs = page;
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+            json.writeStartArray();
+            try {
+                for (Map<String, Object> log : logs) {
+                    String logID = (String) log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__logID);
+                    writeLog(json, log, metadata.getOrDefault(logID, Map.of()), logHref, traceHref,
+                            traces ? DatabaseService.getTraceIDs(logID, null, TRACE_PAGE_SIZE) : null, true, links);
+                }
+            } catch (SQLException e) {
+                // the status has been sent already, the connection is closed without finishing the array
+                logger.warn("listing of logs failed after the response was committed: {}", e.getMessage());
+                throw new IOException(e);
+            }
+            json.writeEndArray();
+            json.flush();
+        };
 
-        return logs;
+        return ResponseEntity.ok().headers(headers).contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
+    /**
+     * <p>Returns a log, including the ids of its traces and its metadata.</p>
+     *
+     * <p>Without a limit, all traces of the log are returned. With a limit, only as many traces are returned, ordered
+     * by their ids and starting after the given trace id, and the link to the next page is sent in the <i>Link</i>
+     * header (keyset pagination). The traces are written while they are read page by page.</p>
+     *
+     * @param logID UUID of the log
+     * @param after id of the last trace of the previous page (optional)
+     * @param limit maximum number of traces (optional)
+     * @param links whether every trace is linked
+     * @return JSON representation of the log
+     */
     @GetMapping("/log/{logID}")
-    @ResponseBody
-    public Map<String, Object> getLog(@PathVariable @NotNull String logID) throws SQLException {
+    public ResponseEntity<StreamingResponseBody> getLog(@PathVariable @NotNull String logID,
+                                                        @RequestParam(required = false) String after,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestParam(defaultValue = "true") boolean links) throws SQLException {
 
-
-        // log id and links
         Map<String, Object> log;
         try {
             log = DatabaseService.getLog(logID);
@@ -56,30 +147,123 @@ public class DatabaseController {
 
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
         }
+        Map<String, String> metadata = DatabaseService.getLogMetadata(List.of(logID)).getOrDefault(logID, Map.of());
+
+        String logHref = linkTo(DatabaseController.class).slash("log").toUri().toString();
+        String traceHref = linkTo(DatabaseController.class).slash("trace").toUri().toString();
+
+        int pageSize = limit == null ? TRACE_PAGE_SIZE : Math.max(1, limit);
+        String[] firstPage = DatabaseService.getTraceIDs(logID, after, limit == null ? pageSize : pageSize + 1);
+
+        HttpHeaders headers = new HttpHeaders();
+        if (limit != null && firstPage.length > pageSize) {
+            firstPage = Arrays.copyOf(firstPage, pageSize);
+            headers.add(HttpHeaders.LINK, nextLink(UriComponentsBuilder.fromHttpUrl(logHref)
+                    .pathSegment(logID)
+                    .queryParam("after", firstPage[pageSize - 1])
+                    .queryParam("limit", pageSize)
+                    .queryParam("links", links)));
+        }
+
+        String[] traces = firstPage;
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+            try {
+                writeLog(json, log, metadata, logHref, traceHref, traces, limit == null, links);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            json.flush();
+        };
 
+        return ResponseEntity.ok().headers(headers).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 
-        log.put("links", new Link[]{
-                linkTo(methodOn(DatabaseController.class).getLog(logID)).withSelfRel(),
-                linkTo(methodOn(DatabaseController.class).getLog()).withRel("all")
-        });
+    /**
+     * Writes a log like {@link #getLogInfo(String)} does, including the ids of its traces.
+     *
+     * @param traces     first page of the ids of the traces of the log, null to leave out the traces
+     * @param allTraces  whether the pages following the first one are written as well
+     * @param traceLinks whether every trace is linked
+     */
+    private static void writeLog(JsonGenerator json, Map<String, Object> log, Map<String, String> metadata,
+                                 String logHref, String traceHref, String[] traces, boolean allTraces,
+                                 boolean traceLinks) throws IOException, SQLException {
+
+        String logID = (String) log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__logID);
+
+        json.writeStartObject();
+        json.writeStringField(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__logID, logID);
+        json.writeStringField(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header,
+                (String) log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header));
+        json.writeObjectField(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__removed,
+                log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__removed));
+        writeLinks(json, IanaLinkRelations.SELF_VALUE, logHref + "/" + logID, "all", logHref);
+
+        if (traces != null) {
+            json.writeArrayFieldStart("traces");
+            String[] page = traces;
+            while (page.length > 0) {
+                for (String traceID : page) {
+                    json.writeStartObject();
+                    json.writeStringField(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__traceID, traceID);
+                    if (traceLinks) writeLinks(json, IanaLinkRelations.SELF_VALUE, traceHref + "/" + traceID);
+                    json.writeEndObject();
+                }
+                if (!allTraces || page.length < TRACE_PAGE_SIZE) break;
+                page = DatabaseService.getTraceIDs(logID, page[page.length - 1], TRACE_PAGE_SIZE);
+            }
+            json.writeEndArray();
+        }
+
+        json.writeObjectField(DatabaseService.DATABASE_NAMES.TABLENAME__metadata, metadata);
+        json.writeEndObject();
+    }
 
+    /**
+     * Writes the links field, given as pairs of relation and reference, like a serialized {@link Link}.
+     */
+    private static void writeLinks(JsonGenerator json, String... relationsAndReferences) throws IOException {
+
+        json.writeArrayFieldStart("links");
+        for (int i = 0; i + 1 < relationsAndReferences.length; i += 2) {
+            json.writeStartObject();
+            json.writeStringField("rel", relationsAndReferences[i]);
+            json.writeStringField("href", relationsAndReferences[i + 1]);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
 
-        // traces that belong to log
-        String[] traceIDs = DatabaseService.getTraceIDs(logID);
+    private static String nextLink(UriComponentsBuilder next) {
+        return "<" + next.encode().toUriString() + ">; rel=\"" + IanaLinkRelations.NEXT_VALUE + "\"";
+    }
 
+    /**
+     * <p>Returns a log and its metadata, as the response to a change of the log.</p>
+     *
+     * <p>The traces of the log are not listed, the log links to the first page of them instead (relation
+     * <i>traces</i>), see {@link #getLog(String, String, Integer, boolean)}.</p>
+     */
+    private Map<String, Object> getLogInfo(@NotNull String logID) throws SQLException {
 
-        List<Map<String, Object>> traces = new ArrayList<>();
-        Map<String, Object> trace;
-        for (String traceID : traceIDs) {
-            trace = new HashMap<>();
-            trace.put(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__traceID, traceID);
-            trace.put("links", new Link[]{linkTo(methodOn(DatabaseController.class).getTrace(traceID)).withSelfRel()});
-            traces.add(trace);
 
+        // log id and links
+        Map<String, Object> log;
+        try {
+            log = DatabaseService.getLog(logID);
+        } catch (SQLException e) {
 
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
         }
 
-        log.put("traces", traces);
+
+        Link self = linkTo(DatabaseController.class).slash("log").slash(logID).withSelfRel();
+        Link logs = linkTo(DatabaseController.class).slash("log").withRel("all");
+        Link traces = Link.of(UriComponentsBuilder.fromUriString(self.getHref())
+                .queryParam("limit", TRACE_PAGE_SIZE)
+                .toUriString(), "traces");
+        log.put("links", new Link[]{self, logs, traces});
 
 
         //metadata
@@ -106,7 +290,7 @@ public class DatabaseController {
         Map<String, Object> logInfo = new HashMap<>();
         String logID = (String) trace.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__logID);
         logInfo.put(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__logID, logID);
-        logInfo.put("links", new Link[]{linkTo(methodOn(DatabaseController.class).getLog(logID)).withSelfRel()});
+        logInfo.put("links", new Link[]{linkTo(DatabaseController.class).slash("log").slash(logID).withSelfRel()});
 
         Map<String, Object> response = new HashMap<>();
         response.put(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__traceID, traceID);
@@ -122,83 +306,224 @@ public class DatabaseController {
         return response;
     }
 
+    /**
+     * <p>Returns the XES of a trace as it was stored.</p>
+     * <p>If the trace is part of the local trace store, its XES is written to the response directly from the
+     * memory-mapped store.</p>
+     *
+     * @param traceID the ID of the trace
+     * @return the XES of the trace
+     */
+    @GetMapping(value = "/trace/{traceID}/xes", produces = MediaType.APPLICATION_XML_VALUE)
+    public ResponseEntity<StreamingResponseBody> getTraceXES(@PathVariable @NotNull String traceID) {
+
+        ByteBuffer xes;
+        try {
+            xes = DatabaseService.getTraceXES(traceID);
+        } catch (SQLException e) {
+
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+
+        StreamingResponseBody body = out -> {
+            WritableByteChannel channel = Channels.newChannel(out);
+            while (xes.hasRemaining()) channel.write(xes);
+        };
+        return ResponseEntity.ok().contentLength(xes.remaining()).body(body);
+    }
+
+    /**
+     * <p>Stores the log in the request body and adds its traces to the casebase.</p>
+     *
+     * <p>The body is read as a stream while the traces are inserted, so it is never held in memory as a whole.</p>
+     *
+     * <p>A log that is not valid is answered with 400 by {@link de.uni_trier.wi2.error.XESnotValidAdvice}, a failure
+     * of the database or of reading the body with 500.</p>
+     */
     @PostMapping("/log")
     @ResponseBody
-    public Map<String, Object> postLog(@RequestBody @NotNull String xes) throws SQLException, IOException {
+    public Map<String, Object> postLog(@NotNull InputStream xes) throws SQLException, IOException {
 
-        DatabaseService.startTransaction();
-        DatabaseService.savepoint("putLog");
+        String logID = UploadService.storeLog(xes, null);
+
+        // get log information
+        Map<String, Object> logInfo = getLogInfo(logID);
+
+        // make the log's traces available for retrieval
         try {
+            logInfo.put(CASEBASE_VERSION, ProCAKEService.addLogToCasebase(logID));
+        } catch (Exception e) {
+            logger.warn("traces of log {} could not be added to casebase: {}", logID, e.getMessage());
+        }
 
-            // split log and put header and traces in database
-            String[] ids = DatabaseService.putLog(xes);
+        // return log information
+        return logInfo;
+    }
 
-            // assign metadata (date)
-            String date = Instant.now().toString();
-            String logID = ids[0];
-            DatabaseService.putLogMetadata(logID, METADATATYPE_NAMES.DATE_OF_UPLOAD, date);
+    /**
+     * <p>Stores the log in the request body asynchronously.</p>
+     *
+     * <p>The body is copied to a file before the request returns, the log is inserted by a job afterwards. The state
+     * of the job is returned by {@link #getUploadJob(String)}.</p>
+     *
+     * @param xes           the log
+     * @param addToCasebase whether the traces of the log are added to the casebase once it is inserted
+     * @return JSON representation of the state of the job
+     */
+    @PostMapping("/upload")
+    public ResponseEntity<UploadJob> postUpload(@NotNull InputStream xes,
+                                                @RequestParam(defaultValue = "true") boolean addToCasebase) throws IOException {
+
+        UploadJob job;
+        try {
+            job = UploadService.submit(xes, addToCasebase);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads are waiting, try again later.");
+        }
 
+        return ResponseEntity
+                .accepted()
+                .location(linkTo(methodOn(DatabaseController.class).getUploadJob(job.jobID())).toUri())
+                .body(job);
+    }
 
-            for (int i = 1; i < ids.length; i++) {
-                DatabaseService.putTraceMetadata(ids[i], METADATATYPE_NAMES.DATE_OF_UPLOAD, date);
-            }
+    /**
+     * @param jobID id of an upload job
+     * @return JSON representation of the state of the job, including the traces inserted so far
+     */
+    @GetMapping("/upload/{jobID}")
+    @ResponseBody
+    public UploadJob getUploadJob(@PathVariable @NotNull String jobID) {
 
-            // get log information
-            Map<String, Object> logInfo = getLog(ids[0]);
+        UploadJob job = UploadService.getJob(jobID);
+        if (job == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload job " + jobID + " does not exist.");
+        return job;
+    }
 
-            DatabaseService.commit();
+    /**
+     * @return JSON representation of the states of the upload jobs running, waiting or finished recently
+     */
+    @GetMapping("/upload")
+    @ResponseBody
+    public List<UploadJob> getUploadJobs() {
+        return UploadService.getJobs();
+    }
 
-            // return log information
-            return logInfo;
+    /**
+     * <p>Puts metadata entries for many traces at once.</p>
+     *
+     * <p>The entries are grouped by their metadata type and inserted by a few statements per group, all within one
+     * transaction, so either all of them are put or none. Afterwards, the metadata of the traces is refreshed in the
+     * casebase, so retrievals can filter by it.</p>
+     *
+     * @param metadata the metadata entries
+     * @return JSON containing the ids of the metadata entries, in the order of the request, and the version of the
+     * casebase
+     */
+    @PostMapping("/trace/metadata")
+    @ResponseBody
+    public Map<String, Object> postTraceMetadata(@RequestBody @NotNull List<TraceMetadata> metadata) throws SQLException {
+
+        // positions of the entries of every metadata type in the request
+        Map<String, List<Integer>> entriesByType = new LinkedHashMap<>();
+        for (int i = 0; i < metadata.size(); i++) {
+            TraceMetadata entry = metadata.get(i);
+            if (entry.traceID() == null || entry.metadataType() == null || entry.value() == null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Metadata entry " + i + " lacks traceID, metadataType or value.");
+            entriesByType.computeIfAbsent(entry.metadataType(), type -> new ArrayList<>()).add(i);
+        }
+
+        String[] metadataIDs = new String[metadata.size()];
+
+        DatabaseService.startTransaction();
+        try {
+
+            for (Map.Entry<String, List<Integer>> entries : entriesByType.entrySet()) {
+                List<Integer> positions = entries.getValue();
+                String[] traceIDs = new String[positions.size()];
+                String[] values = new String[positions.size()];
+                for (int i = 0; i < positions.size(); i++) {
+                    traceIDs[i] = metadata.get(positions.get(i)).traceID();
+                    values[i] = metadata.get(positions.get(i)).value();
+                }
+
+                String[] ids = DatabaseService.putTraceMetadata(traceIDs, entries.getKey(), values);
+                for (int i = 0; i < positions.size(); i++) metadataIDs[positions.get(i)] = ids[i];
+            }
 
-        } catch (Exception e) {
-            //File file = new File("target/logs/eval.log");
-            //file.createNewFile();
-            //FileWriter fw = new FileWriter(file, true);
-            //fw.write(e.getMessage());
-            //fw.write("\n");
-            //fw.close();
-            DatabaseService.rollbackTo("putLog");
             DatabaseService.commit();
 
-            //File f = new File("abcdefg12345.txt");
-            //f.createNewFile();
-            //PrintWriter pw = new PrintWriter(f);
-            //pw.write(e.getMessage());
-            //pw.close();
+        } catch (Exception e) {
+            DatabaseService.rollback();
 
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("metadataIDs", metadataIDs);
+
+        Set<String> traceIDs = new HashSet<>();
+        for (TraceMetadata entry : metadata) traceIDs.add(entry.traceID());
+        try {
+            response.put(CASEBASE_VERSION, ProCAKEService.refreshCasebaseMetadata(traceIDs));
+        } catch (Exception e) {
+            logger.warn("metadata of the casebase could not be refreshed: {}", e.getMessage());
+        }
+
+        return response;
     }
 
     @DeleteMapping("/log/{logID}")
     @ResponseBody
     public Map<String, Object> deleteLog(@PathVariable @NotNull String logID) throws SQLException {
 
+        Map<String, Object> logInfo;
+
         DatabaseService.startTransaction();
-        DatabaseService.savepoint("putLog");
         try {
 
             DatabaseService.removeLog(logID);
 
+            logInfo = getLogInfo(logID);
 
-            return getLog(logID);
+            DatabaseService.commit();
 
         } catch (Exception e) {
-            DatabaseService.rollbackTo("putLog");
-            DatabaseService.commit();
+            DatabaseService.rollback();
 
 
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
         }
+
+        // the log's traces must not be retrieved anymore
+        logInfo.put(CASEBASE_VERSION, ProCAKEService.removeLogFromCasebase(logID));
+
+        return logInfo;
     }
 
 
-    private final class METADATATYPE_NAMES {
-        private static final String DATE_OF_UPLOAD = "dateOfUpload";
+    /**
+     * <p>Returns the state of the database connection pool.</p>
+     *
+     * @return JSON representation of the pool metrics
+     */
+    @GetMapping("/database/pool")
+    @ResponseBody
+    public Map<String, Object> getPoolMetrics() {
+
+        return DatabaseService.getPoolMetrics();
+    }
 
-        private METADATATYPE_NAMES() {
-        }
+    /**
+     * <p>Returns the state of the local trace store.</p>
+     *
+     * @return JSON containing directory, number of logs and traces and bytes used, empty if the store is disabled
+     */
+    @GetMapping("/database/store")
+    @ResponseBody
+    public Map<String, Object> getTraceStoreStatistics() {
+
+        return DatabaseService.getTraceStoreStatistics();
     }
 
 }
@@ -1,7 +1,12 @@
 package de.uni_trier.wi2.control.procake;
 
+import de.uni_trier.wi2.model.*;
 import de.uni_trier.wi2.service.*;
+import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.*;
+
+import java.util.*;
 
 
 /**
@@ -42,4 +47,51 @@ public class InstanceController {
 
         return msg;
     }
+
+    /**
+     * <p>Returns the version and size of the casebase.</p>
+     * <p>The version is incremented every time the casebase changes. Uploading or deleting a log returns the version
+     * of the casebase that first reflects the change, so a log is available for retrieval once the version returned
+     * here is at least as high as the one returned by its upload.</p>
+     *
+     * @return JSON containing version and size of the casebase
+     */
+    @GetMapping("/procake/version")
+    Map<String, Object> version() {
+
+        Map<String, Object> version = new HashMap<>();
+        version.put("casebaseVersion", ProCAKEService.getCasebaseVersion());
+        version.put("casebaseSize", ProCAKEService.getCasebaseSize());
+
+        return version;
+    }
+
+    /**
+     * <p>Returns the estimated heap space taken by the casebase and by each of its logs.</p>
+     * <p>The estimate is made once per version of the casebase and walks every converted trace, so the first request
+     * after a change takes a while.</p>
+     *
+     * @return JSON representation of the estimate
+     */
+    @GetMapping("/procake/memory")
+    MemoryReport memory() {
+
+        return ProCAKEService.getMemoryReport();
+    }
+
+    /**
+     * <p>Returns the estimated heap space taken by each trace of a log.</p>
+     *
+     * @param logID the ID of the log
+     * @return JSON representation of the estimate
+     */
+    @GetMapping("/procake/memory/{logID}")
+    LogMemory memory(@PathVariable String logID) {
+
+        LogMemory memory = ProCAKEService.getMemoryReport(logID);
+        if (memory == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("Log '%s' is not part of the casebase", logID));
+
+        return memory;
+    }
 }
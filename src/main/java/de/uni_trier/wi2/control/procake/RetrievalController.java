@@ -1,16 +1,19 @@
 package de.uni_trier.wi2.control.procake;
 
+import com.fasterxml.jackson.databind.*;
 import de.uni_trier.wi2.model.*;
 import de.uni_trier.wi2.service.*;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.*;
+import org.springframework.web.servlet.mvc.method.annotation.*;
 import org.xml.sax.*;
 
 import javax.xml.parsers.*;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.stream.*;
 
 
 /**
@@ -19,65 +22,53 @@ import java.util.*;
 @RestController
 public class RetrievalController {
 
-    public static final int NUMBER_OF_WORKERS = 7; //number of workers for retrieval
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
 
+    /**
+     * The object mapper configured by Spring, so streamed lines are serialized like the other responses.
+     */
+    private final ObjectMapper objectMapper;
 
-    RetrievalController() {
+    RetrievalController(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
     }
 
     /**
      * <p>Performs retrieval with the trace with the given traceID as query.</p>
-     * <p>The xes in the request body is ignored, instead, the xes belonging to the given traceID is taken.</p>
+     * <p>The xes in the request body is ignored, instead, the trace belonging to the given traceID is taken. If the
+     * trace is part of the casebase, its already converted form is used.</p>
      * <p>The retrieval will be performed on the filtered casebase and a JSON containing the
      * results of the retrieval is returned. Only traceID's and similarity value are returned.</p>
      *
      * @param traceID    traceID of the query trace
      * @param parameters parameters necessary for the retrieval
-     * @return JSON representation of retrieval results
+     * @return JSON representation of retrieval results, the effect of a pruning or of early abandoning is reported in
+     * the headers
      * @throws IOException                  todo
      * @throws ParserConfigurationException todo
      * @throws SAXException                 todo
      */
     @PutMapping(value = "/retrieval/{traceID}")
-    Map<String, Object>[] retrieve(@PathVariable String traceID, @RequestBody RetrievalParameters parameters) throws Exception {
+    ResponseEntity<Map<String, Object>[]> retrieve(@PathVariable String traceID, @RequestBody RetrievalParameters parameters) throws Exception {
 
-
-        Map<String, Object> t;
+        validate(parameters);
+        ReportListener reports = new ReportListener();
+        List<Retrieval> retrievalList;
         try {
-            t = DatabaseService.getTrace(traceID);
+            // xes of RetrievalParameters is ignored
+            retrievalList = ProCAKEService.retrieve(traceID, parameters, reports);
         } catch (SQLException e) {
 
 
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
-        }
-
-
-        Map<String, Object> l =
-                DatabaseService.getLog((String) t.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__logID));
-
-
-        // Since the trace belongs to a log that means the log is not empty and thus the root element (log) is not
-        //  self-closing which means there is a String "</log>" somewhere in the header
-        String[] header = ((String) l.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header)).split("</log>");
-        assert (header.length > 0);
-        String xes = header[0] + t.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__xes) + "</log>";
-
+        } catch (Exception e) {
 
-        RetrievalParameters parameters1 = new RetrievalParameters(
-                xes,
-                parameters.globalSimilarityMeasure(),
-                parameters.globalMethodInvokers(),
-                parameters.localSimilarityMeasureFunc(),
-                parameters.localMethodInvokersFunc(),
-                parameters.localWeightFunc(),
-                parameters.filterParameters(),
-                parameters.numberOfResults()
-        );
 
-        Map<String, Object>[] retrieval = retrieve(parameters1);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
 
 
-        return retrieval;
+        return ResponseEntity.ok().headers(reports.toHeaders()).body(toResponse(retrievalList));
     }
 
     /**
@@ -86,33 +77,274 @@ public class RetrievalController {
      * results of the retrieval is returned. Only id's and similarity value are returned.</p>
      *
      * @param parameters parameters necessary for the retrieval
-     * @return JSON representation of retrieval results
+     * @return JSON representation of retrieval results, the effect of a pruning or of early abandoning is reported in
+     * the headers
      * @throws IOException                  todo
      * @throws ParserConfigurationException todo
      * @throws SAXException                 todo
      */
     @PutMapping(value = "/retrieval")
-    Map<String, Object>[] retrieve(@RequestBody RetrievalParameters parameters) throws Exception {
+    ResponseEntity<Map<String, Object>[]> retrieve(@RequestBody RetrievalParameters parameters) throws Exception {
+
+        validate(parameters);
+        ReportListener reports = new ReportListener();
+        List<Retrieval> retrievalList;
+        try {
+            retrievalList = ProCAKEService.retrieve(parameters, reports);
+        } catch (Exception e) {
+
+
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+
+        return ResponseEntity.ok().headers(reports.toHeaders()).body(toResponse(retrievalList));
+    }
+
+    /**
+     * Keeps the effect of the pruning and of early abandoning of a retrieval to report it in the response headers.
+     */
+    private static class ReportListener implements RetrievalListener {
+
+        private PruningReport pruning;
+        private EarlyAbandoningReport earlyAbandoning;
+
+        @Override
+        public void onPruning(PruningReport report) {
+            this.pruning = report;
+        }
+
+        @Override
+        public void onEarlyAbandoning(EarlyAbandoningReport report) {
+            this.earlyAbandoning = report;
+        }
+
+        HttpHeaders toHeaders() {
+
+            HttpHeaders headers = new HttpHeaders();
+            if (pruning != null) {
+                headers.add("X-Pruning-Cases", String.valueOf(pruning.numberOfCases()));
+                headers.add("X-Pruning-Candidates", String.valueOf(pruning.candidates()));
+                headers.add("X-Pruning-Cutoff", String.valueOf(pruning.cutoffSimilarity()));
+                if (pruning.recall() != null) headers.add("X-Pruning-Recall", String.valueOf(pruning.recall()));
+            }
+            if (earlyAbandoning != null) {
+                headers.add("X-Abandoning-Cases", String.valueOf(earlyAbandoning.numberOfCases()));
+                headers.add("X-Abandoning-Compared", String.valueOf(earlyAbandoning.comparedCases()));
+                headers.add("X-Abandoning-Threshold", String.valueOf(earlyAbandoning.threshold()));
+                headers.add("X-Abandoning-Violated", String.valueOf(earlyAbandoning.violated()));
+                headers.add("X-Abandoning-Verified", String.valueOf(earlyAbandoning.verified()));
+            }
+            return headers;
+        }
+    }
 
-        Map[] traces;
+    /**
+     * <p>Performs retrieval for a batch of query traces given by their traceIDs and/or as XES, sharing the same
+     * parameters.</p>
+     * <p>The response is streamed as newline delimited JSON, one line per query trace in the order the retrievals
+     * finish. Each line contains the traceID or the index in the list of XES of the query trace and either its
+     * results or the error its retrieval failed with.</p>
+     *
+     * @param parameters query traces and parameters shared by all retrievals
+     * @return stream of JSON representations of retrieval results
+     */
+    @PutMapping(value = "/retrieval/batch", produces = "application/x-ndjson")
+    ResponseEntity<StreamingResponseBody> retrieveBatch(@RequestBody BatchRetrievalParameters parameters) {
+
+        if (parameters.parameters() == null)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Retrieval parameters missing");
+        validate(parameters.parameters());
+
+        Stream<BatchRetrieval> batch;
         try {
-            List<Retrieval> retrievalList = ProCAKEService.retrieve(NUMBER_OF_WORKERS, parameters.xes(), // xes of RetrievalParameters is ignored
-                    parameters.globalSimilarityMeasure(), parameters.globalMethodInvokers(), parameters.localSimilarityMeasureFunc(), parameters.localMethodInvokersFunc(), parameters.localWeightFunc(), parameters.filterParameters(), parameters.numberOfResults());
-
-            traces = retrievalList.stream().map(retrieval -> {
-                Map<String, Object> out = new HashMap();
-                out.put(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__traceID, retrieval.id());
-                out.put("similarity", retrieval.similarityValue());//todo: magic String = bad!
-                return out;
-            }).toArray(Map[]::new);
+            batch = ProCAKEService.retrieve(parameters.traceIDs(), parameters.xes(), parameters.parameters());
         } catch (Exception e) {
 
 
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
 
+        StreamingResponseBody body = out -> {
+            try (batch) {
+                Iterator<BatchRetrieval> iterator = batch.iterator();
+                while (iterator.hasNext()) {
+                    BatchRetrieval retrieval = iterator.next();
+
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    if (retrieval.traceID() != null) line.put("query", retrieval.traceID());
+                    else line.put("index", retrieval.index());
+                    if (retrieval.error() != null) line.put("error", retrieval.error());
+                    else line.put("results", toResponse(retrieval.results()));
+
+                    writeLine(out, line);
+                }
+            }
+        };
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * <p>Performs retrieval with the trace with the given traceID as query, streaming the intermediate rankings.</p>
+     * <p>See {@link #retrieveStreaming(RetrievalParameters)}.</p>
+     *
+     * @param traceID    traceID of the query trace
+     * @param parameters parameters necessary for the retrieval
+     * @return stream of JSON representations of the intermediate and final rankings
+     */
+    @PutMapping(value = "/retrieval/{traceID}/stream", produces = "application/x-ndjson")
+    ResponseEntity<StreamingResponseBody> retrieveStreaming(@PathVariable String traceID, @RequestBody RetrievalParameters parameters) {
+
+        validate(parameters);
+        StreamingResponseBody body = out -> streamRetrieval(out,
+                listener -> ProCAKEService.retrieve(traceID, parameters, listener));
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * <p>Performs retrieval with the trace in the request body as query, streaming the intermediate rankings.</p>
+     * <p>The response is streamed as newline delimited JSON. While the casebase is compared with the query, a line
+     * containing the best results among the cases compared so far is sent periodically. The last line contains the
+     * final ranking and is marked as complete. If the retrieval is pruned or abandons cases early, the lines before
+     * contain the effect of the pruning or the early abandoning. If the retrieval fails, the last line contains the error instead.</p>
+     *
+     * @param parameters parameters necessary for the retrieval
+     * @return stream of JSON representations of the intermediate and final rankings
+     */
+    @PutMapping(value = "/retrieval/stream", produces = "application/x-ndjson")
+    ResponseEntity<StreamingResponseBody> retrieveStreaming(@RequestBody RetrievalParameters parameters) {
+
+        validate(parameters);
+        StreamingResponseBody body = out -> streamRetrieval(out,
+                listener -> ProCAKEService.retrieve(parameters, listener));
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Rejects invalid parameters before the retrieval starts, in particular before a streamed response is committed.
+     *
+     * @param parameters parameters of the retrieval
+     */
+    private static void validate(RetrievalParameters parameters) {
+
+        try {
+            ProCAKEService.validate(parameters);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * A retrieval informing a listener about its course.
+     */
+    private interface StreamedRetrieval {
+        void retrieve(RetrievalListener listener) throws Exception;
+    }
+
+    private void streamRetrieval(OutputStream out, StreamedRetrieval retrieval) throws IOException {
+
+        try {
+            retrieval.retrieve(new RetrievalListener() {
+
+                @Override
+                public void onPruning(PruningReport report) {
+                    write(Map.of("pruning", report));
+                }
+
+                @Override
+                public void onEarlyAbandoning(EarlyAbandoningReport report) {
+                    write(Map.of("earlyAbandoning", report));
+                }
+
+                @Override
+                public void onProgress(ProgressiveRetrieval progress) {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("complete", progress.complete());
+                    line.put("comparedCases", progress.comparedCases());
+                    line.put("numberOfCases", progress.numberOfCases());
+                    line.put("results", toResponse(progress.results()));
+                    write(line);
+                }
+
+                @Override
+                public boolean isProgressive() {
+                    return true;
+                }
+
+                private void write(Map<String, Object> line) {
+                    try {
+                        writeLine(out, line);
+                    } catch (IOException e) {
+                        // the client is gone, which aborts the retrieval
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            writeLine(out, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private void writeLine(OutputStream out, Map<String, Object> line) throws IOException {
+
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static Map<String, Object>[] toResponse(List<Retrieval> retrievalList) {
+
+        Map[] traces = retrievalList.stream().map(retrieval -> {
+            Map<String, Object> out = new HashMap();
+            out.put(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__traceID, retrieval.id());
+            out.put("similarity", retrieval.similarityValue());//todo: magic String = bad!
+            return out;
+        }).toArray(Map[]::new);
 
         return (Map<String, Object>[]) traces;
     }
 
+    /**
+     * <p>Registers a retrieval configuration and returns its id.</p>
+     * <p>The configuration is parsed once, retrievals referring to the id by the field <i>configurationID</i> use the
+     * parsed configuration. Registering the same configuration again returns the same id.</p>
+     *
+     * @param configuration the configuration
+     * @return JSON containing the id of the configuration
+     */
+    @PostMapping(value = "/retrieval/config")
+    Map<String, Object> registerConfiguration(@RequestBody RetrievalConfiguration configuration) {
+
+        String configurationID;
+        try {
+            configurationID = ProCAKEService.registerConfiguration(configuration.globalSimilarityMeasure(),
+                    configuration.globalMethodInvokers(), configuration.localSimilarityMeasureFunc(),
+                    configuration.localMethodInvokersFunc(), configuration.localWeightFunc());
+        } catch (Exception e) {
+
+
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        Map<String, Object> out = new HashMap<>();
+        out.put("configurationID", configurationID);
+        return out;
+    }
+
+    /**
+     * <p>Returns capacity, size, hits and misses of the retrieval result cache.</p>
+     *
+     * @return JSON representation of the cache statistics
+     */
+    @GetMapping(value = "/retrieval/cache")
+    Map<String, Object> cache() {
+
+        return ProCAKEService.getRetrievalCacheStatistics();
+    }
+
 }
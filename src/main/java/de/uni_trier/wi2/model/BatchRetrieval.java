@@ -0,0 +1,14 @@
+package de.uni_trier.wi2.model;
+
+import java.util.*;
+
+/**
+ * Record representing the result of the retrieval for one query trace of a batch retrieval.
+ *
+ * @param traceID traceID of the query trace, or null if the query trace was given as XES
+ * @param index   index of the query trace in the list of XES query traces, or null if it was given by its traceID
+ * @param results results of the retrieval, or null if the retrieval failed
+ * @param error   message of the error the retrieval failed with, or null if it succeeded
+ */
+public record BatchRetrieval(String traceID, Integer index, List<Retrieval> results, String error) {
+}
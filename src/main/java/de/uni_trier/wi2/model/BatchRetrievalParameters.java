@@ -0,0 +1,18 @@
+package de.uni_trier.wi2.model;
+
+import java.util.*;
+
+
+/**
+ * Record important for communication to this API.
+ *
+ * @param traceIDs   traceIDs of the query traces (optional)
+ * @param xes        XES query traces (optional)
+ * @param parameters parameters shared by the retrievals of all query traces, the xes is ignored
+ */
+public record BatchRetrievalParameters(
+        List<String> traceIDs,
+        List<String> xes,
+        RetrievalParameters parameters
+) {
+}
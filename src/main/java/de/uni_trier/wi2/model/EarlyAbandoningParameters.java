@@ -0,0 +1,16 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * <p>Record representing the parameters of early abandoning during a retrieval.</p>
+ *
+ * <p>With early abandoning, the cases are compared with the query in the order of an upper bound of their
+ * similarity, in batches. Once the requested number of results is found, cases whose bound is below the similarity
+ * of the worst of the best results so far are not compared at all. If the bound is admissible for the configured
+ * similarity measure, the results are the same as without early abandoning.</p>
+ *
+ * @param bound     upper bound the cases are ordered and skipped by: <i>length</i>, <i>activities</i> or
+ *                  <i>activitySet</i>
+ * @param batchSize number of cases compared before the threshold is updated (optional, configured by the server)
+ */
+public record EarlyAbandoningParameters(String bound, Integer batchSize) {
+}
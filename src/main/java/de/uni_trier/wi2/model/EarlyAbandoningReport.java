@@ -0,0 +1,15 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * Record representing the effect of early abandoning during a retrieval.
+ *
+ * @param numberOfCases number of cases that could have been compared
+ * @param comparedCases number of cases compared by the configured similarity measure
+ * @param threshold     similarity of the worst of the final results, cases with a lower bound were skipped
+ * @param violated      true if a similarity above its bound was found and all cases were compared instead
+ * @param verified      true if no case was skipped, so the results are the same as without early abandoning; false
+ *                      if cases were skipped, whose bounds are not checked against their similarity
+ */
+public record EarlyAbandoningReport(int numberOfCases, int comparedCases, double threshold, boolean violated,
+                                    boolean verified) {
+}
@@ -1,5 +1,23 @@
 package de.uni_trier.wi2.model;
 
-//TODO
-public record FilterParameters() {
+import java.util.*;
+
+/**
+ * <p>Record representing the conditions a trace of the casebase has to fulfill to be compared with the query.</p>
+ *
+ * <p>All given conditions have to be fulfilled, conditions that are null are not checked.</p>
+ *
+ * @param logIDs        the trace has to belong to one of these logs
+ * @param metadata      the trace's metadata has to fulfill all of these conditions
+ * @param minimumLength the trace has to have at least this many events
+ * @param maximumLength the trace has to have at most this many events
+ * @param eventNames    the trace has to contain events with all of these names
+ */
+public record FilterParameters(
+        List<String> logIDs,
+        List<MetadataFilter> metadata,
+        Integer minimumLength,
+        Integer maximumLength,
+        List<String> eventNames
+) {
 }
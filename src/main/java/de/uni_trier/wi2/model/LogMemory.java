@@ -0,0 +1,14 @@
+package de.uni_trier.wi2.model;
+
+import java.util.*;
+
+/**
+ * Record representing the estimated heap space taken by the converted traces of a log.
+ *
+ * @param logID          id of the log
+ * @param numberOfTraces number of traces of the log in the casebase
+ * @param bytes          estimated size of the converted traces
+ * @param traces         estimated size of each trace, largest first, or null if not requested
+ */
+public record LogMemory(String logID, int numberOfTraces, long bytes, List<TraceMemory> traces) {
+}
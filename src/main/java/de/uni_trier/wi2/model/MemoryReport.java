@@ -0,0 +1,23 @@
+package de.uni_trier.wi2.model;
+
+import java.util.*;
+
+/**
+ * Record representing the estimated heap space taken by the casebase.
+ *
+ * @param casebaseVersion             version of the casebase the estimate refers to
+ * @param numberOfTraces              number of traces in the casebase
+ * @param traceBytes                  estimated size of the converted traces
+ * @param poolBytes                   estimated size of the object pool, including the converted traces
+ * @param indexBytes                  estimated size of the indexes used to filter and prune the casebase
+ * @param nearestNeighbourIndexBytes  estimated size of the nearest neighbour index, 0 if it is disabled
+ * @param heapUsedBytes               heap space used by the JVM when the estimate was made
+ * @param heapMaxBytes                maximum heap space of the JVM
+ * @param warningThresholdBytes       size of pool and indexes above which a warning is logged, 0 if disabled
+ * @param warning                     whether pool and indexes exceed the warning threshold
+ * @param logs                        estimated size of the traces of each log, largest first
+ */
+public record MemoryReport(long casebaseVersion, int numberOfTraces, long traceBytes, long poolBytes, long indexBytes,
+                           long nearestNeighbourIndexBytes, long heapUsedBytes, long heapMaxBytes,
+                           long warningThresholdBytes, boolean warning, List<LogMemory> logs) {
+}
@@ -0,0 +1,16 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * <p>Record representing a condition on a metadata entry of a trace.</p>
+ *
+ * <p>If a value is given, the metadata entry has to be equal to it. Otherwise, the metadata entry has to lie within
+ * the given bounds, compared as Strings (which orders ISO-8601 timestamps like <i>dateOfUpload</i>
+ * chronologically). A missing bound is not checked.</p>
+ *
+ * @param name  name of the metadata type
+ * @param value required value (optional)
+ * @param from  lower bound, inclusive (optional)
+ * @param to    upper bound, inclusive (optional)
+ */
+public record MetadataFilter(String name, String value, String from, String to) {
+}
@@ -0,0 +1,14 @@
+package de.uni_trier.wi2.model;
+
+import java.util.*;
+
+/**
+ * Record representing the intermediate or final ranking of a retrieval that is still running or has finished.
+ *
+ * @param results       the best results among the cases compared so far
+ * @param comparedCases number of cases compared so far
+ * @param numberOfCases number of cases the query is compared with
+ * @param complete      whether all cases have been compared, i.e. the results are final
+ */
+public record ProgressiveRetrieval(List<Retrieval> results, int comparedCases, int numberOfCases, boolean complete) {
+}
@@ -0,0 +1,16 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * <p>Record representing the parameters of the pruning phase of a retrieval.</p>
+ *
+ * <p>In the pruning phase, the cases are ranked by the similarity of a cheap signature to the signature of the
+ * query. Only the best candidates are then compared with the query by the configured similarity measure.</p>
+ *
+ * @param candidates    number of candidates compared by the configured similarity measure
+ * @param signature     signature the cases are ranked by: <i>bagOfWords</i>, <i>length</i>, <i>minHash</i> or
+ *                      <i>combined</i> (default)
+ * @param measureRecall whether the retrieval should additionally be performed without pruning to measure the recall
+ *                      of the pruned results (optional, expensive)
+ */
+public record PruningParameters(Integer candidates, String signature, Boolean measureRecall) {
+}
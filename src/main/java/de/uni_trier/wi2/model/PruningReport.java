@@ -0,0 +1,14 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * Record representing the effect of the pruning phase of a retrieval.
+ *
+ * @param numberOfCases    number of cases before pruning
+ * @param candidates       number of cases compared by the configured similarity measure
+ * @param cutoffSimilarity signature similarity of the worst candidate, cases with a lower signature similarity were
+ *                         pruned
+ * @param recall           fraction of the results without pruning that were also found with pruning, or null if the
+ *                         recall was not measured
+ */
+public record PruningReport(int numberOfCases, int candidates, double cutoffSimilarity, Double recall) {
+}
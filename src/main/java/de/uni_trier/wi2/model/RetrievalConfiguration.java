@@ -0,0 +1,21 @@
+package de.uni_trier.wi2.model;
+
+
+/**
+ * Record representing the part of the {@link RetrievalParameters} that configures the similarity computation, so it
+ * can be registered once and referred to by its id.
+ *
+ * @param globalSimilarityMeasure    similarity measure to be used globally
+ * @param globalMethodInvokers       list of methods to be invoked on the global similarity measure
+ * @param localSimilarityMeasureFunc XML representation of a {@link de.uni_trier.wi2.utils.SimilarityMeasureFunc}
+ * @param localMethodInvokersFunc    XML representation of a {@link de.uni_trier.wi2.utils.MethodInvokersFunc}
+ * @param localWeightFunc            XML representation of a {@link de.uni_trier.wi2.utils.WeightFunc}
+ */
+public record RetrievalConfiguration(
+        String globalSimilarityMeasure,
+        MethodList globalMethodInvokers,
+        String localSimilarityMeasureFunc,
+        String localMethodInvokersFunc,
+        String localWeightFunc
+) {
+}
@@ -12,6 +12,11 @@ package de.uni_trier.wi2.model;
  * @param localWeightFunc            XML representation of a {@link de.uni_trier.wi2.utils.WeightFunc}
  * @param filterParameters           parameters used to filter the casebase
  * @param numberOfResults            number of results to be retrieved
+ * @param numberOfWorkers            maximum number of threads used for the retrieval (optional, capped by the server)
+ * @param configurationID            id of a registered {@link RetrievalConfiguration} (optional, replaces the global
+ *                                   and local configuration fields)
+ * @param pruning                    parameters of the pruning phase (optional, no pruning if null)
+ * @param earlyAbandoning            parameters of early abandoning (optional, every case is compared if null)
  */
 public record RetrievalParameters(
         String xes,
@@ -21,6 +26,10 @@ public record RetrievalParameters(
         String localMethodInvokersFunc,
         String localWeightFunc,
         FilterParameters filterParameters,
-        int numberOfResults
+        int numberOfResults,
+        Integer numberOfWorkers,
+        String configurationID,
+        PruningParameters pruning,
+        EarlyAbandoningParameters earlyAbandoning
 ) {
 }
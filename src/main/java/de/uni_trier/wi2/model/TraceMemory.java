@@ -0,0 +1,10 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * Record representing the estimated heap space taken by a converted trace.
+ *
+ * @param traceID id of the trace
+ * @param bytes   estimated size of the converted trace
+ */
+public record TraceMemory(String traceID, long bytes) {
+}
@@ -0,0 +1,11 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * Record representing a metadata entry to be put for a trace.
+ *
+ * @param traceID      id of the trace
+ * @param metadataType name of the metadata type, created if it does not exist yet
+ * @param value        value of the metadata entry
+ */
+public record TraceMetadata(String traceID, String metadataType, String value) {
+}
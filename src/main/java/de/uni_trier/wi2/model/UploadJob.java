@@ -0,0 +1,25 @@
+package de.uni_trier.wi2.model;
+
+/**
+ * <p>Record representing the state of an asynchronous upload of a log.</p>
+ *
+ * <p>The status is one of <i>queued</i>, <i>running</i> (the log is inserted into the database), <i>converting</i>
+ * (the traces of the log are added to the casebase), <i>done</i> and <i>failed</i>.</p>
+ *
+ * @param jobID           id of the job
+ * @param status          status of the job
+ * @param logID           id of the uploaded log, once it has been inserted
+ * @param tracesProcessed number of traces inserted so far
+ * @param bytesRead       number of bytes of the log read so far
+ * @param bytes           size of the log in bytes
+ * @param tracesPerSecond traces inserted per second since the job started
+ * @param submitted       time the job was submitted (ISO-8601)
+ * @param started         time the job started (ISO-8601), null while queued
+ * @param finished        time the job finished (ISO-8601), null while not finished
+ * @param casebaseVersion version of the casebase containing the traces of the log, if they were added
+ * @param error           reason the job failed or the traces were not added to the casebase, null otherwise
+ */
+public record UploadJob(String jobID, String status, String logID, int tracesProcessed, long bytesRead, long bytes,
+                        double tracesPerSecond, String submitted, String started, String finished,
+                        Long casebaseVersion, String error) {
+}
@@ -0,0 +1,122 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+
+/**
+ * <p>Thread-safe cache holding a bounded number of entries, the least recently used entry being evicted first if the
+ * cache is full.</p>
+ *
+ * <p>Lookups by {@link #get(Object)} are counted as hits or misses.</p>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+class BoundedCache<K, V> {
+
+    private final int capacity;
+    private final Map<K, V> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity maximum number of entries, 0 disables the cache
+     */
+    BoundedCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > BoundedCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up an entry, marking it as recently used.
+     *
+     * @param key key of the entry
+     * @return the value of the entry or null if there is none
+     */
+    synchronized V get(K key) {
+
+        V value = entries.get(key);
+        if (value == null) misses++;
+        else hits++;
+        return value;
+    }
+
+    /**
+     * @param key key of the entry
+     * @return whether there is an entry for the key; the entry is neither marked as used nor counted as hit
+     */
+    synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Adds an entry or replaces the value of an existing one, evicting the least recently used entry if the cache is
+     * full.
+     *
+     * @param key   key of the entry
+     * @param value value of the entry, not null
+     */
+    synchronized void put(K key, V value) {
+
+        if (capacity == 0) return;
+        entries.put(key, value);
+    }
+
+    /**
+     * Adds an entry unless there is one for the key already, which is marked as recently used instead.
+     *
+     * @param key   key of the entry
+     * @param value value of the entry, not null
+     */
+    synchronized void putIfAbsent(K key, V value) {
+
+        if (capacity == 0) return;
+        if (entries.get(key) == null) entries.put(key, value);
+    }
+
+    /**
+     * @param key key of the entry to be removed
+     */
+    synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return maximum number of entries
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return current number of entries
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return {@link Map} containing capacity, size, hits and misses of the cache
+     */
+    synchronized Map<String, Object> getStatistics() {
+
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("capacity", capacity);
+        statistics.put("size", entries.size());
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        return statistics;
+    }
+}
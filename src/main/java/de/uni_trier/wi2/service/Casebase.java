@@ -0,0 +1,25 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.procake.data.object.*;
+import de.uni_trier.wi2.procake.data.objectpool.*;
+
+import java.util.*;
+
+/**
+ * <p>Record representing a published state of the casebase.</p>
+ *
+ * <p>A state is never changed once it is published. Changes to the casebase build a new state off to the side
+ * which then replaces the published one, so a retrieval keeps working on the state it started with. Until it is
+ * published, a new state keeps the version of the state it was built from.</p>
+ *
+ * @param pool          the converted traces
+ * @param traceIDsByLog ids of the traces in the pool, grouped by the ids of the logs they belong to
+ * @param index         indexes over the traces in the pool, used to filter the casebase
+ * @param version       version of the casebase
+ */
+record Casebase(ReadableObjectPool<DataObject> pool, Map<String, String[]> traceIDsByLog, CasebaseIndex index, long version) {
+
+    Casebase {
+        traceIDsByLog = Collections.unmodifiableMap(traceIDsByLog);
+    }
+}
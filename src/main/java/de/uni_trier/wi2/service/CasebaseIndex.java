@@ -0,0 +1,254 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+
+import java.util.*;
+
+/**
+ * <p>Inverted indexes over the traces of a casebase, used to filter the casebase before a retrieval.</p>
+ *
+ * <p>The traces are indexed by their event names, their lengths and their metadata, each index assigning the ids of
+ * the traces to the indexed value. A filter looks up the ids of the matching traces for each of its conditions and
+ * intersects them, starting with the smallest set, so the similarity measures only run on the remaining traces.</p>
+ *
+ * <p>In addition, the {@link TraceSignature} of every trace is kept, used to prune the casebase.</p>
+ *
+ * <p>An index is never changed once it is built. Adding or removing logs builds a new index, like it builds a new
+ * casebase. The new index shares the signatures and the sets of trace ids not affected by the change with the index
+ * it was built from.</p>
+ */
+class CasebaseIndex {
+
+    private final Map<String, TraceFeatures> featuresByTrace;
+    private final Map<String, Map<String, String>> metadataByTrace;
+
+    private final Map<String, TraceSignature> signatureByTrace = new HashMap<>();
+    private final Map<String, Set<String>> tracesByEventName = new HashMap<>();
+    private final NavigableMap<Integer, Set<String>> tracesByLength = new TreeMap<>();
+    private final Map<String, NavigableMap<String, Set<String>>> tracesByMetadata = new HashMap<>();
+
+    /**
+     * @param featuresByTrace properties of the traces, by the ids of the traces
+     * @param metadataByTrace metadata of the traces, by the ids of the traces
+     */
+    CasebaseIndex(Map<String, TraceFeatures> featuresByTrace, Map<String, Map<String, String>> metadataByTrace) {
+
+        this.featuresByTrace = Map.copyOf(featuresByTrace);
+        this.metadataByTrace = Map.copyOf(metadataByTrace);
+
+        for (Map.Entry<String, TraceFeatures> trace : this.featuresByTrace.entrySet()) {
+            signatureByTrace.put(trace.getKey(), TraceSignature.of(trace.getValue()));
+            tracesByLength.computeIfAbsent(trace.getValue().length(), length -> new HashSet<>()).add(trace.getKey());
+            for (String eventName : trace.getValue().eventNames())
+                tracesByEventName.computeIfAbsent(eventName, name -> new HashSet<>()).add(trace.getKey());
+        }
+
+        indexMetadata();
+    }
+
+    /**
+     * Shares the indexes of the features of the given index, which are never changed, and indexes the given metadata.
+     */
+    private CasebaseIndex(CasebaseIndex index, Map<String, Map<String, String>> metadataByTrace) {
+
+        this.featuresByTrace = index.featuresByTrace;
+        this.metadataByTrace = Map.copyOf(metadataByTrace);
+        signatureByTrace.putAll(index.signatureByTrace);
+        tracesByEventName.putAll(index.tracesByEventName);
+        tracesByLength.putAll(index.tracesByLength);
+
+        indexMetadata();
+    }
+
+    /**
+     * Shares the signatures of the given index and its sets of trace ids, copying only the sets containing the removed
+     * or added traces before changing them.
+     *
+     * @param removed ids of the traces to be removed, ids that are not part of the index are ignored
+     * @param added   properties of the traces to be added, by the ids of the traces; traces already part of the index
+     *                are replaced
+     */
+    private CasebaseIndex(CasebaseIndex index, Collection<String> removed, Map<String, TraceFeatures> added,
+                          Map<String, Map<String, String>> metadataByTrace) {
+
+        Map<String, TraceFeatures> features = new HashMap<>(index.featuresByTrace);
+        signatureByTrace.putAll(index.signatureByTrace);
+        tracesByEventName.putAll(index.tracesByEventName);
+        tracesByLength.putAll(index.tracesByLength);
+        Set<String> copiedEventNames = new HashSet<>();
+        Set<Integer> copiedLengths = new HashSet<>();
+
+        List<String> replaced = new ArrayList<>(removed);
+        replaced.addAll(added.keySet());
+        for (String traceID : replaced) {
+            TraceFeatures trace = features.remove(traceID);
+            if (trace == null) continue;
+            signatureByTrace.remove(traceID);
+            traces(tracesByLength, trace.length(), copiedLengths).remove(traceID);
+            for (String eventName : trace.eventNames())
+                traces(tracesByEventName, eventName, copiedEventNames).remove(traceID);
+        }
+
+        for (Map.Entry<String, TraceFeatures> trace : added.entrySet()) {
+            features.put(trace.getKey(), trace.getValue());
+            signatureByTrace.put(trace.getKey(), TraceSignature.of(trace.getValue()));
+            traces(tracesByLength, trace.getValue().length(), copiedLengths).add(trace.getKey());
+            for (String eventName : trace.getValue().eventNames())
+                traces(tracesByEventName, eventName, copiedEventNames).add(trace.getKey());
+        }
+
+        for (Integer length : copiedLengths) if (tracesByLength.get(length).isEmpty()) tracesByLength.remove(length);
+        for (String eventName : copiedEventNames)
+            if (tracesByEventName.get(eventName).isEmpty()) tracesByEventName.remove(eventName);
+
+        this.featuresByTrace = Collections.unmodifiableMap(features);
+        this.metadataByTrace = Map.copyOf(metadataByTrace);
+
+        indexMetadata();
+    }
+
+    /**
+     * @return the set of the ids of the traces with the given value, copied the first time it is requested, so the
+     * set shared with the index this index is built from is never changed
+     */
+    private static <K> Set<String> traces(Map<K, Set<String>> index, K value, Set<K> copied) {
+
+        if (copied.add(value)) {
+            Set<String> traces = index.get(value);
+            index.put(value, traces == null ? new HashSet<>() : new HashSet<>(traces));
+        }
+        return index.get(value);
+    }
+
+    private void indexMetadata() {
+
+        for (Map.Entry<String, Map<String, String>> trace : this.metadataByTrace.entrySet()) {
+            for (Map.Entry<String, String> metadata : trace.getValue().entrySet()) {
+                if (metadata.getValue() == null) continue;
+                tracesByMetadata.computeIfAbsent(metadata.getKey(), name -> new TreeMap<>())
+                        .computeIfAbsent(metadata.getValue(), value -> new HashSet<>()).add(trace.getKey());
+            }
+        }
+    }
+
+    /**
+     * @param featuresByTrace properties of the traces to be added, by the ids of the traces
+     * @param metadataByTrace metadata of the traces to be added, by the ids of the traces
+     * @return a new index containing the traces of this index and the given ones; only the signatures of the given
+     * traces are computed
+     */
+    CasebaseIndex with(Map<String, TraceFeatures> featuresByTrace, Map<String, Map<String, String>> metadataByTrace) {
+
+        Map<String, Map<String, String>> metadata = new HashMap<>(this.metadataByTrace);
+        metadata.putAll(metadataByTrace);
+        return new CasebaseIndex(this, List.of(), featuresByTrace, metadata);
+    }
+
+    /**
+     * Replaces the metadata of the given traces, e.g. after metadata was put into the database. The signatures are
+     * not computed again.
+     *
+     * @param metadataByTrace all metadata of the traces, by the ids of the traces; traces not part of this index are
+     *                        ignored
+     * @return a new index containing the traces of this index with the given metadata
+     */
+    CasebaseIndex withMetadata(Map<String, Map<String, String>> metadataByTrace) {
+
+        Map<String, Map<String, String>> metadata = new HashMap<>(this.metadataByTrace);
+        for (Map.Entry<String, Map<String, String>> trace : metadataByTrace.entrySet()) {
+            if (featuresByTrace.containsKey(trace.getKey())) metadata.put(trace.getKey(), trace.getValue());
+        }
+        return new CasebaseIndex(this, metadata);
+    }
+
+    /**
+     * @param traceIDs ids of the traces to be removed
+     * @return a new index containing the traces of this index except the given ones
+     */
+    CasebaseIndex without(Collection<String> traceIDs) {
+
+        Map<String, Map<String, String>> metadata = new HashMap<>(metadataByTrace);
+        for (String traceID : traceIDs) metadata.remove(traceID);
+        return new CasebaseIndex(this, traceIDs, Map.of(), metadata);
+    }
+
+    /**
+     * @return properties of the indexed traces, by the ids of the traces
+     */
+    Map<String, TraceFeatures> getFeaturesByTrace() {
+        return featuresByTrace;
+    }
+
+    /**
+     * @param traceID id of a trace
+     * @return the signature of the trace used for pruning, or null if the trace is not indexed
+     */
+    TraceSignature getSignature(String traceID) {
+        return signatureByTrace.get(traceID);
+    }
+
+    /**
+     * Determines the ids of the traces fulfilling the given conditions.
+     *
+     * @param parameters    the conditions
+     * @param traceIDsByLog ids of the traces of the casebase, grouped by the ids of the logs they belong to
+     * @return ids of the matching traces, or null if the parameters contain no condition
+     */
+    Set<String> filter(FilterParameters parameters, Map<String, String[]> traceIDsByLog) {
+
+        List<Set<String>> candidates = new ArrayList<>();
+
+        if (parameters.logIDs() != null) {
+            Set<String> traces = new HashSet<>();
+            for (String logID : parameters.logIDs()) {
+                String[] traceIDs = traceIDsByLog.get(logID);
+                if (traceIDs != null) traces.addAll(Arrays.asList(traceIDs));
+            }
+            candidates.add(traces);
+        }
+
+        if (parameters.minimumLength() != null || parameters.maximumLength() != null) {
+            int minimum = parameters.minimumLength() == null ? Integer.MIN_VALUE : parameters.minimumLength();
+            int maximum = parameters.maximumLength() == null ? Integer.MAX_VALUE : parameters.maximumLength();
+            candidates.add(minimum > maximum ? Set.of() : union(tracesByLength.subMap(minimum, true, maximum, true).values()));
+        }
+
+        if (parameters.eventNames() != null) {
+            for (String eventName : parameters.eventNames())
+                candidates.add(tracesByEventName.getOrDefault(eventName, Set.of()));
+        }
+
+        if (parameters.metadata() != null) {
+            for (MetadataFilter metadataFilter : parameters.metadata()) {
+                NavigableMap<String, Set<String>> values = tracesByMetadata.getOrDefault(metadataFilter.name(), Collections.emptyNavigableMap());
+                if (metadataFilter.value() != null) {
+                    candidates.add(values.getOrDefault(metadataFilter.value(), Set.of()));
+                } else if (metadataFilter.from() != null && metadataFilter.to() != null
+                        && metadataFilter.from().compareTo(metadataFilter.to()) > 0) {
+                    candidates.add(Set.of());
+                } else {
+                    NavigableMap<String, Set<String>> range = values;
+                    if (metadataFilter.from() != null) range = range.tailMap(metadataFilter.from(), true);
+                    if (metadataFilter.to() != null) range = range.headMap(metadataFilter.to(), true);
+                    candidates.add(union(range.values()));
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) return null;
+
+        // intersect starting with the smallest set, so every step looks up as few traces as possible
+        candidates.sort(Comparator.comparingInt(Set::size));
+        Set<String> traces = new HashSet<>(candidates.get(0));
+        for (int i = 1; i < candidates.size() && !traces.isEmpty(); i++) traces.retainAll(candidates.get(i));
+
+        return traces;
+    }
+
+    private static Set<String> union(Collection<Set<String>> sets) {
+
+        Set<String> union = new HashSet<>();
+        for (Set<String> set : sets) union.addAll(set);
+        return union;
+    }
+}
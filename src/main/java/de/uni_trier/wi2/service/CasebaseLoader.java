@@ -0,0 +1,221 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.conversion.sax.*;
+import de.uni_trier.wi2.procake.data.model.*;
+import de.uni_trier.wi2.procake.data.object.*;
+import de.uni_trier.wi2.procake.data.object.nest.*;
+import de.uni_trier.wi2.procake.data.objectpool.*;
+import org.slf4j.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * <p>Loads traces from the database into an object pool after converting them to
+ * {@link NESTSequentialWorkflowObject}s.</p>
+ *
+ * <p>The traces of each log are streamed from the database in chunks. Every chunk is wrapped in the log's header
+ * and converted on its own by a task of the given executor, so logs and chunks are converted concurrently and the
+ * XES of a whole log is never held in memory at once. The number of chunks waiting for conversion is bounded, so
+ * reading from the database cannot outrun the conversion.</p>
+ */
+class CasebaseLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(CasebaseLoader.class);
+
+    private final Model model;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final Semaphore pendingChunks;
+
+    private final WriteableObjectPool<DataObject> pool = ObjectPoolFactory.newObjectPool();
+    private final Map<String, String[]> traceIDsByLog = new LinkedHashMap<>();
+    private final Map<String, TraceFeatures> featuresByTrace = new ConcurrentHashMap<>();
+    private final List<Future<?>> conversions = new ArrayList<>();
+
+    // statistics
+    private final AtomicInteger convertedTraces = new AtomicInteger();
+    private final AtomicLong convertNanos = new AtomicLong();
+    private final AtomicLong storeNanos = new AtomicLong();
+    private long fetchNanos = 0;
+
+    /**
+     * @param model     the data model used for conversion
+     * @param executor  the executor running the conversions
+     * @param chunkSize maximum number of traces converted by one task
+     * @param threads   number of threads of the executor, determines how many chunks may wait for conversion
+     */
+    CasebaseLoader(Model model, ExecutorService executor, int chunkSize, int threads) {
+        this.model = model;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.pendingChunks = new Semaphore(2 * threads);
+    }
+
+    /**
+     * Converts the traces of the logs with the given ids.
+     *
+     * @param logIDs UUIDs of the logs
+     * @return object pool containing the converted traces, their ids being the traces' UUIDs
+     * @throws SQLException if a log does not exist in the database or if there was a problem with the sql query
+     */
+    WriteableObjectPool<DataObject> load(String[] logIDs) throws SQLException {
+
+        long start = System.nanoTime();
+        int numberOfTraces = 0;
+
+        try {
+            for (int i = 0; i < logIDs.length; i++) {
+
+                numberOfTraces += fetchLog(logIDs[i]);
+
+                logger.info("log {}/{} read from database ({} traces read, {} converted)",
+                        i + 1, logIDs.length, numberOfTraces, convertedTraces.get());
+            }
+
+            for (Future<?> conversion : conversions) conversion.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Loading of casebase was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Conversion of traces failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<?> conversion : conversions) conversion.cancel(true);
+        }
+
+        logger.info("{} traces of {} logs loaded in {} ms (fetch: {} ms, convert: {} ms, store: {} ms)",
+                numberOfTraces, logIDs.length, millis(System.nanoTime() - start),
+                millis(fetchNanos), millis(convertNanos.get()), millis(storeNanos.get()));
+
+        return pool;
+    }
+
+    /**
+     * Streams the traces of a log from the database and submits their conversion in chunks.
+     *
+     * @return number of traces of the log
+     */
+    private int fetchLog(String logID) throws SQLException {
+
+        long start = System.nanoTime();
+
+        // The traces are Strings starting with "<trace" and ending with "</trace>",
+        // so they are actually no valid xml documents.
+        // The converter however requires for the files content not only to be a valid xml document,
+        // but also to be a valid xes document, the root element of which is a log tag ("<log ...>").
+        String header = (String) DatabaseService.getLog(logID).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header);
+        int end = DatabaseService.endOfTraces(header);
+        String prefix = header.substring(0, end);
+        String suffix = header.substring(end);
+
+        AtomicLong waitedNanos = new AtomicLong();
+        List<String> traceIDsOfLog = new ArrayList<>();
+
+        int numberOfTraces = DatabaseService.streamTraces(logID, chunkSize, (traceIDs, xes) -> {
+            traceIDsOfLog.addAll(Arrays.asList(traceIDs));
+            waitedNanos.addAndGet(submitChunk(prefix, suffix, traceIDs, xes));
+        });
+
+        fetchNanos += System.nanoTime() - start - waitedNanos.get();
+        traceIDsByLog.put(logID, traceIDsOfLog.toArray(new String[]{}));
+
+        return numberOfTraces;
+    }
+
+    /**
+     * Submits the conversion of a chunk of traces, waiting while too many chunks wait for conversion.
+     *
+     * @return nanoseconds waited
+     */
+    private long submitChunk(String prefix, String suffix, String[] traceIDs, String[] xes) {
+
+        long waitStart = System.nanoTime();
+        try {
+            pendingChunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Loading of casebase was interrupted.");
+        }
+        long waited = System.nanoTime() - waitStart;
+
+        conversions.add(executor.submit(() -> {
+            try {
+                convertChunk(prefix, suffix, traceIDs, xes);
+            } finally {
+                pendingChunks.release();
+            }
+        }));
+
+        return waited;
+    }
+
+    /**
+     * Converts a chunk of traces of one log and stores them in the pool.
+     *
+     * @param prefix the header of the log up to the end tag of its log element, see {@link DatabaseService#endOfTraces(String)}
+     * @param suffix the rest of the header
+     */
+    void convertChunk(String prefix, String suffix, String[] traceIDs, String[] xes) {
+
+        long start = System.nanoTime();
+
+        int length = prefix.length() + suffix.length();
+        for (String trace : xes) length += trace.length();
+        StringBuilder log = new StringBuilder(length).append(prefix);
+        for (String trace : xes) log.append(trace);
+        log.append(suffix);
+
+        String chunk = log.toString();
+
+        XEStoNESTsAXConverter converter = new XEStoNESTsAXConverter(model);
+        converter.configure(false, false, null, traceIDs);
+        List<NESTSequentialWorkflowObject> workflows = converter.convert(chunk);
+
+        // read from the chunk in a single pass rather than trace by trace, the converter's parse cannot be shared
+        List<TraceFeatures> chunkFeatures = TraceFeatures.ofLog(chunk);
+        if (chunkFeatures.size() != traceIDs.length)
+            throw new IllegalStateException(String.format("%d traces read from a chunk of %d traces",
+                    chunkFeatures.size(), traceIDs.length));
+
+        for (int i = 0; i < traceIDs.length; i++) featuresByTrace.put(traceIDs[i], chunkFeatures.get(i));
+
+        long converted = System.nanoTime();
+        convertNanos.addAndGet(converted - start);
+        ServiceMetrics.recordConversion(converted - start, workflows.size());
+
+        synchronized (pool) {
+            pool.storeAll((Collection) workflows);
+        }
+
+        storeNanos.addAndGet(System.nanoTime() - converted);
+        convertedTraces.addAndGet(workflows.size());
+    }
+
+    /**
+     * @return object pool containing the converted traces
+     */
+    WriteableObjectPool<DataObject> getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the ids of the loaded traces, grouped by the ids of the logs they belong to
+     */
+    Map<String, String[]> getTraceIDsByLog() {
+        return traceIDsByLog;
+    }
+
+    /**
+     * @return the properties of the loaded traces used to filter the casebase, by the ids of the traces
+     */
+    Map<String, TraceFeatures> getFeaturesByTrace() {
+        return featuresByTrace;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
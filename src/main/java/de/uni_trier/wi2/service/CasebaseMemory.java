@@ -0,0 +1,89 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import de.uni_trier.wi2.procake.data.object.*;
+
+import java.util.*;
+
+/**
+ * <p>Record representing the estimated heap space taken by a state of the casebase, see {@link MemoryEstimator}.</p>
+ *
+ * <p>The traces are estimated log by log in the order the logs were added, followed by the object pool and the
+ * indexes, so objects shared by several traces, e.g. equal strings of the same log, are attributed to the first
+ * trace reaching them and the parts add up to the whole.</p>
+ *
+ * @param report       the estimate of the casebase and its logs, without the traces of the logs
+ * @param bytesByTrace estimated size of each trace, by the ids of the traces
+ */
+record CasebaseMemory(MemoryReport report, Map<String, Long> bytesByTrace) {
+
+    /**
+     * Estimates the heap space taken by the given state of the casebase. This walks every object of the casebase
+     * and therefore takes about as long as a retrieval without pruning.
+     *
+     * @param casebase              the state of the casebase
+     * @param nearestNeighbourIndex the nearest neighbour index, may be null
+     * @param warningThreshold      size of pool and indexes in bytes above which a warning is due, 0 if disabled
+     * @return the estimate
+     */
+    static CasebaseMemory measure(Casebase casebase, NearestNeighbourIndex nearestNeighbourIndex, long warningThreshold) {
+
+        MemoryEstimator estimator = new MemoryEstimator();
+        Map<String, Long> bytesByTrace = new HashMap<>();
+        List<LogMemory> logs = new ArrayList<>(casebase.traceIDsByLog().size());
+        long traceBytes = 0;
+        int numberOfTraces = 0;
+
+        for (Map.Entry<String, String[]> log : casebase.traceIDsByLog().entrySet()) {
+            long logBytes = 0;
+            int logTraces = 0;
+            for (String traceID : log.getValue()) {
+                DataObject trace = casebase.pool().getObject(traceID);
+                if (trace == null) continue;
+                long bytes = estimator.estimate(trace);
+                bytesByTrace.put(traceID, bytes);
+                logBytes += bytes;
+                logTraces++;
+            }
+            logs.add(new LogMemory(log.getKey(), logTraces, logBytes, null));
+            traceBytes += logBytes;
+            numberOfTraces += logTraces;
+        }
+        logs.sort(Comparator.comparingLong(LogMemory::bytes).reversed());
+
+        long poolBytes = traceBytes + estimator.estimate(casebase.pool());
+        long indexBytes = estimator.estimate(casebase.index());
+        long nearestNeighbourIndexBytes = nearestNeighbourIndex == null ? 0 : nearestNeighbourIndex.estimateSize(estimator);
+
+        Runtime runtime = Runtime.getRuntime();
+        long total = poolBytes + indexBytes + nearestNeighbourIndexBytes;
+
+        MemoryReport report = new MemoryReport(casebase.version(), numberOfTraces, traceBytes, poolBytes, indexBytes,
+                nearestNeighbourIndexBytes, runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory(),
+                warningThreshold, warningThreshold > 0 && total > warningThreshold, List.copyOf(logs));
+        return new CasebaseMemory(report, Map.copyOf(bytesByTrace));
+    }
+
+    /**
+     * @param logID    id of a log of the casebase
+     * @param casebase the state of the casebase this estimate refers to
+     * @return the estimate of the log including each of its traces, or null if the log is not part of the casebase
+     */
+    LogMemory getLog(String logID, Casebase casebase) {
+
+        String[] traceIDs = casebase.traceIDsByLog().get(logID);
+        if (traceIDs == null) return null;
+
+        List<TraceMemory> traces = new ArrayList<>(traceIDs.length);
+        long bytes = 0;
+        for (String traceID : traceIDs) {
+            Long traceBytes = bytesByTrace.get(traceID);
+            if (traceBytes == null) continue;
+            traces.add(new TraceMemory(traceID, traceBytes));
+            bytes += traceBytes;
+        }
+        traces.sort(Comparator.comparingLong(TraceMemory::bytes).reversed());
+
+        return new LogMemory(logID, traces.size(), bytes, traces);
+    }
+}
@@ -0,0 +1,31 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.utils.*;
+
+import java.util.*;
+
+/**
+ * <p>Record representing a retrieval configuration in the form the retriever uses it.</p>
+ *
+ * <p>The XML representations of the functions are parsed and the global method invokers are converted only once
+ * per configuration. The parsed objects are not changed by a retrieval and can therefore be shared by any number of
+ * retrievals.</p>
+ *
+ * @param id                         id of the configuration, the hash of its unparsed form
+ * @param globalSimilarityMeasure    similarity measure used on the global level
+ * @param globalMethodInvokers       methods to be invoked on the global similarity measure
+ * @param localSimilarityMeasureFunc the parsed {@link SimilarityMeasureFunc}
+ * @param localMethodInvokersFunc    the parsed {@link MethodInvokersFunc}
+ * @param localWeightFunc            the parsed {@link WeightFunc}
+ */
+record CompiledConfiguration(String id,
+                             String globalSimilarityMeasure,
+                             List<MethodInvoker> globalMethodInvokers,
+                             SimilarityMeasureFunc localSimilarityMeasureFunc,
+                             MethodInvokersFunc localMethodInvokersFunc,
+                             WeightFunc localWeightFunc) {
+
+    CompiledConfiguration {
+        globalMethodInvokers = List.copyOf(globalMethodInvokers);
+    }
+}
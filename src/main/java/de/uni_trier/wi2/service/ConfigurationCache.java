@@ -0,0 +1,78 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+
+/**
+ * <p>Content-addressed store of {@link CompiledConfiguration}s.</p>
+ *
+ * <p>Configurations are addressed by the hash of their unparsed form, so a configuration sent again with the same
+ * content is not parsed again. Configurations registered explicitly are kept apart from the configurations compiled
+ * for a single retrieval, so clients can refer to them by their id. Both are kept in bounded caches, the least
+ * recently used being evicted first; a client referring to an evicted registered configuration has to register it
+ * again.</p>
+ */
+class ConfigurationCache {
+
+    private final BoundedCache<String, CompiledConfiguration> registered;
+    private final BoundedCache<String, CompiledConfiguration> cached;
+
+    /**
+     * @param capacity           maximum number of configurations cached in addition to the registered ones
+     * @param registeredCapacity maximum number of registered configurations, at least 1
+     */
+    ConfigurationCache(int capacity, int registeredCapacity) {
+        this.cached = new BoundedCache<>(capacity);
+        this.registered = new BoundedCache<>(Math.max(1, registeredCapacity));
+    }
+
+    /**
+     * @param id id of the configuration
+     * @return the registered or cached configuration or null if there is none
+     */
+    CompiledConfiguration get(String id) {
+
+        CompiledConfiguration configuration = getRegistered(id);
+        return configuration != null ? configuration : cached.get(id);
+    }
+
+    /**
+     * @param id id of the configuration
+     * @return the registered configuration or null if there is none
+     */
+    CompiledConfiguration getRegistered(String id) {
+        return registered.get(id);
+    }
+
+    /**
+     * Caches a configuration compiled for a single retrieval.
+     *
+     * @param configuration the configuration
+     */
+    void cache(CompiledConfiguration configuration) {
+        if (!registered.contains(configuration.id())) cached.put(configuration.id(), configuration);
+    }
+
+    /**
+     * Registers a configuration, so that it is kept until the registered configurations exceed their capacity.
+     *
+     * @param configuration the configuration
+     */
+    void register(CompiledConfiguration configuration) {
+
+        // a configuration registered again is marked as recently used
+        registered.putIfAbsent(configuration.id(), configuration);
+        cached.remove(configuration.id());
+    }
+
+    /**
+     * @return {@link Map} containing the number and the capacity of the registered and the cached configurations
+     */
+    Map<String, Object> getStatistics() {
+
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("registered", registered.size());
+        statistics.put("registeredCapacity", registered.capacity());
+        statistics.put("cached", cached.size());
+        return statistics;
+    }
+}
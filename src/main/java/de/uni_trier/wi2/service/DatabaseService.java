@@ -1,18 +1,26 @@
 package de.uni_trier.wi2.service;
 
-import de.uni_trier.wi2.*;
+import com.zaxxer.hikari.*;
 import de.uni_trier.wi2.error.*;
 import org.jetbrains.annotations.*;
+import org.slf4j.*;
 import org.springframework.stereotype.*;
 import org.xml.sax.*;
 
 import javax.xml.*;
+import javax.xml.stream.*;
 import javax.xml.transform.stream.*;
 import javax.xml.validation.*;
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.regex.*;
 
 import static de.uni_trier.wi2.service.IOUtils.*;
 
@@ -23,11 +31,76 @@ import static de.uni_trier.wi2.service.IOUtils.*;
 @Service
 public class DatabaseService {
 
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
+
     // ------------------------------------------------- Connection ------------------------------------------------- //
     private static String url = null;
     private static String username = null;
     private static String password = null;
-    public static Connection connection;
+
+    private static int maximumPoolSize = 10;
+    private static int minimumIdle = 2;
+    private static long connectionTimeout = 30000;
+
+    /**
+     * The connection pool every database access borrows its connection from.
+     */
+    private static HikariDataSource dataSource;
+
+    /**
+     * The connection of the transaction the current thread is in, or null if it is not in a transaction.
+     */
+    private static final ThreadLocal<Connection> transactionConnection = new ThreadLocal<>();
+
+    /**
+     * The local store of the XES of traces and logs, or null if it is disabled.
+     */
+    private static TraceStore traceStore;
+
+    /**
+     * The changes to the {@link #traceStore} made by the current thread's transaction, applied when it is committed.
+     */
+    private static final ThreadLocal<List<TraceStoreChange>> pendingTraceStoreChanges = new ThreadLocal<>();
+
+    // ---------------------------------------------------- Insert ---------------------------------------------------- //
+    private static int insertChunkSize = 500;
+    private static long insertChunkCharacters = 4096L * 1024;
+    private static boolean insertJdbcBatch = false;
+
+    /**
+     * The end tag of the log element of a header, the prefix of its namespace being optional.
+     */
+    private static final Pattern LOG_END_TAG = Pattern.compile("</(?:[^\\s<>/:]+:)?log\\s*>");
+
+    /**
+     * Reads uploaded logs while their traces are inserted, one thread per upload, see {@link TraceChunkReader}.
+     */
+    private static final ExecutorService readerExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "log-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // ---------------------------------------------------- Metadata -------------------------------------------------- //
+    /**
+     * The ids of the metadata types by their names.
+     */
+    private static final Map<String, String> metadataTypeIDs = new ConcurrentHashMap<>();
+
+    /**
+     * The metadata types created by the current thread's transaction, cached when it is committed.
+     */
+    private static final ThreadLocal<Map<String, String>> pendingMetadataTypeIDs = new ThreadLocal<>();
+
+    /**
+     * Names the queries over joins of the metadata tables are recorded under by {@link ServiceMetrics#timeQuery}.
+     */
+    private static final String QUERYNAME__trace_metadata = "trace_metadata";
+    private static final String QUERYNAME__log_metadata = "log_metadata";
+
+    private interface TraceStoreChange {
+        void apply(TraceStore store) throws IOException;
+    }
 
     public static void setUrlUsernamePassword(String url, String username, String password) {
         DatabaseService.url = url;
@@ -35,8 +108,59 @@ public class DatabaseService {
         DatabaseService.password = password;
     }
 
+    /**
+     * Sets the sizing of the connection pool. Has to be called before {@link #connectToDatabase()}.
+     *
+     * @param maximumPoolSize   maximum number of connections held by the pool
+     * @param minimumIdle       minimum number of idle connections held by the pool
+     * @param connectionTimeout maximum number of milliseconds to wait for a connection from the pool
+     */
+    public static void setPoolSize(int maximumPoolSize, int minimumIdle, long connectionTimeout) {
+        DatabaseService.maximumPoolSize = maximumPoolSize;
+        DatabaseService.minimumIdle = minimumIdle;
+        DatabaseService.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Sets how the traces of uploaded logs are inserted. Has to be called before {@link #connectToDatabase()}.
+     *
+     * @param chunkSize  maximum number of traces inserted by a single statement or batch
+     * @param maxChunkKB maximum size of the XES of the traces inserted by a single statement or batch in kilobytes
+     *                   (counted in characters), which has to stay below the packet size limit of the database
+     * @param jdbcBatch  whether the traces of a chunk are inserted as a JDBC batch of single-row statements, which the
+     *                   driver rewrites to multi-row statements, instead of a single multi-row statement
+     */
+    public static void setInsertChunks(int chunkSize, int maxChunkKB, boolean jdbcBatch) {
+        DatabaseService.insertChunkSize = Math.max(1, chunkSize);
+        DatabaseService.insertChunkCharacters = Math.max(1, maxChunkKB) * 1024L;
+        DatabaseService.insertJdbcBatch = jdbcBatch;
+    }
+
+    /**
+     * <p>Opens the local store the XES of uploaded traces and logs is written to, see {@link TraceStore}.</p>
+     * <p>Traces and logs found in the store are read from it instead of the database.</p>
+     *
+     * @param directory directory of the store, null disables the store
+     * @throws IOException if the store could not be opened
+     */
+    public static synchronized void openTraceStore(Path directory) throws IOException {
+
+        traceStore = directory == null ? null : TraceStore.open(directory);
+    }
+
+    /**
+     * @return {@link Map} containing directory, number of logs and traces and the bytes used of the local trace
+     * store, or an empty map if the store is disabled
+     */
+    public static Map<String, Object> getTraceStoreStatistics() {
+
+        TraceStore store = traceStore;
+        return store == null ? new HashMap<>() : store.getStatistics();
+    }
+
     /**
      * <p>Connects to the database.</p>
+     * <p>A bounded connection pool is created from which every call to this service borrows a connection.</p>
      *
      * @return String containing a status message
      */
@@ -44,10 +168,81 @@ public class DatabaseService {
     public static String connectToDatabase() throws ClassNotFoundException, SQLException {
 
         Class.forName("com.mysql.cj.jdbc.Driver");
-        connection = DriverManager.getConnection(url, username, password);
-        connection.prepareStatement("SHOW TABLES").execute();
 
-        return "Connected to database";
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("restapi-database");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(Math.min(minimumIdle, maximumPoolSize));
+        config.setConnectionTimeout(connectionTimeout);
+        config.setRegisterMbeans(true);
+        // lets the driver send a batch of single-row inserts as multi-row statements
+        if (insertJdbcBatch) config.addDataSourceProperty("rewriteBatchedStatements", "true");
+
+        if (dataSource != null) dataSource.close();
+        dataSource = new HikariDataSource(config);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.prepareStatement("SHOW TABLES").execute();
+        }
+
+        return String.format("Connected to database (connection pool of at most %d connections)", maximumPoolSize);
+    }
+
+    /**
+     * @return true, if the connection pool has been set up
+     */
+    public static boolean isConnected() {
+        return dataSource != null && dataSource.isRunning();
+    }
+
+    /**
+     * <p>Returns a {@link Map} object representing the state of the connection pool.</p>
+     *
+     * <p>The map contains the number of active, idle and total connections, the number of threads waiting for a
+     * connection and the maximum pool size.</p>
+     *
+     * @return {@link Map} representing the pool metrics
+     */
+    public static Map<String, Object> getPoolMetrics() {
+
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("maximumPoolSize", maximumPoolSize);
+        metrics.put("minimumIdle", minimumIdle);
+        metrics.put("connectionTimeout", connectionTimeout);
+        if (!isConnected()) return metrics;
+
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        metrics.put("activeConnections", pool.getActiveConnections());
+        metrics.put("idleConnections", pool.getIdleConnections());
+        metrics.put("totalConnections", pool.getTotalConnections());
+        metrics.put("threadsAwaitingConnection", pool.getThreadsAwaitingConnection());
+
+        return metrics;
+    }
+
+    /**
+     * Returns the connection of the current thread's transaction, or borrows a connection from the pool if the
+     * current thread is not in a transaction.
+     * Every connection returned by this method has to be handed back by {@link #release(Connection)}.
+     */
+    private static Connection getConnection() throws SQLException {
+
+        Connection connection = transactionConnection.get();
+        if (connection != null) return connection;
+
+        if (dataSource == null) throw new SQLException("Not connected to database.");
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Returns a connection to the pool unless it belongs to the current thread's transaction.
+     */
+    private static void release(Connection connection) throws SQLException {
+
+        if (connection != transactionConnection.get()) connection.close();
     }
 
 
@@ -68,35 +263,152 @@ public class DatabaseService {
      */
     public static String[] putLog(String xes) throws XESnotValidException, SQLException, IOException, SAXException {
 
-        //HeapSpace.measure();
-
         // validate the XES
         //if (!logIsValid(xes)) throw new XESnotValidException(xes);
 
-        // Split the log into the header and the traces
-        String[] splitXES = xes.split("<trace");
-        StringBuilder header = new StringBuilder(splitXES[0]);
-
-        // Put traces in list
-        // Complete header
-        ArrayList<String> traces = new ArrayList<>();
-        String[] splitTrace;
-        String trace;
-        for (int i = 1; i < splitXES.length; i++) {
-            splitTrace = splitXES[i].split("</trace>");
-            trace = "<trace" + splitTrace[0] + "</trace>";
-            traces.add(trace);
-            if (splitTrace.length > 1) {
-                header.append(splitTrace[1]);
-            }
-            //HeapSpace.measure();
+        try (XESLogReader reader = new XESLogReader(new StringReader(xes))) {
+            return putLog(reader, null);
+        } catch (XMLStreamException e) {
+            throw new XESnotValidException(e.getMessage());
         }
+    }
+
+    /**
+     * <p>
+     * Inserts a log read from a stream into the database and returns an array of Strings containing the
+     * log's id (at index 0) and the traces' id's.
+     * </p>
+     *
+     * <p>The log is parsed trace by trace (see {@link XESLogReader}) on a thread of its own while the traces read
+     * before are inserted in chunks (see {@link #setInsertChunks(int, int, boolean)}), so only a few chunks of traces
+     * are held in memory regardless of the size of the log. The log is inserted with the part of its header read
+     * before its first trace, which is completed once the whole log has been read. If the log is not well-formed, the
+     * traces inserted before are only removed if the log is inserted within a transaction that is rolled back.</p>
+     *
+     * @param xes stream of an XES-log, its encoding is taken from the XML declaration
+     * @return String array of UUID's
+     * @throws XESnotValidException if the log is not well-formed
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static String[] putLog(InputStream xes) throws XESnotValidException, SQLException, IOException {
+        return putLog(xes, null);
+    }
+
+    /**
+     * Like {@link #putLog(InputStream)}, reporting the progress of the insertion.
+     *
+     * @param xes      stream of an XES-log, its encoding is taken from the XML declaration
+     * @param progress consumer of the number of traces inserted by every chunk, may be null
+     * @return String array of UUID's
+     * @throws XESnotValidException if the log is not well-formed
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static String[] putLog(InputStream xes, IntConsumer progress) throws XESnotValidException, SQLException, IOException {
+
+        try (XESLogReader reader = new XESLogReader(xes)) {
+            return putLog(reader, progress);
+        } catch (XMLStreamException e) {
+            throw new XESnotValidException(e.getMessage());
+        }
+    }
+
+    private static String[] putLog(XESLogReader reader, IntConsumer progress) throws XMLStreamException, SQLException, IOException {
+
+        long start = System.nanoTime();
 
         // create logID
         String logID = UUID.randomUUID().toString();
 
-        // insert log
+        // list for memorizing id's to be returned
+        List<String> ids = new ArrayList<>();
+        ids.add(logID);
+
+        // the traces are written to the trace store as they are read, the log is only committed to it at the end
+        TraceStore store = traceStore;
+        TraceStore.PendingLog pendingLog = store == null ? null : store.startLog(logID);
+
+        long waitedNanos;
+        Connection connection = getConnection();
+        try (TraceChunkReader chunks = new TraceChunkReader(reader, insertChunkSize, insertChunkCharacters, readerExecutor)) {
+
+            String insertedHeader = null;
+            TraceChunkReader.Chunk chunk;
+            do {
+                chunk = chunks.next();
+
+                // the log has to exist before its traces can reference it
+                if (insertedHeader == null && (!chunk.traces().isEmpty() || chunk.last())) {
+                    insertedHeader = chunk.header().replace(System.lineSeparator(), "");
+                    insertLog(connection, logID, insertedHeader);
+                }
+                if (chunk.traces().isEmpty()) continue;
+
+                Object[][] values = new Object[chunk.traces().size()][4];
+                for (int i = 0; i < values.length; i++) {
+
+                    String trace = chunk.traces().get(i);
+                    String traceID = UUID.randomUUID().toString();
+                    values[i] = new Object[]{
+                            traceID,
+                            logID,
+                            trace,
+                            false
+                    };
+                    ids.add(traceID);
+
+                    if (pendingLog != null) {
+                        try {
+                            store.addTrace(pendingLog, traceID, trace);
+                        } catch (IOException e) {
+                            // the database is the primary storage, reads of the log fall back to it
+                            logger.warn("log {} could not be written to the trace store: {}", logID, e.getMessage());
+                            pendingLog = null;
+                        }
+                    }
+                }
+                insertTraces(connection, values);
+                if (progress != null) progress.accept(values.length);
+
+            } while (!chunk.last());
+
+            String header = chunk.header().replace(System.lineSeparator(), "");
+            if (!header.equals(insertedHeader)) {
+                update(
+                        connection,
+                        DATABASE_NAMES.TABLENAME__log,
+                        new String[]{DATABASE_NAMES.COLUMNNAME__log__header},
+                        new Object[]{header},
+                        DATABASE_NAMES.COLUMNNAME__log__logID + " = '" + logID + "'"
+                );
+            }
+
+            if (pendingLog != null) {
+                TraceStore.PendingLog log = pendingLog;
+                changeTraceStore(current -> current.commitLog(log, header));
+            }
+
+            waitedNanos = chunks.getWaitedNanos();
+
+        } finally {
+            release(connection);
+        }
+
+        long nanos = System.nanoTime() - start;
+        int numberOfTraces = ids.size() - 1;
+        ServiceMetrics.recordLogInsert(nanos, numberOfTraces);
+        logger.info("log {} with {} traces inserted in {} ms ({} traces/s, {} ms waiting for the log to be read)",
+                logID, numberOfTraces, nanos / 1_000_000, Math.round(numberOfTraces * 1e9 / Math.max(1, nanos)),
+                waitedNanos / 1_000_000);
+
+        return ids.toArray(new String[0]);
+    }
+
+    private static void insertLog(Connection connection, String logID, String header) throws SQLException {
+
         insertInto(
+                connection,
                 DATABASE_NAMES.TABLENAME__log,
 
                 new String[]{
@@ -106,29 +418,26 @@ public class DatabaseService {
                 },
                 new Object[]{
                         logID,
-                        header.toString().replace(System.lineSeparator(), ""),
+                        header,
                         false});
+    }
 
-        // array for memorizing id's to be returned
-        String[] ids = new String[traces.size() + 1];
-        ids[0] = logID;
-
-
-        // insert traces
-        Object[][] values = new Object[traces.size()][4];
-        for (int i = 0; i < traces.size(); i++) {
+    private static void insertTraces(Connection connection, Object[][] values) throws SQLException {
 
-            String traceID = UUID.randomUUID().toString();
-            values[i] = new Object[]{
-                    traceID,
-                    logID,
-                    traces.get(i),
-                    false
-            };
-            ids[i + 1] = traceID;
+        if (insertJdbcBatch) insertBatch(
+                connection,
+                DATABASE_NAMES.TABLENAME__trace,
 
-        }
-        insertIntoValues(
+                new String[]{
+                        DATABASE_NAMES.COLUMNNAME__trace__traceID,
+                        DATABASE_NAMES.COLUMNNAME__trace__logID,
+                        DATABASE_NAMES.COLUMNNAME__trace__xes,
+                        DATABASE_NAMES.COLUMNNAME__trace__removed,
+                },
+                values
+        );
+        else insertIntoValues(
+                connection,
                 DATABASE_NAMES.TABLENAME__trace,
 
                 new String[]{
@@ -139,10 +448,48 @@ public class DatabaseService {
                 },
                 values
         );
+    }
 
-        //HeapSpace.measure();
+    /**
+     * Splits a log into its header and its traces, see {@link XESLogReader}.
+     *
+     * @param xes String containing an XES-log
+     * @return String array containing the header, i.e. the log without its traces (at index 0), and the traces
+     * @throws XESnotValidException if the log is not well-formed
+     */
+    static String[] splitLog(String xes) {
+
+        List<String> splitLog = new ArrayList<>();
+        splitLog.add(null);
+        try (XESLogReader reader = new XESLogReader(new StringReader(xes))) {
+            String trace;
+            while ((trace = reader.nextTrace()) != null) splitLog.add(trace);
+            splitLog.set(0, reader.getHeader());
+        } catch (XMLStreamException | IOException e) {
+            throw new XESnotValidException(e.getMessage());
+        }
+
+        return splitLog.toArray(new String[0]);
+    }
+
+    /**
+     * <p>Returns the index at which traces are inserted into the header of their log, i.e. the index of the end tag
+     * of its log element.</p>
+     *
+     * <p>The last end tag is taken, since "&lt;/log&gt;" may also occur in comments of the header, and a prefix of
+     * the tag is accepted, so the log element may belong to a namespace declared with a prefix.</p>
+     *
+     * @param header the header of a log, see {@link #splitLog(String)}
+     * @return index of the end tag of the log element
+     * @throws XESnotValidException if the header has no end tag of a log element
+     */
+    static int endOfTraces(String header) {
 
-        return ids;
+        Matcher matcher = LOG_END_TAG.matcher(header);
+        int end = -1;
+        while (matcher.find()) end = matcher.start();
+        if (end < 0) throw new XESnotValidException("The header of the log has no end tag of its log element.");
+        return end;
     }
 
     /**
@@ -161,9 +508,24 @@ public class DatabaseService {
      */
     public static Map<String, Object> getLog(String logID) throws SQLException {
 
+        Map<String, Object> storedLog = getStoredLog(logID);
+        if (storedLog != null) return storedLog;
 
-        ResultSet resultSet = selectFrom(DATABASE_NAMES.TABLENAME__log,
-                new String[]{DATABASE_NAMES.COLUMNNAME__log__header, DATABASE_NAMES.COLUMNNAME__log__removed},
+        Connection connection = getConnection();
+        try {
+            return getLog(connection, logID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static Map<String, Object> getLog(Connection connection, String logID) throws SQLException {
+
+        Map<String, Object> storedLog = getStoredLog(logID);
+        if (storedLog != null) return storedLog;
+
+        ResultSet resultSet = selectFrom(connection, DATABASE_NAMES.TABLENAME__log,
+                new String[]{DATABASE_NAMES.COLUMNNAME__log__removed, DATABASE_NAMES.COLUMNNAME__log__header},
                 DATABASE_NAMES.COLUMNNAME__log__logID + " = '" + logID + "'");
 
         if (!resultSet.next()) {
@@ -173,10 +535,25 @@ public class DatabaseService {
 
         Map<String, Object> log = new HashMap<>();
         log.put(DATABASE_NAMES.COLUMNNAME__log__logID, logID);
-        log.put(DATABASE_NAMES.COLUMNNAME__log__header, resultSet.getString(1));
-        log.put(DATABASE_NAMES.COLUMNNAME__log__removed, resultSet.getBoolean(2));
+        log.put(DATABASE_NAMES.COLUMNNAME__log__header, resultSet.getString(2));
+        log.put(DATABASE_NAMES.COLUMNNAME__log__removed, resultSet.getBoolean(1));
+
+        return log;
+    }
+
+    /**
+     * @return the log like {@link #getLog(String)}, read from the trace store, or null if the store does not hold it
+     */
+    private static Map<String, Object> getStoredLog(String logID) {
 
-        //HeapSpace.measure();
+        TraceStore store = readableTraceStore();
+        String header = store == null ? null : store.getHeader(logID);
+        if (header == null) return null;
+
+        Map<String, Object> log = new HashMap<>();
+        log.put(DATABASE_NAMES.COLUMNNAME__log__logID, logID);
+        log.put(DATABASE_NAMES.COLUMNNAME__log__header, header);
+        log.put(DATABASE_NAMES.COLUMNNAME__log__removed, store.isRemoved(logID));
 
         return log;
     }
@@ -190,8 +567,19 @@ public class DatabaseService {
      */
     public static int removeLog(String logID) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return removeLog(connection, logID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static int removeLog(Connection connection, String logID) throws SQLException {
+
 
         int rowsUpdated = update(
+                connection,
                 DATABASE_NAMES.TABLENAME__log,
                 new String[]{DATABASE_NAMES.COLUMNNAME__log__removed},
                 new Object[]{true},
@@ -204,12 +592,14 @@ public class DatabaseService {
         }
 
         rowsUpdated += update(
+                connection,
                 DATABASE_NAMES.TABLENAME__trace,
                 new String[]{DATABASE_NAMES.COLUMNNAME__trace__removed},
                 new Object[]{true},
                 DATABASE_NAMES.COLUMNNAME__trace__logID + " = '" + logID + "'"
         );
 
+        changeTraceStore(store -> store.removeLog(logID));
 
         return rowsUpdated;
     }
@@ -231,13 +621,49 @@ public class DatabaseService {
      */
     public static Map<String, Object> getTrace(String traceID) throws SQLException {
 
+        Map<String, Object> storedTrace = getStoredTrace(traceID);
+        if (storedTrace != null) return storedTrace;
+
+        Connection connection = getConnection();
+        try {
+            return getTrace(connection, traceID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * <p>Returns the UTF-8 encoded XES of a trace.</p>
+     *
+     * <p>If the trace is part of the local trace store, the returned buffer refers to the memory-mapped store
+     * directly, so the XES is neither copied nor held on the heap, and the database is not queried.</p>
+     *
+     * @param traceID UUID of trace
+     * @return read-only buffer containing the XES
+     * @throws SQLException if the trace does not exist in the database or if there was a problem with the sql query
+     */
+    public static ByteBuffer getTraceXES(String traceID) throws SQLException {
+
+        TraceStore store = readableTraceStore();
+        ByteBuffer xes = store == null ? null : store.getXESBuffer(traceID);
+        if (xes != null) return xes;
+
+        String trace = (String) getTrace(traceID).get(DATABASE_NAMES.COLUMNNAME__trace__xes);
+        return ByteBuffer.wrap(trace.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private static Map<String, Object> getTrace(Connection connection, String traceID) throws SQLException {
+
+        Map<String, Object> storedTrace = getStoredTrace(traceID);
+        if (storedTrace != null) return storedTrace;
 
         ResultSet resultSet = selectFrom(
+                connection,
                 DATABASE_NAMES.TABLENAME__trace,
                 new String[]{
                         DATABASE_NAMES.COLUMNNAME__trace__logID,
-                        DATABASE_NAMES.COLUMNNAME__trace__xes,
-                        DATABASE_NAMES.COLUMNNAME__trace__removed
+                        DATABASE_NAMES.COLUMNNAME__trace__removed,
+                        DATABASE_NAMES.COLUMNNAME__trace__xes
                 },
                 DATABASE_NAMES.COLUMNNAME__trace__traceID + " = '" + traceID + "'");
 
@@ -249,10 +675,27 @@ public class DatabaseService {
         Map<String, Object> trace = new HashMap<>();
         trace.put(DATABASE_NAMES.COLUMNNAME__trace__traceID, traceID);
         trace.put(DATABASE_NAMES.COLUMNNAME__trace__logID, resultSet.getString(1));
-        trace.put(DATABASE_NAMES.COLUMNNAME__trace__xes, resultSet.getString(2));
-        trace.put(DATABASE_NAMES.COLUMNNAME__trace__removed, resultSet.getBoolean(3));
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__xes, resultSet.getString(3));
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__removed, resultSet.getBoolean(2));
+
+        return trace;
+    }
+
+    /**
+     * @return the trace like {@link #getTrace(String)}, read from the trace store, or null if the store does not hold
+     * it
+     */
+    private static Map<String, Object> getStoredTrace(String traceID) {
+
+        TraceStore store = readableTraceStore();
+        String logID = store == null ? null : store.getLogID(traceID);
+        if (logID == null) return null;
 
-        //HeapSpace.measure();
+        Map<String, Object> trace = new HashMap<>();
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__traceID, traceID);
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__logID, logID);
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__xes, store.getXES(traceID));
+        trace.put(DATABASE_NAMES.COLUMNNAME__trace__removed, store.isRemoved(logID));
 
         return trace;
     }
@@ -266,8 +709,18 @@ public class DatabaseService {
      */
     public static String[] getTraceIDs(String logID) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return getTraceIDs(connection, logID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String[] getTraceIDs(Connection connection, String logID) throws SQLException {
 
         ResultSet resultSet = selectFrom(
+                connection,
                 DATABASE_NAMES.TABLENAME__trace,
                 new String[]{DATABASE_NAMES.COLUMNNAME__trace__traceID},
                 DATABASE_NAMES.COLUMNNAME__trace__logID + " = '" + logID + "'");
@@ -287,8 +740,6 @@ public class DatabaseService {
 
         String[] traceIDsArray = traceIDs.toArray(new String[]{});
 
-        //HeapSpace.measure();
-
         return traceIDsArray;
     }
 
@@ -302,15 +753,96 @@ public class DatabaseService {
     public static List<Map<String, Object>> getTraces(String logID) throws SQLException {
 
 
-        String[] traceIDs = getTraceIDs(logID);
         List<Map<String, Object>> traces = new ArrayList<>();
-        for (String traceID : traceIDs) traces.add(getTrace(traceID));
-
-        //HeapSpace.measure();
+        Connection connection = getConnection();
+        try {
+            String[] traceIDs = getTraceIDs(connection, logID);
+            for (String traceID : traceIDs) traces.add(getTrace(connection, traceID));
+        } finally {
+            release(connection);
+        }
 
         return traces;
     }
 
+    /**
+     * <p>Streams the traces belonging to the log with the given log id in batches.</p>
+     *
+     * <p>All traces are read with one query whose result is streamed from the database, so at most one batch of
+     * traces is held in memory by this method. The consumer is given the ids of the traces of a batch and the
+     * respective XES.</p>
+     *
+     * <p>If the log is part of the local trace store, only the ids of its traces are read from the database and
+     * their XES is read from the store. Traces the store does not know are read from the database afterwards.</p>
+     *
+     * @param logID     UUID of log
+     * @param batchSize maximum number of traces per batch
+     * @param consumer  consumer of the batches
+     * @return number of traces streamed
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static int streamTraces(String logID, int batchSize, BiConsumer<String[], String[]> consumer) throws SQLException {
+
+        assert (batchSize > 0);
+
+        TraceStore store = readableTraceStore();
+        if (store != null && !store.containsLog(logID)) store = null;
+
+        Connection connection = getConnection();
+        try {
+
+            ResultSet resultSet = streamFrom(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__trace,
+                    store != null
+                            ? new String[]{DATABASE_NAMES.COLUMNNAME__trace__traceID}
+                            : new String[]{DATABASE_NAMES.COLUMNNAME__trace__traceID, DATABASE_NAMES.COLUMNNAME__trace__xes},
+                    DATABASE_NAMES.COLUMNNAME__trace__logID + " = '" + logID + "'");
+
+            List<String> traceIDs = new ArrayList<>(batchSize);
+            List<String> xes = new ArrayList<>(batchSize);
+            List<String> missingTraceIDs = new ArrayList<>();
+            int numberOfTraces = 0;
+            while (resultSet.next()) {
+                String traceID = resultSet.getString(1);
+                String traceXES = store != null ? store.getXES(traceID) : resultSet.getString(2);
+                if (traceXES == null) {
+                    missingTraceIDs.add(traceID);
+                    continue;
+                }
+                traceIDs.add(traceID);
+                xes.add(traceXES);
+                numberOfTraces++;
+
+                if (traceIDs.size() == batchSize) {
+                    consumer.accept(traceIDs.toArray(new String[]{}), xes.toArray(new String[]{}));
+                    traceIDs.clear();
+                    xes.clear();
+                }
+            }
+            resultSet.close();
+
+            // the connection cannot be queried while the streamed result is open
+            for (String traceID : missingTraceIDs) {
+                traceIDs.add(traceID);
+                xes.add((String) getTrace(connection, traceID).get(DATABASE_NAMES.COLUMNNAME__trace__xes));
+                numberOfTraces++;
+
+                if (traceIDs.size() == batchSize) {
+                    consumer.accept(traceIDs.toArray(new String[]{}), xes.toArray(new String[]{}));
+                    traceIDs.clear();
+                    xes.clear();
+                }
+            }
+            if (!traceIDs.isEmpty()) consumer.accept(traceIDs.toArray(new String[]{}), xes.toArray(new String[]{}));
+
+            return numberOfTraces;
+
+        } finally {
+            release(connection);
+        }
+    }
+
     /**
      * Returns id's of all logs stored in the database.
      *
@@ -319,11 +851,22 @@ public class DatabaseService {
      */
     public static String[] getLogIDs(boolean includeRemoved) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return getLogIDs(connection, includeRemoved);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String[] getLogIDs(Connection connection, boolean includeRemoved) throws SQLException {
+
 
         String condition = "true";
         if (!includeRemoved) condition = DATABASE_NAMES.COLUMNNAME__log__removed + "= false";
 
         ResultSet resultSet = selectFrom(
+                connection,
                 DATABASE_NAMES.TABLENAME__log,
                 new String[]{DATABASE_NAMES.COLUMNNAME__log__logID},
                 condition);
@@ -343,11 +886,100 @@ public class DatabaseService {
 
         String[] logIDsArray = logIDs.toArray(new String[]{});
 
-        //HeapSpace.measure();
-
         return logIDsArray;
     }
 
+    /**
+     * <p>Returns a page of logs ordered by their ids.</p>
+     *
+     * <p>The page starts after the given log id (keyset pagination), so the cost of a page does not depend on the
+     * number of logs before it. The maps are like the ones returned by {@link #getLog(String)}.</p>
+     *
+     * @param after          id of the last log of the previous page, null for the first page
+     * @param limit          maximum number of logs
+     * @param includeRemoved whether logs flagged as removed are included
+     * @return {@link List} of {@link Map}s representing the logs of the page
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static List<Map<String, Object>> getLogs(String after, int limit, boolean includeRemoved) throws SQLException {
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        if (after != null) {
+            conditions.add(DATABASE_NAMES.COLUMNNAME__log__logID + " > ?");
+            parameters.add(after);
+        }
+        if (!includeRemoved) conditions.add(DATABASE_NAMES.COLUMNNAME__log__removed + " = false");
+
+        Connection connection = getConnection();
+        try {
+            ResultSet resultSet = selectPage(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__log,
+                    new String[]{
+                            DATABASE_NAMES.COLUMNNAME__log__logID,
+                            DATABASE_NAMES.COLUMNNAME__log__header,
+                            DATABASE_NAMES.COLUMNNAME__log__removed
+                    },
+                    conditions.isEmpty() ? "true" : String.join(" AND ", conditions),
+                    parameters.toArray(),
+                    DATABASE_NAMES.COLUMNNAME__log__logID,
+                    limit);
+
+            List<Map<String, Object>> logs = new ArrayList<>();
+            while (resultSet.next()) {
+                Map<String, Object> log = new HashMap<>();
+                log.put(DATABASE_NAMES.COLUMNNAME__log__logID, resultSet.getString(1));
+                log.put(DATABASE_NAMES.COLUMNNAME__log__header, resultSet.getString(2));
+                log.put(DATABASE_NAMES.COLUMNNAME__log__removed, resultSet.getBoolean(3));
+                logs.add(log);
+            }
+            return logs;
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * <p>Returns a page of the ids of the traces of a log, ordered by the ids.</p>
+     *
+     * <p>The page starts after the given trace id (keyset pagination), so the cost of a page does not depend on the
+     * number of traces before it.</p>
+     *
+     * @param logID UUID of log
+     * @param after id of the last trace of the previous page, null for the first page
+     * @param limit maximum number of trace ids
+     * @return {@link String} array of the trace ids of the page, empty if the log does not exist
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static String[] getTraceIDs(String logID, String after, int limit) throws SQLException {
+
+        String condition = DATABASE_NAMES.COLUMNNAME__trace__logID + " = ?";
+        Object[] parameters = new Object[]{logID};
+        if (after != null) {
+            condition += " AND " + DATABASE_NAMES.COLUMNNAME__trace__traceID + " > ?";
+            parameters = new Object[]{logID, after};
+        }
+
+        Connection connection = getConnection();
+        try {
+            ResultSet resultSet = selectPage(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__trace,
+                    new String[]{DATABASE_NAMES.COLUMNNAME__trace__traceID},
+                    condition,
+                    parameters,
+                    DATABASE_NAMES.COLUMNNAME__trace__traceID,
+                    limit);
+
+            List<String> traceIDs = new ArrayList<>();
+            while (resultSet.next()) traceIDs.add(resultSet.getString(1));
+            return traceIDs.toArray(new String[0]);
+        } finally {
+            release(connection);
+        }
+    }
+
 
     /**
      * <p>Puts a new metadata entry in the database.</p>
@@ -363,12 +995,23 @@ public class DatabaseService {
      */
     public static String putTraceMetadata(String traceID, String metadataType, String metadataValue) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return putTraceMetadata(connection, traceID, metadataType, metadataValue);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String putTraceMetadata(Connection connection, String traceID, String metadataType, String metadataValue) throws SQLException {
+
 
         // calling this function will throw an exception if the trace does not exist in the database
-        getTrace(traceID);
+        getTrace(connection, traceID);
 
         // insert new metadata
         ResultSet insertResult = insertInto(
+                connection,
                 DATABASE_NAMES.TABLENAME__metadata,
                 new String[]{DATABASE_NAMES.COLUMNNAME__metadata__value},
                 new String[]{metadataValue});
@@ -376,47 +1019,213 @@ public class DatabaseService {
         if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
         String metadataID = insertResult.getString(1);
 
-        // get metadataTypeID
+        // get metadataTypeID, the type is created if it does not exist yet
+        String typeID = getMetadataTypeID(connection, metadataType);
+
+        insertInto(
+                connection,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                new String[]{
+                        DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
+                        DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataTypeID
+                },
+                new String[]{
+                        metadataID,
+                        typeID});
+        insertInto(
+                connection,
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
+                new String[]{
+                        DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__metadataID,
+                        DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__traceID
+                },
+                new String[]{
+                        metadataID,
+                        traceID});
+
+
+        return metadataID;
+    }
+
+    /**
+     * <p>Puts new metadata entries of the same type for many traces in the database.</p>
+     *
+     * <p>Unlike calling {@link #putTraceMetadata(String, String, String)} for every trace, the existence of the traces
+     * is checked and the entries are inserted by a few statements per chunk of traces (see
+     * {@link #setInsertChunks(int, int, boolean)}). If the given metadata type does not exist yet, it is created.</p>
+     *
+     * @param traceIDs       UUIDs of traces
+     * @param metadataType   name of metadata type
+     * @param metadataValues values of metadata, in the order of the traces
+     * @return ids of metadata, in the order of the traces
+     * @throws SQLException if a trace does not exist in the database or if there was a problem with the sql query
+     */
+    public static String[] putTraceMetadata(String[] traceIDs, String metadataType, String[] metadataValues) throws SQLException {
+
+        if (traceIDs.length != metadataValues.length)
+            throw new SQLException(String.format("%d traces but %d metadata values given.", traceIDs.length, metadataValues.length));
+
+        Connection connection = getConnection();
+        try {
+            for (int from = 0; from < traceIDs.length; from += insertChunkSize)
+                checkTracesExist(connection, Arrays.copyOfRange(traceIDs, from, Math.min(traceIDs.length, from + insertChunkSize)));
+            return putTraceMetadata(connection, traceIDs, metadataType, metadataValues);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * <p>Puts a new metadata entry with the same value for every trace of a log in the database, e.g. the date the
+     * log was uploaded.</p>
+     *
+     * <p>The traces are taken from the log, so their existence is not checked again, and the entries are inserted by
+     * a few statements per chunk of traces. If the given metadata type does not exist yet, it is created.</p>
+     *
+     * @param logID         UUID of log
+     * @param metadataType  name of metadata type
+     * @param metadataValue value of metadata
+     * @return ids of metadata, in the order of the traces of the log
+     * @throws SQLException if the log does not exist in the database or if there was a problem with the sql query
+     */
+    public static String[] putTraceMetadataOfLog(String logID, String metadataType, String metadataValue) throws SQLException {
+
+        Connection connection = getConnection();
+        try {
+            // calling this function will throw an exception if the log does not exist in the database
+            getLog(connection, logID);
+
+            String[] traceIDs = getTraceIDs(connection, logID);
+            String[] metadataValues = new String[traceIDs.length];
+            Arrays.fill(metadataValues, metadataValue);
+            return putTraceMetadata(connection, traceIDs, metadataType, metadataValues);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String[] putTraceMetadata(Connection connection, String[] traceIDs, String metadataType, String[] metadataValues) throws SQLException {
+
+        String[] metadataIDs = new String[traceIDs.length];
+        if (traceIDs.length == 0) return metadataIDs;
+
+        // get metadataTypeID, the type is created if it does not exist yet
+        String typeID = getMetadataTypeID(connection, metadataType);
+
+        for (int from = 0; from < traceIDs.length; from += insertChunkSize) {
+            int to = Math.min(traceIDs.length, from + insertChunkSize);
+
+            // insert new metadata, the generated keys are returned in the order of the rows
+            Object[][] values = new Object[to - from][];
+            for (int i = from; i < to; i++) values[i - from] = new Object[]{metadataValues[i]};
+            ResultSet insertResult = insertIntoValues(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__metadata,
+                    new String[]{DATABASE_NAMES.COLUMNNAME__metadata__value},
+                    values);
+
+            for (int i = from; i < to; i++) {
+                if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
+                metadataIDs[i] = insertResult.getString(1);
+            }
+
+            Object[][] hasType = new Object[to - from][];
+            Object[][] belongsTo = new Object[to - from][];
+            for (int i = from; i < to; i++) {
+                hasType[i - from] = new Object[]{metadataIDs[i], typeID};
+                belongsTo[i - from] = new Object[]{metadataIDs[i], traceIDs[i]};
+            }
+            insertIntoValues(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__metadata_hasType,
+                    new String[]{
+                            DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
+                            DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataTypeID
+                    },
+                    hasType);
+            insertIntoValues(
+                    connection,
+                    DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
+                    new String[]{
+                            DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__metadataID,
+                            DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__traceID
+                    },
+                    belongsTo);
+        }
+
+        return metadataIDs;
+    }
+
+    /**
+     * Throws an exception naming the first of the given traces that does not exist in the database.
+     */
+    private static void checkTracesExist(Connection connection, String[] traceIDs) throws SQLException {
+
+        if (traceIDs.length == 0) return;
+
+        // the ids are given by clients, so they are passed as parameters
+        StringBuilder select = new StringBuilder("SELECT " + DATABASE_NAMES.COLUMNNAME__trace__traceID
+                + "\nFROM " + DATABASE_NAMES.TABLENAME__trace
+                + "\nWHERE " + DATABASE_NAMES.COLUMNNAME__trace__traceID + " IN (?");
+        for (int i = 1; i < traceIDs.length; i++) select.append(",?");
+        select.append(");");
+
+        PreparedStatement selectStatement = connection.prepareStatement(select.toString());
+        for (int i = 0; i < traceIDs.length; i++) selectStatement.setString(i + 1, traceIDs[i]);
+
+        ResultSet resultSet = ServiceMetrics.timeQuery("select", DATABASE_NAMES.TABLENAME__trace, selectStatement::executeQuery);
+
+        Set<String> existing = new HashSet<>();
+        while (resultSet.next()) existing.add(resultSet.getString(1));
+        for (String traceID : traceIDs) {
+            if (!existing.contains(traceID)) throw new SQLException("Trace with traceID " + traceID + " does not exist.");
+        }
+    }
+
+    /**
+     * <p>Returns the id of the metadata type with the given name, creating the type if it does not exist yet.</p>
+     *
+     * <p>The ids are cached, since metadata types are never removed except by {@link #deleteAll()}. A type created
+     * within a transaction is only cached once the transaction is committed, so a rolled back type is not used
+     * afterwards.</p>
+     */
+    private static String getMetadataTypeID(Connection connection, String metadataType) throws SQLException {
+
+        String typeID = metadataTypeIDs.get(metadataType);
+        if (typeID != null) return typeID;
+
+        Map<String, String> pendingTypeIDs = pendingMetadataTypeIDs.get();
+        if (pendingTypeIDs != null && (typeID = pendingTypeIDs.get(metadataType)) != null) return typeID;
+
         ResultSet typeIDs = selectFrom(
+                connection,
                 DATABASE_NAMES.TABLENAME__metadataType,
                 new String[]{DATABASE_NAMES.COLUMNNAME__metadataType__metadataTypeID},
-                DATABASE_NAMES.COLUMNNAME__metadataType__name + " = '" + metadataType + "'");
+                DATABASE_NAMES.COLUMNNAME__metadataType__name + " = '" + metadataType.replace("'", "''") + "'");
 
-        String typeID;
         if (typeIDs.next()) {
             typeID = typeIDs.getString(1);
-        } else {
-            // type does not exist yet
-            insertResult = insertInto(
-                    DATABASE_NAMES.TABLENAME__metadataType,
-                    new String[]{DATABASE_NAMES.COLUMNNAME__metadataType__name},
-                    new String[]{metadataType});
-
-            if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
-            typeID = insertResult.getString(1);
+            metadataTypeIDs.put(metadataType, typeID);
+            return typeID;
         }
 
-        insertInto(
-                DATABASE_NAMES.TABLENAME__metadata_hasType,
-                new String[]{
-                        DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
-                        DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataTypeID
-                },
-                new String[]{
-                        metadataID,
-                        typeID});
-        insertInto(
-                DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
-                new String[]{
-                        DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__metadataID,
-                        DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__traceID
-                },
-                new String[]{
-                        metadataID,
-                        traceID});
+        // type does not exist yet
+        ResultSet insertResult = insertInto(
+                connection,
+                DATABASE_NAMES.TABLENAME__metadataType,
+                new String[]{DATABASE_NAMES.COLUMNNAME__metadataType__name},
+                new String[]{metadataType});
 
+        if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
+        typeID = insertResult.getString(1);
 
-        return metadataID;
+        if (transactionConnection.get() == null) {
+            metadataTypeIDs.put(metadataType, typeID);
+        } else {
+            if (pendingTypeIDs == null) pendingMetadataTypeIDs.set(pendingTypeIDs = new HashMap<>());
+            pendingTypeIDs.put(metadataType, typeID);
+        }
+        return typeID;
     }
 
     /**
@@ -433,12 +1242,23 @@ public class DatabaseService {
      */
     public static String putLogMetadata(String logID, String metadataType, String metadataValue) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return putLogMetadata(connection, logID, metadataType, metadataValue);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static String putLogMetadata(Connection connection, String logID, String metadataType, String metadataValue) throws SQLException {
+
 
         // calling this function will throw an exception if the log does not exist in the database
-        getLog(logID);
+        getLog(connection, logID);
 
         // insert new metadata
         ResultSet insertResult = insertInto(
+                connection,
                 DATABASE_NAMES.TABLENAME__metadata,
                 new String[]{DATABASE_NAMES.COLUMNNAME__metadata__value},
                 new String[]{metadataValue});
@@ -446,27 +1266,11 @@ public class DatabaseService {
         if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
         String metadataID = insertResult.getString(1);
 
-        // get metadataTypeID
-        ResultSet typeIDs = selectFrom(
-                DATABASE_NAMES.TABLENAME__metadataType,
-                new String[]{DATABASE_NAMES.COLUMNNAME__metadataType__metadataTypeID},
-                DATABASE_NAMES.COLUMNNAME__metadataType__name + " = '" + metadataType + "'");
-
-        String typeID;
-        if (typeIDs.next()) {
-            typeID = typeIDs.getString(1);
-        } else {
-            // type does not exist yet
-            insertResult = insertInto(
-                    DATABASE_NAMES.TABLENAME__metadataType,
-                    new String[]{DATABASE_NAMES.COLUMNNAME__metadataType__name},
-                    new String[]{metadataType});
-
-            if (!insertResult.next()) throw new SQLException("No autogenerated key was returned.");
-            typeID = insertResult.getString(1);
-        }
+        // get metadataTypeID, the type is created if it does not exist yet
+        String typeID = getMetadataTypeID(connection, metadataType);
 
         insertInto(
+                connection,
                 DATABASE_NAMES.TABLENAME__metadata_hasType,
                 new String[]{
                         DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
@@ -476,6 +1280,7 @@ public class DatabaseService {
                         metadataID,
                         typeID});
         insertInto(
+                connection,
                 DATABASE_NAMES.TABLENAME__metadata_belongsTo_log,
                 new String[]{
                         DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_log__metadataID,
@@ -501,9 +1306,19 @@ public class DatabaseService {
      */
     public static Map<String, String> getTraceMetadata(String traceID) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return getTraceMetadata(connection, traceID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static Map<String, String> getTraceMetadata(Connection connection, String traceID) throws SQLException {
+
 
         // calling this function will throw an exception if the trace does not exist in the database
-        getTrace(traceID);
+        getTrace(connection, traceID);
 
         String join = String.format(
                 "%s join %s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s join %s",
@@ -528,6 +1343,8 @@ public class DatabaseService {
         String condition = DATABASE_NAMES.TABLENAME__trace + "." + DATABASE_NAMES.COLUMNNAME__trace__traceID + " = '" + traceID + "'";
 
         ResultSet resultSet = selectFrom(
+                connection,
+                QUERYNAME__trace_metadata,
                 join,
                 columns,
                 condition);
@@ -553,9 +1370,19 @@ public class DatabaseService {
      */
     public static Map<String, String> getLogMetadata(String logID) throws SQLException {
 
+        Connection connection = getConnection();
+        try {
+            return getLogMetadata(connection, logID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static Map<String, String> getLogMetadata(Connection connection, String logID) throws SQLException {
+
 
         // calling this function will throw an exception if the log does not exist in the database
-        getLog(logID);
+        getLog(connection, logID);
 
         String join = String.format(
                 "%s join %s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s join %s",
@@ -580,6 +1407,8 @@ public class DatabaseService {
         String condition = DATABASE_NAMES.TABLENAME__log + "." + DATABASE_NAMES.COLUMNNAME__log__logID + " = '" + logID + "'";
 
         ResultSet resultSet = selectFrom(
+                connection,
+                QUERYNAME__log_metadata,
                 join,
                 columns,
                 condition);
@@ -594,12 +1423,206 @@ public class DatabaseService {
     }
 
 
+    /**
+     * <p>Returns the metadata of the given logs, read by a single query.</p>
+     *
+     * @param logIDs UUIDs of logs
+     * @return {@link Map} assigning maps like the ones returned by {@link #getLogMetadata(String)} to the ids of the
+     * logs, logs without metadata are not contained
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static Map<String, Map<String, String>> getLogMetadata(Collection<String> logIDs) throws SQLException {
+
+        Map<String, Map<String, String>> metadata = new HashMap<>();
+        if (logIDs.isEmpty()) return metadata;
+
+        String join = String.format(
+                "%s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s",
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_log,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.COLUMNNAME__metadata__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_log,
+                DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_log__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.COLUMNNAME__metadata__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
+                DATABASE_NAMES.TABLENAME__metadataType,
+                DATABASE_NAMES.TABLENAME__metadataType,
+                DATABASE_NAMES.COLUMNNAME__metadataType__metadataTypeID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataTypeID
+        );
+        String[] columns = new String[]{
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_log + "." + DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_log__logID,
+                DATABASE_NAMES.TABLENAME__metadataType + "." + DATABASE_NAMES.COLUMNNAME__metadataType__name,
+                DATABASE_NAMES.TABLENAME__metadata + "." + DATABASE_NAMES.COLUMNNAME__metadata__value
+        };
+        String condition = DATABASE_NAMES.TABLENAME__metadata_belongsTo_log + "." + DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_log__logID
+                + " IN (" + String.join(",", Collections.nCopies(logIDs.size(), "?")) + ")";
+
+        Connection connection = getConnection();
+        try {
+            ResultSet resultSet = selectPage(connection, QUERYNAME__log_metadata, join, columns, condition, logIDs.toArray(), null, 0);
+            while (resultSet.next()) {
+                metadata.computeIfAbsent(resultSet.getString(1), logID -> new HashMap<>())
+                        .put(resultSet.getString(2), resultSet.getString(3));
+            }
+        } finally {
+            release(connection);
+        }
+
+        return metadata;
+    }
+
+    /**
+     * <p>Returns the metadata of all traces of the requested log.</p>
+     *
+     * <p>The map's keys are the UUIDs of the traces, its values are maps like the ones returned by
+     * {@link #getTraceMetadata(String)}. Traces without metadata are not contained.</p>
+     *
+     * @param logID UUID of log
+     * @return {@link Map} representing metadata by trace
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static Map<String, Map<String, String>> getTraceMetadataOfLog(String logID) throws SQLException {
+
+        Connection connection = getConnection();
+        try {
+            return getTraceMetadataOfLog(connection, logID);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static Map<String, Map<String, String>> getTraceMetadataOfLog(Connection connection, String logID) throws SQLException {
+
+
+        String join = String.format(
+                "%s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s join %s on %s.%s = %s.%s",
+                DATABASE_NAMES.TABLENAME__trace,
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
+                DATABASE_NAMES.TABLENAME__trace,
+                DATABASE_NAMES.COLUMNNAME__trace__traceID,
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
+                DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__traceID,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.COLUMNNAME__metadata__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_belongsTo_trace,
+                DATABASE_NAMES.COLUMNNAME__metadata_belongsTo_trace__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.TABLENAME__metadata,
+                DATABASE_NAMES.COLUMNNAME__metadata__metadataID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataID,
+                DATABASE_NAMES.TABLENAME__metadataType,
+                DATABASE_NAMES.TABLENAME__metadataType,
+                DATABASE_NAMES.COLUMNNAME__metadataType__metadataTypeID,
+                DATABASE_NAMES.TABLENAME__metadata_hasType,
+                DATABASE_NAMES.COLUMNNAME__metadata_hasType__metadataTypeID
+        );
+        String[] columns = new String[]{
+                DATABASE_NAMES.TABLENAME__trace + "." + DATABASE_NAMES.COLUMNNAME__trace__traceID,
+                DATABASE_NAMES.TABLENAME__metadataType + "." + DATABASE_NAMES.COLUMNNAME__metadataType__name,
+                DATABASE_NAMES.TABLENAME__metadata + "." + DATABASE_NAMES.COLUMNNAME__metadata__value
+        };
+        String condition = DATABASE_NAMES.TABLENAME__trace + "." + DATABASE_NAMES.COLUMNNAME__trace__logID + " = '" + logID + "'";
+
+        ResultSet resultSet = selectFrom(
+                connection,
+                QUERYNAME__trace_metadata,
+                join,
+                columns,
+                condition);
+
+        Map<String, Map<String, String>> metadata = new HashMap<>();
+        while (resultSet.next()) {
+            metadata.computeIfAbsent(resultSet.getString(1), traceID -> new HashMap<>())
+                    .put(resultSet.getString(2), resultSet.getString(3));
+        }
+
+
+        return metadata;
+    }
+
+
     // ----------------------------------------------------- SQL ---------------------------------------------------- //
 
 
     // - standard database operations -
 
-    private static ResultSet selectFrom(String tableName, String[] attributeNames, String condition) throws SQLException {
+    private static ResultSet selectFrom(Connection connection, String tableName, String[] attributeNames, String condition) throws SQLException {
+        return selectFrom(connection, tableName, tableName, attributeNames, condition);
+    }
+
+    /**
+     * Like {@link #selectFrom(Connection, String, String[], String)}, the query being recorded under the given name
+     * instead of the table expression, e.g. for joins.
+     */
+    private static ResultSet selectFrom(Connection connection, String queryName, String tableName, String[] attributeNames, String condition) throws SQLException {
+
+
+        assert (tableName != null &&
+                attributeNames != null &&
+                condition != null);
+
+        StringBuilder select = new StringBuilder("SELECT ");
+        if (attributeNames.length > 0) select.append(attributeNames[0]);
+        else select.append("*");
+        for (int i = 1; i < attributeNames.length; i++) select.append(",").append(attributeNames[i]);
+        select.append("\nFROM ").append(tableName).append("\nWHERE ").append(condition).append(";");
+        ResultSet resultSet = ServiceMetrics.timeQuery("select", queryName, () -> connection.prepareStatement(select.toString()).executeQuery());
+
+
+        return resultSet;
+    }
+
+    /**
+     * Like {@link #selectFrom(Connection, String, String[], String)}, passing the values of the placeholders of the
+     * condition as parameters and optionally ordering and limiting the rows.
+     *
+     * @param orderBy column the rows are ordered by, null for no order
+     * @param limit   maximum number of rows, 0 for no limit
+     */
+    private static ResultSet selectPage(Connection connection, String tableName, String[] attributeNames, String condition,
+                                        Object[] parameters, String orderBy, int limit) throws SQLException {
+        return selectPage(connection, tableName, tableName, attributeNames, condition, parameters, orderBy, limit);
+    }
+
+    /**
+     * Like {@link #selectPage(Connection, String, String[], String, Object[], String, int)}, the query being recorded
+     * under the given name instead of the table expression, e.g. for joins.
+     */
+    private static ResultSet selectPage(Connection connection, String queryName, String tableName, String[] attributeNames,
+                                        String condition, Object[] parameters, String orderBy, int limit) throws SQLException {
+
+
+        assert (tableName != null &&
+                attributeNames != null &&
+                condition != null);
+
+        StringBuilder select = new StringBuilder("SELECT ");
+        if (attributeNames.length > 0) select.append(attributeNames[0]);
+        else select.append("*");
+        for (int i = 1; i < attributeNames.length; i++) select.append(",").append(attributeNames[i]);
+        select.append("\nFROM ").append(tableName).append("\nWHERE ").append(condition);
+        if (orderBy != null) select.append("\nORDER BY ").append(orderBy);
+        if (limit > 0) select.append("\nLIMIT ").append(limit);
+        select.append(";");
+
+        PreparedStatement statement = connection.prepareStatement(select.toString());
+        for (int i = 0; i < parameters.length; i++) statement.setObject(i + 1, parameters[i]);
+
+        ResultSet resultSet = ServiceMetrics.timeQuery("select", queryName, statement::executeQuery);
+
+
+        return resultSet;
+    }
+
+    private static ResultSet streamFrom(Connection connection, String tableName, String[] attributeNames, String condition) throws SQLException {
 
 
         assert (tableName != null &&
@@ -611,13 +1634,19 @@ public class DatabaseService {
         else select.append("*");
         for (int i = 1; i < attributeNames.length; i++) select.append(",").append(attributeNames[i]);
         select.append("\nFROM ").append(tableName).append("\nWHERE ").append(condition).append(";");
-        ResultSet resultSet = connection.prepareStatement(select.toString()).executeQuery();
+
+        // forward-only, read-only and a fetch size of Integer.MIN_VALUE make the MySQL driver stream the rows
+        // instead of reading the whole result into memory
+        PreparedStatement statement = connection.prepareStatement(select.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        // only the time until the first rows arrive, reading the stream is up to the caller
+        ResultSet resultSet = ServiceMetrics.timeQuery("stream", tableName, statement::executeQuery);
 
 
         return resultSet;
     }
 
-    private static ResultSet insertInto(String tableName, String[] attributeNames, Object[] values) throws SQLException {
+    private static ResultSet insertInto(Connection connection, String tableName, String[] attributeNames, Object[] values) throws SQLException {
 
 
         assert (tableName != null &&
@@ -643,14 +1672,14 @@ public class DatabaseService {
         }
 
 
-        insertStatement.executeUpdate();
+        ServiceMetrics.timeQuery("insert", tableName, insertStatement::executeUpdate);
         ResultSet generatedKeys = insertStatement.getGeneratedKeys();
 
 
         return generatedKeys;
     }
 
-    private static ResultSet insertIntoValues(String tableName, String[] attributeNames, Object[][] values) throws SQLException {
+    private static ResultSet insertIntoValues(Connection connection, String tableName, String[] attributeNames, Object[][] values) throws SQLException {
 
 
         assert (tableName != null &&
@@ -688,26 +1717,60 @@ public class DatabaseService {
         }
 
 
-        insertStatement.executeUpdate();
+        ServiceMetrics.timeQuery("insert", tableName, insertStatement::executeUpdate);
         ResultSet generatedKeys = insertStatement.getGeneratedKeys();
 
 
         return generatedKeys;
     }
 
-    private static int deleteFrom(String tableName, String conditionString) throws SQLException {
+    private static int[] insertBatch(Connection connection, String tableName, String[] attributeNames, Object[][] values) throws SQLException {
+
+
+        assert (tableName != null &&
+                attributeNames != null &&
+                values != null);
+
+        StringBuilder insert = new StringBuilder("INSERT INTO " + tableName + " (");
+
+        if (attributeNames.length > 0) insert.append(attributeNames[0]);
+        for (int i = 1; i < attributeNames.length; i++) insert.append(",").append(attributeNames[i]);
+        insert.append(")\nVALUES (");
+
+        if (attributeNames.length > 0) insert.append("?");
+        for (int i = 1; i < attributeNames.length; i++) insert.append(",?");
+        insert.append(")");
+
+        PreparedStatement insertStatement = connection.prepareStatement(insert.toString());
+
+
+        for (Object[] row : values) {
+            for (int j = 0; j < row.length; j++) {
+                insertStatement.setObject(j + 1, row[j]);
+            }
+            insertStatement.addBatch();
+        }
+
+
+        int[] rows = ServiceMetrics.timeQuery("insert", tableName, insertStatement::executeBatch);
+
+
+        return rows;
+    }
+
+    private static int deleteFrom(Connection connection, String tableName, String conditionString) throws SQLException {
 
 
         assert (tableName != null &&
                 conditionString != null);
 
-        int rows = connection.prepareStatement("DELETE FROM " + tableName + "\nWHERE " + conditionString + ";").executeUpdate();
+        int rows = ServiceMetrics.timeQuery("delete", tableName, () -> connection.prepareStatement("DELETE FROM " + tableName + "\nWHERE " + conditionString + ";").executeUpdate());
 
 
         return rows;
     }
 
-    private static int update(String tableName, String[] attributeNames, Object[] values, String condition) throws SQLException {
+    private static int update(Connection connection, String tableName, String[] attributeNames, Object[] values, String condition) throws SQLException {
 
 
         assert (tableName != null &&
@@ -730,7 +1793,7 @@ public class DatabaseService {
         for (int i = 0; i < values.length; i++) {
             updateStatement.setObject(i + 1, values[i]);
         }
-        int rows = updateStatement.executeUpdate();
+        int rows = ServiceMetrics.timeQuery("update", tableName, updateStatement::executeUpdate);
 
 
         return rows;
@@ -738,25 +1801,150 @@ public class DatabaseService {
 
 
     // - transaction operations to ensure consistency -
+    // A transaction is bound to the thread that started it: every call to this service made by that thread uses the
+    // transaction's connection until the transaction is committed or rolled back.
 
     public static void startTransaction() throws SQLException {
 
-        connection.prepareStatement("start transaction;").execute();
+        if (transactionConnection.get() != null) throw new SQLException("Transaction already started.");
+
+        startTransaction(getConnection());
+    }
+
+    /**
+     * Starts a transaction of the current thread on the given connection, which is closed when the transaction ends.
+     */
+    static void startTransaction(Connection connection) throws SQLException {
+
+        if (transactionConnection.get() != null) throw new SQLException("Transaction already started.");
+
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        transactionConnection.set(connection);
     }
 
     public static void savepoint(String identifier) throws SQLException {
 
-        connection.prepareStatement("savepoint " + identifier + ";").execute();
+        transactionConnection().prepareStatement("savepoint " + identifier + ";").execute();
     }
 
     public static void rollbackTo(String identifier) throws SQLException {
 
-        connection.prepareStatement("rollback to savepoint " + identifier + ";").execute();
+        transactionConnection().prepareStatement("rollback to savepoint " + identifier + ";").execute();
+
+        // the deferred changes are not tracked per savepoint, so savepoints are only set at the start of a transaction
+        pendingTraceStoreChanges.remove();
+        pendingMetadataTypeIDs.remove();
     }
 
+    /**
+     * Commits the current thread's transaction and returns its connection to the pool.
+     */
     public static void commit() throws SQLException {
 
-        connection.prepareStatement("commit;").execute();
+        Connection connection = transactionConnection();
+        List<TraceStoreChange> changes = pendingTraceStoreChanges.get();
+        pendingTraceStoreChanges.remove();
+        Map<String, String> typeIDs = pendingMetadataTypeIDs.get();
+        pendingMetadataTypeIDs.remove();
+        try {
+            connection.commit();
+        } finally {
+            transactionConnection.remove();
+            close(connection);
+        }
+
+        if (typeIDs != null) metadataTypeIDs.putAll(typeIDs);
+
+        if (changes != null) for (TraceStoreChange change : changes) applyTraceStoreChange(change);
+    }
+
+    /**
+     * <p>Rolls back the current thread's transaction and returns its connection to the pool. Does nothing if the
+     * current thread is not in a transaction, e.g. because it was committed already.</p>
+     *
+     * <p>The transaction is always ended, even if the rollback fails, so its connection can never remain bound to a
+     * pooled request thread. A failed rollback is only logged, since the pool rolls back the changes of a returned
+     * connection anyway, and the caller is rolling back because of another exception it has to report.</p>
+     */
+    public static void rollback() {
+
+        Connection connection = transactionConnection.get();
+        transactionConnection.remove();
+        pendingTraceStoreChanges.remove();
+        pendingMetadataTypeIDs.remove();
+        if (connection == null) return;
+
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.warn("transaction could not be rolled back: {}", e.getMessage());
+        } finally {
+            try {
+                close(connection);
+            } catch (SQLException e) {
+                logger.warn("connection of transaction could not be closed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the connection of a transaction to the pool, even if its auto-commit mode cannot be restored.
+     */
+    private static void close(Connection connection) throws SQLException {
+
+        try {
+            connection.setAutoCommit(true);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Applies a change to the trace store, or defers it until the current thread's transaction is committed, so the
+     * store never contains changes that were rolled back.
+     */
+    private static void changeTraceStore(TraceStoreChange change) {
+
+        if (traceStore == null) return;
+        if (transactionConnection.get() == null) {
+            applyTraceStoreChange(change);
+            return;
+        }
+        List<TraceStoreChange> changes = pendingTraceStoreChanges.get();
+        if (changes == null) pendingTraceStoreChanges.set(changes = new ArrayList<>());
+        changes.add(change);
+    }
+
+    private static void applyTraceStoreChange(TraceStoreChange change) {
+
+        TraceStore store = traceStore;
+        if (store == null) return;
+        try {
+            change.apply(store);
+        } catch (IOException | RuntimeException e) {
+            // the database is the primary storage, reads of the affected traces fall back to it
+            logger.warn("trace store could not be changed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the trace store to read from, or null if it is disabled or the current thread is in a transaction,
+     * which has to see its own uncommitted changes in the database.
+     */
+    private static TraceStore readableTraceStore() {
+        return transactionConnection.get() == null ? traceStore : null;
+    }
+
+    private static Connection transactionConnection() throws SQLException {
+
+        Connection connection = transactionConnection.get();
+        if (connection == null) throw new SQLException("No transaction started.");
+        return connection;
     }
 
 
@@ -766,10 +1954,18 @@ public class DatabaseService {
     @Deprecated
     public static void deleteAll() throws SQLException, IOException {
 
+        if (traceStore != null) traceStore.clear();
+
         String sql = getResourceAsString("/sql/deleteAll.sql");
-        for (String create : sql.split("--")) {
-            connection.prepareStatement(create).execute();
+        Connection connection = getConnection();
+        try {
+            for (String create : sql.split("--")) {
+                connection.prepareStatement(create).execute();
+            }
+        } finally {
+            release(connection);
         }
+        metadataTypeIDs.clear();
     }
 
 
@@ -0,0 +1,159 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.procake.data.model.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * <p>Estimates the heap space taken by object graphs, e.g. by the converted traces of the casebase.</p>
+ *
+ * <p>The graph is walked by reflection, adding up the sizes of the objects reached. The sizes assume a 64-bit JVM
+ * with compressed references (12 bytes per object header, 4 bytes per reference, aligned to 8 bytes), the default
+ * for heaps below 32 GB. The internals of classes of the JDK cannot be read by reflection, so strings are assumed to
+ * be Latin-1 and the collections of the JDK are estimated from their number of elements.</p>
+ *
+ * <p>Every object is only counted once by the same estimator, so walking several graphs in turn attributes objects
+ * they share to the first one. Objects shared with the rest of the application, like the data classes of the ProCAKE
+ * model, are not counted at all.</p>
+ */
+class MemoryEstimator {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    // bytes per entry of a hash based collection of the JDK, without the table
+    private static final int HASH_NODE = 32;
+
+    private static final ClassValue<Layout> layouts = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return Layout.of(type);
+        }
+    };
+
+    /**
+     * Size of the fields of a class and the fields referencing other objects that can be followed.
+     */
+    private record Layout(long size, Field[] references) {
+
+        static Layout of(Class<?> type) {
+
+            long size = OBJECT_HEADER;
+            List<Field> references = new ArrayList<>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    size += sizeOf(field.getType());
+                    // fields of classes in named modules, i.e. of the JDK, cannot be made accessible
+                    if (!field.getType().isPrimitive() && field.trySetAccessible()) references.add(field);
+                }
+            }
+            return new Layout(align(size), references.toArray(new Field[0]));
+        }
+    }
+
+    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Estimates the size of the objects reachable from the given one that were not reached by a previous call.
+     *
+     * @param root the object to start from
+     * @return estimated size in bytes
+     */
+    long estimate(Object root) {
+
+        long size = 0;
+        Deque<Object> pending = new ArrayDeque<>();
+        push(pending, root);
+
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            Class<?> type = object.getClass();
+
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                if (type.getComponentType().isPrimitive()) {
+                    size += align(ARRAY_HEADER + (long) length * sizeOf(type.getComponentType()));
+                } else {
+                    size += align(ARRAY_HEADER + (long) length * REFERENCE);
+                    for (Object element : (Object[]) object) push(pending, element);
+                }
+                continue;
+            }
+
+            Layout layout = layouts.get(type);
+            size += layout.size();
+
+            if (object instanceof String string) {
+                size += align(ARRAY_HEADER + string.length());
+            } else if (object instanceof Map<?, ?> map && isOfJDK(type)) {
+                size += align(ARRAY_HEADER + (long) tableSize(map.size()) * REFERENCE) + (long) map.size() * HASH_NODE;
+                try {
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        push(pending, entry.getKey());
+                        push(pending, entry.getValue());
+                    }
+                } catch (RuntimeException e) {
+                    // changed while it was walked, the entries are left out
+                }
+            } else if (object instanceof Collection<?> collection && isOfJDK(type)) {
+                if (collection instanceof Set<?>)
+                    size += align(ARRAY_HEADER + (long) tableSize(collection.size()) * REFERENCE) + (long) collection.size() * HASH_NODE;
+                else size += align(ARRAY_HEADER + (long) collection.size() * REFERENCE);
+                try {
+                    for (Object element : collection) push(pending, element);
+                } catch (RuntimeException e) {
+                    // changed while it was walked, the elements are left out
+                }
+            } else {
+                for (Field field : layout.references()) {
+                    try {
+                        push(pending, field.get(object));
+                    } catch (IllegalAccessException e) {
+                        // not accessible after all, the referenced object is left out
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    private void push(Deque<Object> pending, Object object) {
+
+        if (object == null || isShared(object) || !visited.add(object)) return;
+        pending.push(object);
+    }
+
+    /**
+     * @return whether the object belongs to the application as a whole rather than to the estimated graph
+     */
+    private static boolean isShared(Object object) {
+        return object instanceof DataClass || object instanceof Model || object instanceof Class<?>
+                || object instanceof ClassLoader || object instanceof Thread || object instanceof Enum<?>;
+    }
+
+    private static boolean isOfJDK(Class<?> type) {
+        return type.getModule().isNamed();
+    }
+
+    private static int tableSize(int size) {
+        return Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) * 2 - 1);
+    }
+
+    private static int sizeOf(Class<?> type) {
+
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        if (type == byte.class || type == boolean.class) return 1;
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
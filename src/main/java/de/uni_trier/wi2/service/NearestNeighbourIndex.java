@@ -0,0 +1,353 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * <p>Approximate nearest neighbour index over the embeddings of the traces of the casebase (see
+ * {@link TraceSignature#embedding()}), used to find the candidates of a pruned retrieval without comparing the
+ * query with every case.</p>
+ *
+ * <p>The index is a hierarchical navigable small world graph (HNSW): every trace is a node linked to its most similar
+ * traces on a random number of levels, the higher levels containing exponentially fewer nodes. A search descends
+ * greedily from the single node of the top level and explores the bottom level starting from the node found, which
+ * takes time logarithmic in the number of traces.</p>
+ *
+ * <p>Unlike the {@link CasebaseIndex}, the graph is not rebuilt for every state of the casebase but changed in place,
+ * since inserting a trace takes much longer than indexing it. A search therefore may find traces that are not part
+ * of the state of the casebase a retrieval works on, which is why it only returns the traces accepted by the caller.
+ * Removed traces are only marked as removed, as they still connect their neighbours, until they make up half of the
+ * graph, which is then rebuilt from the remaining traces. The new graph is built while searches go on in the old
+ * one, which only blocks them for swapping the graphs.</p>
+ */
+class NearestNeighbourIndex {
+
+    /**
+     * A trace found by a search.
+     *
+     * @param traceID    id of the trace
+     * @param similarity cosine similarity of the embedding of the trace to the query
+     */
+    record Neighbour(String traceID, double similarity) {
+    }
+
+    private static final class Node {
+
+        final String traceID;
+        final float[] vector;
+        final int[][] links;
+        // similarities of the linked nodes, so a full list of links does not have to be compared again
+        final float[][] linkSimilarities;
+        final int[] numberOfLinks;
+        boolean removed;
+
+        Node(String traceID, float[] vector, int level, int maximumLinks) {
+            this.traceID = traceID;
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            this.linkSimilarities = new float[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? 2 * maximumLinks : maximumLinks];
+                linkSimilarities[l] = new float[links[l].length];
+            }
+            this.numberOfLinks = new int[level + 1];
+        }
+
+        int level() {
+            return links.length - 1;
+        }
+    }
+
+    private final int maximumLinks;
+    private final int constructionWidth;
+    private final double levelFactor;
+    // fixed seed, so the same casebase yields the same graph
+    private final Random random = new Random(0x484e5357L);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // replaced by a rebuild, changed and replaced only while holding the write lock
+    private Graph graph = new Graph();
+
+    /**
+     * @param maximumLinks      number of links of a node per level (twice as many on the bottom level)
+     * @param constructionWidth number of nodes explored to find the links of an inserted node
+     */
+    NearestNeighbourIndex(int maximumLinks, int constructionWidth) {
+        this.maximumLinks = Math.max(2, maximumLinks);
+        this.constructionWidth = Math.max(this.maximumLinks, constructionWidth);
+        this.levelFactor = 1 / Math.log(this.maximumLinks);
+    }
+
+    /**
+     * Inserts the traces of the given index not contained in the graph and removes the traces not contained in the
+     * given index.
+     *
+     * <p>Updates are synchronized, so a graph rebuilt without holding the lock is not changed in the meantime.</p>
+     *
+     * @param index index of the new state of the casebase
+     */
+    synchronized void update(CasebaseIndex index) {
+
+        Set<String> traceIDs = index.getFeaturesByTrace().keySet();
+
+        List<Node> remaining = null;
+        lock.writeLock().lock();
+        try {
+            for (Node node : graph.nodes) {
+                if (!node.removed && !traceIDs.contains(node.traceID)) graph.remove(node);
+            }
+            if (graph.numberOfRemoved > graph.nodes.size() / 2) {
+                remaining = new ArrayList<>(graph.nodes.size() - graph.numberOfRemoved);
+                for (Node node : graph.nodes) if (!node.removed) remaining.add(node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // searches go on in the old graph while the new one is built, they skip the removed traces
+        if (remaining != null) {
+            Graph rebuilt = new Graph();
+            for (Node node : remaining) rebuilt.insert(node.traceID, node.vector);
+            lock.writeLock().lock();
+            try {
+                graph = rebuilt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // every trace is inserted separately, so searches are only blocked for a single insertion
+        for (String traceID : traceIDs) {
+            TraceSignature signature = index.getSignature(traceID);
+            if (signature == null) continue;
+            lock.writeLock().lock();
+            try {
+                Integer existing = graph.nodeByTrace.get(traceID);
+                if (existing != null && !graph.nodes.get(existing).removed) continue;
+                graph.insert(traceID, signature.embedding());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Finds the traces with the embeddings most similar to the given one.
+     *
+     * @param query             embedding of the query
+     * @param numberOfNeighbours number of traces to find
+     * @param searchWidth       number of nodes explored, the larger the more accurate and the slower the search
+     * @param accept            decides by the id of a trace whether the trace may be returned
+     * @return at most the given number of accepted traces, ordered by descending similarity
+     */
+    List<Neighbour> search(float[] query, int numberOfNeighbours, int searchWidth, Predicate<String> accept) {
+
+        lock.readLock().lock();
+        try {
+            Graph graph = this.graph;
+            if (graph.entryPoint < 0 || numberOfNeighbours <= 0) return List.of();
+
+            int current = graph.entryPoint;
+            for (int level = graph.nodes.get(graph.entryPoint).level(); level > 0; level--)
+                current = graph.searchGreedy(query, current, level);
+
+            List<Integer> found = graph.searchLevel(query, current, Math.max(searchWidth, numberOfNeighbours), 0,
+                    node -> !node.removed && accept.test(node.traceID));
+
+            List<Neighbour> neighbours = new ArrayList<>(Math.min(found.size(), numberOfNeighbours));
+            for (int i = 0; i < found.size() && i < numberOfNeighbours; i++) {
+                Node node = graph.nodes.get(found.get(i));
+                neighbours.add(new Neighbour(node.traceID, Math.max(0, dot(query, node.vector))));
+            }
+            return neighbours;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of traces in the graph, not counting removed ones
+     */
+    int size() {
+
+        lock.readLock().lock();
+        try {
+            return graph.nodes.size() - graph.numberOfRemoved;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param estimator estimator of the casebase, so the embeddings shared with the {@link CasebaseIndex} are only
+     *                  counted once
+     * @return estimated size of the graph in bytes
+     */
+    long estimateSize(MemoryEstimator estimator) {
+
+        lock.readLock().lock();
+        try {
+            return estimator.estimate(graph.nodes) + estimator.estimate(graph.nodeByTrace);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The nodes of the graph and its entry point.
+     */
+    private final class Graph {
+
+        final List<Node> nodes = new ArrayList<>();
+        final Map<String, Integer> nodeByTrace = new HashMap<>();
+        int entryPoint = -1;
+        int numberOfRemoved = 0;
+
+        private void insert(String traceID, float[] vector) {
+
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+            int id = nodes.size();
+            Node node = new Node(traceID, vector, level, maximumLinks);
+            nodes.add(node);
+            nodeByTrace.put(traceID, id);
+
+            if (entryPoint < 0) {
+                entryPoint = id;
+                return;
+            }
+
+            int current = entryPoint;
+            int topLevel = nodes.get(entryPoint).level();
+            for (int l = topLevel; l > level; l--) current = searchGreedy(vector, current, l);
+
+            for (int l = Math.min(level, topLevel); l >= 0; l--) {
+                List<Integer> found = searchLevel(vector, current, constructionWidth, l, candidate -> true);
+                found.remove((Integer) id);
+                int capacity = node.links[l].length;
+                for (int i = 0; i < found.size() && i < capacity; i++) {
+                    int neighbour = found.get(i);
+                    float similarity = (float) dot(vector, nodes.get(neighbour).vector);
+                    node.links[l][node.numberOfLinks[l]] = neighbour;
+                    node.linkSimilarities[l][node.numberOfLinks[l]++] = similarity;
+                    link(neighbour, id, similarity, l);
+                }
+                if (!found.isEmpty()) current = found.get(0);
+            }
+
+            if (level > topLevel) entryPoint = id;
+        }
+
+        /**
+         * Adds a link from one node to another, dropping the link to the least similar node if there are too many.
+         */
+        private void link(int from, int to, float similarity, int level) {
+
+            Node node = nodes.get(from);
+            int[] links = node.links[level];
+            float[] similarities = node.linkSimilarities[level];
+            if (node.numberOfLinks[level] < links.length) {
+                links[node.numberOfLinks[level]] = to;
+                similarities[node.numberOfLinks[level]++] = similarity;
+                return;
+            }
+
+            int worst = -1;
+            float worstSimilarity = similarity;
+            for (int i = 0; i < links.length; i++) {
+                if (similarities[i] < worstSimilarity) {
+                    worst = i;
+                    worstSimilarity = similarities[i];
+                }
+            }
+            if (worst >= 0) {
+                links[worst] = to;
+                similarities[worst] = similarity;
+            }
+        }
+
+        private void remove(Node node) {
+
+            node.removed = true;
+            numberOfRemoved++;
+        }
+
+        /**
+         * Follows the links of the given level to the node most similar to the query.
+         */
+        private int searchGreedy(float[] query, int start, int level) {
+
+            int current = start;
+            double similarity = dot(query, nodes.get(current).vector);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                Node node = nodes.get(current);
+                for (int i = 0; i < node.numberOfLinks[level]; i++) {
+                    int neighbour = node.links[level][i];
+                    double neighbourSimilarity = dot(query, nodes.get(neighbour).vector);
+                    if (neighbourSimilarity > similarity) {
+                        current = neighbour;
+                        similarity = neighbourSimilarity;
+                        improved = true;
+                    }
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Explores the given level starting from the given node, keeping the given number of most similar nodes found.
+         * Nodes not accepted are explored, as they may lead to accepted ones, but not returned.
+         *
+         * @return the most similar accepted nodes, ordered by descending similarity
+         */
+        private List<Integer> searchLevel(float[] query, int start, int width, int level, Predicate<Node> accept) {
+
+            // candidates to explore, most similar first, and the best accepted nodes so far, least similar first
+            PriorityQueue<double[]> candidates = new PriorityQueue<>((a, b) -> Double.compare(b[0], a[0]));
+            PriorityQueue<double[]> best = new PriorityQueue<>(Comparator.comparingDouble(a -> a[0]));
+            BitSet visited = new BitSet(nodes.size());
+
+            double startSimilarity = dot(query, nodes.get(start).vector);
+            candidates.add(new double[]{startSimilarity, start});
+            visited.set(start);
+            if (accept.test(nodes.get(start))) best.add(new double[]{startSimilarity, start});
+
+            while (!candidates.isEmpty()) {
+                double[] candidate = candidates.poll();
+                if (best.size() >= width && candidate[0] < best.peek()[0]) break;
+
+                Node node = nodes.get((int) candidate[1]);
+                for (int i = 0; i < node.numberOfLinks[level]; i++) {
+                    int neighbour = node.links[level][i];
+                    if (visited.get(neighbour)) continue;
+                    visited.set(neighbour);
+
+                    double similarity = dot(query, nodes.get(neighbour).vector);
+                    if (best.size() < width || similarity > best.peek()[0]) {
+                        candidates.add(new double[]{similarity, neighbour});
+                        if (accept.test(nodes.get(neighbour))) {
+                            best.add(new double[]{similarity, neighbour});
+                            if (best.size() > width) best.poll();
+                        }
+                    }
+                }
+            }
+
+            List<double[]> ordered = new ArrayList<>(best);
+            ordered.sort((a, b) -> Double.compare(b[0], a[0]));
+            List<Integer> found = new ArrayList<>(ordered.size());
+            for (double[] node : ordered) found.add((int) node[1]);
+            return found;
+        }
+    }
+
+    private static double dot(float[] a, float[] b) {
+
+        double dot = 0;
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) dot += a[i] * b[i];
+        return dot;
+    }
+}
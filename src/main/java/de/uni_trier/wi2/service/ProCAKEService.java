@@ -1,7 +1,6 @@
 package de.uni_trier.wi2.service;
 
 
-import de.uni_trier.wi2.*;
 import de.uni_trier.wi2.conversion.sax.*;
 import de.uni_trier.wi2.eval.*;
 import de.uni_trier.wi2.extension.abstraction.*;
@@ -24,6 +23,7 @@ import de.uni_trier.wi2.procake.similarity.base.impl.*;
 import de.uni_trier.wi2.procake.similarity.impl.*;
 import de.uni_trier.wi2.procake.utils.exception.*;
 import de.uni_trier.wi2.utils.*;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.*;
 import org.springframework.stereotype.*;
 import org.xml.sax.*;
@@ -33,6 +33,10 @@ import java.io.*;
 import java.lang.reflect.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 
 /**
@@ -49,9 +53,134 @@ public class ProCAKEService {
     static final String TYPE_NAME_BYTE = "byte";
     static Logger logger = LoggerFactory.getLogger(ProCAKEService.class);
     /**
-     * The casebase used for retrieval.
+     * <p>The casebase used for retrieval, or null if it has not been loaded yet.</p>
+     * <p>A published casebase is never changed. Every change builds a new {@link Casebase} which replaces the
+     * current one atomically, so retrieval never sees a half-built casebase. Changes are serialized by synchronizing
+     * on this class, retrieval does not need any lock.</p>
      */
-    static WriteableObjectPool<DataObject> casebase;
+    static final AtomicReference<Casebase> casebase = new AtomicReference<>();
+
+    /**
+     * The version of the casebase. It is incremented every time the casebase is changed, i.e. when it is reloaded
+     * or when traces are added to or removed from it.
+     */
+    static final AtomicLong casebaseVersion = new AtomicLong();
+
+    /**
+     * Serializes the changes of the casebase, so every change builds on the casebase published by the one before.
+     * Retrievals never take it, and changes only hold it to build the new casebase from converted traces, see
+     * {@link #change(UnaryOperator)}.
+     */
+    private static final Object changeLock = new Object();
+
+    /**
+     * Changes published while a reload is running, applied to the reloaded casebase as well before it is published,
+     * see {@link #loadCasebase()}. Null if no reload is running, guarded by the {@link #changeLock}.
+     */
+    private static List<UnaryOperator<Casebase>> changesDuringReload = null;
+
+    /**
+     * Serializes reloads of the casebase.
+     */
+    private static final Object reloadLock = new Object();
+
+    /**
+     * Number of threads converting traces when the casebase is loaded.
+     */
+    static int loadThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of traces converted at once by one thread when the casebase is loaded.
+     */
+    static int loadChunkSize = 500;
+
+    /**
+     * The executor converting traces when the casebase is loaded.
+     */
+    private static ExecutorService loadExecutor;
+
+    /**
+     * Decides how many workers a retrieval may use.
+     */
+    static RetrievalScheduler retrievalScheduler = new RetrievalScheduler(Runtime.getRuntime().availableProcessors(), 100);
+
+    /**
+     * Executor running the retrievals of batch retrievals, one thread per worker of the {@link RetrievalScheduler}.
+     */
+    private static ExecutorService retrievalExecutor;
+
+    /**
+     * Caches the results of retrievals on the current casebase.
+     */
+    static RetrievalCache retrievalCache = new RetrievalCache(1000);
+
+    /**
+     * The parsed retrieval configurations, addressed by the hash of their unparsed form.
+     */
+    static ConfigurationCache configurationCache = new ConfigurationCache(100, 1000);
+
+    /**
+     * The converted query traces sent as XES, keyed by the hash of the XES.
+     */
+    static QueryCache queryCache = new QueryCache(1000);
+
+    /**
+     * Number of cases compared with the query before a streamed retrieval reports its intermediate ranking.
+     */
+    static int streamSegmentSize = 1000;
+
+    /**
+     * Default number of cases compared before the threshold of early abandoning is updated.
+     */
+    static int earlyAbandoningBatchSize = 250;
+
+    /**
+     * Approximate nearest neighbour index over the embeddings of the traces, null if disabled.
+     */
+    static NearestNeighbourIndex nearestNeighbourIndex;
+
+    /**
+     * Minimum number of nodes explored by a search of the {@link #nearestNeighbourIndex}.
+     */
+    static int nearestNeighbourSearchWidth = 100;
+
+    /**
+     * Size of pool and indexes in bytes above which a warning is logged when the casebase changes, 0 disables it.
+     */
+    static long memoryWarningThreshold = 0;
+
+    /**
+     * The latest estimate of the heap space taken by the casebase, see {@link CasebaseMemory}.
+     */
+    private static final AtomicReference<CasebaseMemory> casebaseMemory = new AtomicReference<>();
+
+    /**
+     * Estimates the heap space of the casebase after it changed, if a warning threshold is set.
+     */
+    private static final ExecutorService memoryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "casebase-memory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Tolerance for rounding errors of the similarity measures when comparing a bound with the threshold.
+     */
+    private static final double BOUND_TOLERANCE = 1e-9;
+
+    /**
+     * Pairs of configuration and bound for which a similarity above its bound was found, see {@link #performBounded}.
+     * Retrievals with such a pair compare all cases. The least recently used pairs are evicted first.
+     */
+    private static final BoundedCache<String, Boolean> inadmissibleBounds = new BoundedCache<>(100);
+
+    /**
+     * Order of the results: by descending similarity, ties broken by the id of the case. Which of the cases tied at
+     * the last position make it into the results is left to the retriever, which only returns the requested number of
+     * results.
+     */
+    private static final Comparator<Retrieval> RANKING = Comparator.comparing(Retrieval::similarityValue,
+            Comparator.nullsLast(Comparator.<Double>reverseOrder())).thenComparing(Retrieval::id);
 
     /**
      * The similarity model the ProCAKE instance uses.
@@ -68,6 +197,15 @@ public class ProCAKEService {
      */
     static Map<String, List<SimilarityMeasureImpl>> dataClassToSimilarityMeasureMap;
 
+    static {
+        ServiceMetrics.gauge("casebase.traces", "Number of traces in the casebase", ProCAKEService::getCasebaseSize);
+        ServiceMetrics.gauge("casebase.logs", "Number of logs in the casebase", () -> {
+            Casebase current = casebase.get();
+            return current == null ? 0 : current.traceIDsByLog().size();
+        });
+        ServiceMetrics.gauge("casebase.version", "Version of the casebase", ProCAKEService::getCasebaseVersion);
+    }
+
     /**
      * Sets up ProCAKE instance.
      *
@@ -140,6 +278,8 @@ public class ProCAKEService {
 
         }
 
+        ServiceMetrics.registerMeasure(sm.getSystemName());
+
         // sets the DataClass the SM can be applied to
         sm.setDataClass(dataClass);
 
@@ -153,97 +293,510 @@ public class ProCAKEService {
     }
 
     /**
-     * Reloads the traces from the database into the casebase after converting them to {@link NESTSequentialWorkflowObject}s.
+     * Sets the number of threads converting traces and the number of traces converted at once by one thread when
+     * the casebase is loaded.
+     *
+     * @param threads   number of threads
+     * @param chunkSize number of traces
+     */
+    public static synchronized void setLoadConfiguration(int threads, int chunkSize) {
+
+        if (loadExecutor != null && threads != loadThreads) {
+            loadExecutor.shutdown();
+            loadExecutor = null;
+        }
+        loadThreads = Math.max(1, threads);
+        loadChunkSize = Math.max(1, chunkSize);
+    }
+
+    private static synchronized ExecutorService getLoadExecutor() {
+
+        if (loadExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            loadExecutor = Executors.newFixedThreadPool(loadThreads, runnable -> {
+                Thread thread = new Thread(runnable, "casebase-loader-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return loadExecutor;
+    }
+
+    private static CasebaseLoader newCasebaseLoader() {
+        return new CasebaseLoader(model, getLoadExecutor(), loadChunkSize, loadThreads);
+    }
+
+    /**
+     * Sets the number of workers shared by all retrievals and the minimum number of cases a worker should compare.
+     *
+     * @param maximumWorkers        number of workers
+     * @param minimumCasesPerWorker number of cases
+     */
+    public static synchronized void setRetrievalConfiguration(int maximumWorkers, int minimumCasesPerWorker) {
+
+        if (retrievalExecutor != null && maximumWorkers != retrievalScheduler.getMaximumWorkers()) {
+            retrievalExecutor.shutdown();
+            retrievalExecutor = null;
+        }
+        retrievalScheduler = new RetrievalScheduler(maximumWorkers, minimumCasesPerWorker);
+    }
+
+    private static synchronized ExecutorService getRetrievalExecutor() {
+
+        if (retrievalExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            retrievalExecutor = Executors.newFixedThreadPool(retrievalScheduler.getMaximumWorkers(), runnable -> {
+                Thread thread = new Thread(runnable, "retrieval-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retrievalExecutor;
+    }
+
+    /**
+     * Sets the maximum number of retrieval results kept in the cache.
+     *
+     * @param capacity number of retrieval results, 0 disables the cache
+     */
+    public static void setRetrievalCacheSize(int capacity) {
+        retrievalCache = new RetrievalCache(capacity);
+    }
+
+    /**
+     * Sets the maximum number of registered configurations, the least recently used are evicted first.
+     *
+     * @param capacity number of registered configurations, at least 1
+     */
+    public static void setRegisteredConfigurationCapacity(int capacity) {
+        configurationCache = new ConfigurationCache(100, capacity);
+    }
+
+    /**
+     * Sets the maximum number of converted query traces kept in the cache.
+     *
+     * @param capacity number of query traces, 0 disables the cache
+     */
+    public static void setQueryCacheSize(int capacity) {
+        queryCache = new QueryCache(capacity);
+    }
+
+    /**
+     * Sets the number of cases compared with the query before a streamed retrieval reports its intermediate ranking.
+     *
+     * @param segmentSize number of cases
+     */
+    public static void setStreamSegmentSize(int segmentSize) {
+        streamSegmentSize = Math.max(1, segmentSize);
+    }
+
+    /**
+     * Sets the default number of cases compared before the threshold of early abandoning is updated, see
+     * {@link EarlyAbandoningParameters}.
+     *
+     * @param batchSize number of cases
+     */
+    public static void setEarlyAbandoningBatchSize(int batchSize) {
+        earlyAbandoningBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the length of the activity n-grams, the number of hash functions of the MinHash and the dimension of the
+     * embedding of the signatures used for pruning, see {@link TraceSignature}. Has to be called before the casebase
+     * is loaded.
+     *
+     * @param nGramSize     length of the n-grams
+     * @param minHashSize   number of hash functions
+     * @param embeddingSize dimension of the embedding
+     */
+    public static void setSignatureConfiguration(int nGramSize, int minHashSize, int embeddingSize) {
+        TraceSignature.configure(nGramSize, minHashSize, embeddingSize);
+    }
+
+    /**
+     * Enables or disables the approximate nearest neighbour index used to prune retrievals by the embeddings of the
+     * traces, see {@link NearestNeighbourIndex}. Has to be called before the casebase is loaded.
+     *
+     * @param enabled           whether the index is built
+     * @param maximumLinks      number of links of a trace per level of the index
+     * @param constructionWidth number of traces explored to find the links of an inserted trace
+     * @param searchWidth       minimum number of traces explored by a search
+     */
+    public static synchronized void setNearestNeighbourConfiguration(boolean enabled, int maximumLinks, int constructionWidth, int searchWidth) {
+        nearestNeighbourIndex = enabled ? new NearestNeighbourIndex(maximumLinks, constructionWidth) : null;
+        nearestNeighbourSearchWidth = Math.max(1, searchWidth);
+    }
+
+    /**
+     * Sets the size of pool and indexes above which a warning is logged when the casebase changes.
+     *
+     * @param megabytes the threshold in megabytes, 0 disables the warning
+     */
+    public static void setMemoryWarningThreshold(long megabytes) {
+        memoryWarningThreshold = Math.max(0, megabytes) * 1024 * 1024;
+    }
+
+    /**
+     * @return {@link Map} containing capacity, size, hits and misses of the retrieval cache
+     */
+    public static Map<String, Object> getRetrievalCacheStatistics() {
+
+        Map<String, Object> statistics = retrievalCache.getStatistics();
+        statistics.put("configurations", configurationCache.getStatistics());
+        statistics.put("queries", queryCache.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * <p>Replaces the current casebase.</p>
+     * <p>The {@link #nearestNeighbourIndex} is updated while holding the {@link #changeLock} only, so the monitor of
+     * this class is only held to swap the casebase.</p>
+     *
+     * @param pool          the converted traces, must not be changed afterwards
+     * @param traceIDsByLog ids of the traces in the pool, grouped by the ids of the logs they belong to
+     * @param index         indexes over the traces in the pool
+     * @return version of the new casebase
+     */
+    static long publish(ReadableObjectPool<DataObject> pool, Map<String, String[]> traceIDsByLog, CasebaseIndex index) {
+
+        synchronized (changeLock) {
+
+            // the graph is complete before the new casebase is used, retrievals on older ones ignore the traces added
+            NearestNeighbourIndex nearestNeighbours = nearestNeighbourIndex;
+            if (nearestNeighbours != null) {
+                long start = System.nanoTime();
+                nearestNeighbours.update(index);
+                logger.info("nearest neighbour index of {} traces updated in {} ms", nearestNeighbours.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+
+            return swap(pool, traceIDsByLog, index);
+        }
+    }
+
+    private static synchronized long swap(ReadableObjectPool<DataObject> pool, Map<String, String[]> traceIDsByLog, CasebaseIndex index) {
+
+        long version = casebaseVersion.incrementAndGet();
+        casebase.set(new Casebase(pool, traceIDsByLog, index, version));
+
+        // results on older versions of the casebase cannot be hit anymore
+        retrievalCache.clear();
+
+        if (memoryWarningThreshold > 0) memoryExecutor.execute(ProCAKEService::measureMemory);
+
+        return version;
+    }
+
+    /**
+     * <p>Reloads the traces from the database into the casebase after converting them to {@link NESTSequentialWorkflowObject}s.</p>
+     * <p>The logs are streamed from the database and converted concurrently, see {@link CasebaseLoader}. The
+     * current casebase stays available for retrieval until the new one is complete. Logs added to or removed from the
+     * casebase in the meantime are added to or removed from the new one as well before it is published.</p>
      *
      * @return status message
      */
     public static String loadCasebase() {
 
-        // Re-instantiate the case base
-        casebase = ObjectPoolFactory.newObjectPool();
+        synchronized (reloadLock) {
 
-        try {
+            synchronized (changeLock) {
+                changesDuringReload = new ArrayList<>();
+            }
+            try {
+
+                Timer.Sample sample = ServiceMetrics.start();
+
+                // build the new case base off to the side
+                CasebaseLoader loader = newCasebaseLoader();
+                WriteableObjectPool<DataObject> pool = loader.load(DatabaseService.getLogIDs(false));
+                CasebaseIndex index = new CasebaseIndex(loader.getFeaturesByTrace(),
+                        getTraceMetadata(loader.getTraceIDsByLog().keySet()));
+                Casebase loaded = new Casebase(pool, loader.getTraceIDsByLog(), index, 0);
+
+                synchronized (changeLock) {
+                    // the logs read from the database may not reflect the changes published since the reload started
+                    for (UnaryOperator<Casebase> change : changesDuringReload) loaded = change.apply(loaded);
+                    changesDuringReload = null;
+                    publish(loaded.pool(), loaded.traceIDsByLog(), loaded.index());
+                }
+                ServiceMetrics.stopLoad(sample);
+
+                return "Casebase loaded successfully!";
+            } catch (SQLException | RuntimeException e) {
+                logger.error("casebase could not be loaded", e);
+                return ":(";
+            } finally {
+                synchronized (changeLock) {
+                    changesDuringReload = null;
+                }
+            }
+        }
+    }
 
-            // The traces are Strings starting with "<trace" and ending with "</trace>",
-            // so they are actually no valid xml documents.
-            // The converter however requires for the files content not only to be a valid xml document,
-            // but also to be a valid xes document, the root element of which is a log tag ("<log ...>").
+    /**
+     * <p>Applies a change to the current casebase and publishes the result.</p>
+     * <p>The change is applied while holding the {@link #changeLock}, so it must neither read from the database nor
+     * convert traces. If a reload is running, the change is applied to the reloaded casebase as well.</p>
+     *
+     * @param change builds the changed casebase from a casebase, which it must not change; returns the given casebase
+     *               if there is nothing to change
+     * @return version of the changed casebase, or of the current one if the casebase has not been loaded yet or the
+     * change did not change anything
+     */
+    private static long change(UnaryOperator<Casebase> change) {
 
-            Map<String, Object> log;
+        synchronized (changeLock) {
 
-            String header, prefix, suffix;
+            if (changesDuringReload != null) changesDuringReload.add(change);
 
-            suffix = "</log>";
+            Casebase current = casebase.get();
+            if (current == null) return casebaseVersion.get();
+            Casebase changed = change.apply(current);
+            if (changed == current) return current.version();
 
-            Map<String, Object> trace;
+            return publish(changed.pool(), changed.traceIDsByLog(), changed.index());
+        }
+    }
 
-            String xes;
+    /**
+     * Reads the metadata of the traces of the given logs, used to build the {@link CasebaseIndex}.
+     */
+    private static Map<String, Map<String, String>> getTraceMetadata(Collection<String> logIDs) throws SQLException {
 
-            StringBuilder completeLog;
+        Map<String, Map<String, String>> metadata = new HashMap<>();
+        for (String logID : logIDs) metadata.putAll(DatabaseService.getTraceMetadataOfLog(logID));
+        return metadata;
+    }
 
-            for (String logID : DatabaseService.getLogIDs(false)) {
+    /**
+     * <p>Converts the traces of the log with the given id and adds them to the casebase.</p>
+     * <p>Unlike {@link #loadCasebase()}, only the traces of the given log are converted. They are converted without
+     * holding the {@link #changeLock}, so other changes are not blocked meanwhile. If the log is part of the casebase
+     * already, its traces are replaced.</p>
+     *
+     * @param logID UUID of the log
+     * @return version of the casebase containing the log's traces
+     * @throws SQLException if the log does not exist in the database or if there was a problem with the sql query
+     */
+    public static long addLogToCasebase(String logID) throws SQLException {
 
-                log = DatabaseService.getLog(logID);
+        // the casebase has not been loaded yet and is not being loaded, it will contain the log's traces once it is
+        synchronized (changeLock) {
+            if (casebase.get() == null && changesDuringReload == null) return casebaseVersion.get();
+        }
 
-                header = (String) log.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header);
+        CasebaseLoader loader = newCasebaseLoader();
+        Collection<DataObject> traces = loader.load(new String[]{logID}).getCollection();
+        String[] traceIDs = loader.getTraceIDsByLog().get(logID);
+        Map<String, TraceFeatures> featuresByTrace = loader.getFeaturesByTrace();
+        Map<String, Map<String, String>> metadataByTrace = getTraceMetadata(List.of(logID));
 
-                prefix = header.split(suffix)[0];
+        long version = change(current -> withLog(current, logID, traces, traceIDs, featuresByTrace, metadataByTrace));
 
-                String[] ids = DatabaseService.getTraceIDs(logID);
+        logger.info("{} traces of log {} added to casebase", traces.size(), logID);
 
-                completeLog = new StringBuilder(prefix);
+        return version;
+    }
 
-                for (String traceID : ids) {
+    /**
+     * @return a casebase containing the traces of the given casebase and the given traces of the log, the version of
+     * which is the version of the given casebase until it is published
+     */
+    private static Casebase withLog(Casebase current, String logID, Collection<DataObject> traces, String[] traceIDs,
+                                    Map<String, TraceFeatures> featuresByTrace, Map<String, Map<String, String>> metadataByTrace) {
 
-                    trace = DatabaseService.getTrace(traceID);
+        Casebase base = withoutLog(current, logID);
 
-                    xes = (String) trace.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__xes);
+        // copy on write
+        WriteableObjectPool<DataObject> pool = ObjectPoolFactory.newObjectPool();
+        pool.storeAll(base.pool().getCollection());
+        pool.storeAll(traces);
+        Map<String, String[]> traceIDsByLog = new LinkedHashMap<>(base.traceIDsByLog());
+        traceIDsByLog.put(logID, traceIDs);
 
-                    completeLog.append(xes);
+        return new Casebase(pool, traceIDsByLog, base.index().with(featuresByTrace, metadataByTrace), current.version());
+    }
 
+    /**
+     * <p>Reads the metadata of the given traces from the database again and replaces it in the index of the casebase,
+     * so filters by metadata take metadata put after the traces were added to the casebase into account.</p>
+     * <p>The metadata is read per log containing any of the traces. Traces that are not part of the casebase are
+     * ignored.</p>
+     *
+     * @param traceIDs ids of the traces whose metadata changed
+     * @return version of the casebase with the current metadata
+     * @throws SQLException if there was a problem with the sql query
+     */
+    public static long refreshCasebaseMetadata(Collection<String> traceIDs) throws SQLException {
+
+        Casebase current = casebase.get();
+        if (current == null) return casebaseVersion.get();
+
+        Set<String> changed = new HashSet<>(traceIDs);
+        List<String> logIDs = new ArrayList<>();
+        for (Map.Entry<String, String[]> log : current.traceIDsByLog().entrySet()) {
+            for (String traceID : log.getValue()) {
+                if (changed.contains(traceID)) {
+                    logIDs.add(log.getKey());
+                    break;
                 }
+            }
+        }
+        if (logIDs.isEmpty()) return current.version();
 
-                completeLog.append(suffix);
+        Map<String, Map<String, String>> metadataByTrace = getTraceMetadata(logIDs);
+        long version = change(base -> new Casebase(base.pool(), base.traceIDsByLog(),
+                base.index().withMetadata(metadataByTrace), base.version()));
 
-                XEStoNESTsAXparallelConverter converter = new XEStoNESTsAXparallelConverter(model, 7);
+        logger.info("metadata of {} traces in {} logs of the casebase refreshed", changed.size(), logIDs.size());
 
-                converter.configure(false, false, null, ids);
+        return version;
+    }
 
-                casebase.storeAll((Collection) converter.convert(completeLog.toString()));
+    /**
+     * Removes the traces of the log with the given id from the casebase.
+     *
+     * @param logID UUID of the log
+     * @return version of the casebase not containing the log's traces anymore
+     */
+    public static long removeLogFromCasebase(String logID) {
 
-                //HeapSpace.measure();
+        long version = change(current -> withoutLog(current, logID));
 
-            }
+        logger.info("traces of log {} removed from casebase", logID);
+
+        return version;
+    }
 
-            return "Casebase loaded successfully!";
-        } catch (SQLException e) {
-            return ":(";//todo: logging
+    /**
+     * @return a casebase containing the traces of the given casebase except the ones of the log, the version of which
+     * is the version of the given casebase until it is published; the given casebase if it does not contain the log
+     */
+    private static Casebase withoutLog(Casebase current, String logID) {
+
+        String[] traceIDs = current.traceIDsByLog().get(logID);
+        if (traceIDs == null) return current;
+        Set<String> removed = new HashSet<>(Arrays.asList(traceIDs));
+
+        // copy on write
+        WriteableObjectPool<DataObject> pool = ObjectPoolFactory.newObjectPool();
+        for (DataObject trace : current.pool().getCollection()) {
+            if (!removed.contains(trace.getId())) pool.store(trace);
         }
+        Map<String, String[]> traceIDsByLog = new LinkedHashMap<>(current.traceIDsByLog());
+        traceIDsByLog.remove(logID);
+
+        return new Casebase(pool, traceIDsByLog, current.index().without(removed), current.version());
     }
 
+    /**
+     * @return the current version of the casebase
+     */
+    public static long getCasebaseVersion() {
+        Casebase current = casebase.get();
+        return current == null ? 0 : current.version();
+    }
 
     /**
-     * Performs retrieval.
+     * @return the number of traces in the casebase
+     */
+    public static int getCasebaseSize() {
+        Casebase current = casebase.get();
+        return current == null ? 0 : current.pool().size();
+    }
+
+    /**
+     * <p>Estimates the heap space taken by the casebase, see {@link MemoryEstimator}.</p>
+     * <p>The estimate is made once per version of the casebase, walking every converted trace.</p>
+     *
+     * @return the estimate of the current casebase and of each of its logs
+     */
+    public static MemoryReport getMemoryReport() {
+        return measureMemory().report();
+    }
+
+    /**
+     * @param logID id of a log of the casebase
+     * @return the estimate of the heap space taken by each trace of the log, or null if the log is not part of the
+     * casebase
+     */
+    public static LogMemory getMemoryReport(String logID) {
+
+        Casebase current = casebase.get();
+        if (current == null) return null;
+        return measureMemory(current).getLog(logID, current);
+    }
+
+    private static CasebaseMemory measureMemory() {
+
+        Casebase current = casebase.get();
+        return current == null
+                ? CasebaseMemory.measure(new Casebase(ObjectPoolFactory.newObjectPool(), Map.of(), new CasebaseIndex(Map.of(), Map.of()), 0), null, memoryWarningThreshold)
+                : measureMemory(current);
+    }
+
+    private static CasebaseMemory measureMemory(Casebase current) {
+
+        CasebaseMemory memory = casebaseMemory.get();
+        if (memory != null && memory.report().casebaseVersion() >= current.version()) return memory;
+
+        // estimates are not made concurrently, the second caller takes the one made by the first
+        synchronized (casebaseMemory) {
+            memory = casebaseMemory.get();
+            if (memory != null && memory.report().casebaseVersion() >= current.version()) return memory;
+
+            long start = System.nanoTime();
+            memory = CasebaseMemory.measure(current, nearestNeighbourIndex, memoryWarningThreshold);
+            casebaseMemory.set(memory);
+
+            MemoryReport report = memory.report();
+            long megabytes = (report.poolBytes() + report.indexBytes() + report.nearestNeighbourIndexBytes()) / (1024 * 1024);
+            logger.info("heap space of casebase version {} estimated in {} ms: {} MB for {} traces",
+                    report.casebaseVersion(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), megabytes,
+                    report.numberOfTraces());
+            if (report.warning())
+                logger.warn("casebase version {} takes an estimated {} MB, more than the threshold of {} MB",
+                        report.casebaseVersion(), megabytes, report.warningThresholdBytes() / (1024 * 1024));
+            return memory;
+        }
+    }
+
+    /**
+     * <p>Registers a retrieval configuration, so that retrievals can refer to it by its id instead of sending it
+     * along.</p>
+     * <p>The id is the hash of the configuration, so registering the same configuration again returns the same id.</p>
      *
-     * @param numberOfWorkers         number of threads for parallel retrieval
-     * @param xes                     XES trace or log containing (at least) one trace
      * @param globalSimilarityMeasure similarity measure used on the global level
      * @param globalMethodInvokerList list of methods to be invoked on the global similarity measure
      * @param similarityMeasureFunc   XML representation of {@link SimilarityMeasureFunc}
      * @param methodInvokersFunc      XML representation of {@link MethodInvokersFunc}
      * @param weightFunc              XML representation of {@link WeightFunc}
-     * @param filterParameters        parameters used to filter the casebase
-     * @param numberOfResults         number of retrieval results to be returned
-     * @return list of retrieval results
-     * @throws ParserConfigurationException todo
-     * @throws IOException                  todo
-     * @throws SAXException                 todo
+     * @return id of the configuration
+     * @throws ParserConfigurationException if no XML parser is available to read the XML representations
+     * @throws IOException                  if one of the XML representations could not be read
+     * @throws SAXException                 if one of the XML representations is malformed
+     * @throws ClassNotFoundException       if a value type of the global method invokers is unknown
+     */
+    public static String registerConfiguration(String globalSimilarityMeasure, MethodList globalMethodInvokerList, String similarityMeasureFunc, String methodInvokersFunc, String weightFunc) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+
+        CompiledConfiguration configuration = getConfiguration(globalSimilarityMeasure, globalMethodInvokerList,
+                similarityMeasureFunc, methodInvokersFunc, weightFunc);
+        configurationCache.register(configuration);
+        return configuration.id();
+    }
+
+    /**
+     * Returns the parsed form of a retrieval configuration, parsing it only if it is neither registered nor cached.
      */
-    public static List<Retrieval> retrieve(int numberOfWorkers, String xes, String globalSimilarityMeasure, MethodList globalMethodInvokerList, String similarityMeasureFunc, String methodInvokersFunc, String weightFunc, FilterParameters filterParameters, int numberOfResults) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+    private static CompiledConfiguration getConfiguration(String globalSimilarityMeasure, MethodList globalMethodInvokerList, String similarityMeasureFunc, String methodInvokersFunc, String weightFunc) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
 
-        // - preparation of retrieval - //
+        String id = RetrievalCache.hash(globalSimilarityMeasure, globalMethodInvokerList, similarityMeasureFunc,
+                methodInvokersFunc, weightFunc);
 
-        NESTSequentialWorkflowObject trace = convertQuery(xes);
+        CompiledConfiguration configuration = configurationCache.get(id);
+        if (configuration != null) return configuration;
+
+        Timer.Sample sample = ServiceMetrics.start();
 
         ArrayList<MethodInvoker> globalMethodInvokers = convertGlobalMethodInvokers(globalMethodInvokerList);
 
@@ -259,30 +812,619 @@ public class ProCAKEService {
 
         if (weightFunc != null) localWeightFunc = XMLtoWeightFuncConverter.getWeightFunc(weightFunc);
 
+        configuration = new CompiledConfiguration(id, globalSimilarityMeasure, globalMethodInvokers,
+                localSimilarityMeasureFunc, localMethodInvokersFunc, localWeightFunc);
+        configurationCache.cache(configuration);
+
+        ServiceMetrics.stopStage(sample, ServiceMetrics.STAGE_CONFIGURATION, globalSimilarityMeasure);
+
+        return configuration;
+    }
+
+    /**
+     * Returns the parsed form of the configuration given by the retrieval parameters, which is either the registered
+     * configuration referred to by its id or the configuration given by the single fields.
+     *
+     * @throws NoSuchElementException if no configuration with the given id is registered
+     */
+    private static CompiledConfiguration getConfiguration(RetrievalParameters parameters) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+
+        if (parameters.configurationID() == null)
+            return getConfiguration(parameters.globalSimilarityMeasure(), parameters.globalMethodInvokers(),
+                    parameters.localSimilarityMeasureFunc(), parameters.localMethodInvokersFunc(),
+                    parameters.localWeightFunc());
+
+        CompiledConfiguration configuration = configurationCache.getRegistered(parameters.configurationID());
+        if (configuration == null)
+            throw new NoSuchElementException(String.format("Could not find configuration with id '%s'", parameters.configurationID()));
+        return configuration;
+    }
+
+    /**
+     * Checks the parameters of the pruning and of early abandoning, which are otherwise only checked once the casebase
+     * is compared.
+     *
+     * @param parameters parameters of the retrieval
+     * @throws IllegalArgumentException if the number of candidates is not positive or the signature or the bound is
+     *                                  unknown
+     */
+    public static void validate(RetrievalParameters parameters) {
+
+        PruningParameters pruning = parameters.pruning();
+        if (pruning != null) {
+            if (pruning.candidates() != null && pruning.candidates() <= 0)
+                throw new IllegalArgumentException(String.format("Number of candidates must be positive, was %d", pruning.candidates()));
+            TraceSignature.Kind.of(pruning.signature());
+        }
+        if (parameters.earlyAbandoning() != null) SimilarityBound.of(parameters.earlyAbandoning().bound());
+    }
+
+    /**
+     * Performs retrieval with the XES given in the retrieval parameters as query.
+     *
+     * @param parameters parameters of the retrieval
+     * @return list of retrieval results
+     * @throws ParserConfigurationException todo
+     * @throws IOException                  todo
+     * @throws SAXException                 todo
+     * @throws NoSuchElementException       if the parameters refer to a configuration that is not registered
+     * @throws IllegalArgumentException     if the parameters are not valid, see {@link #validate(RetrievalParameters)}
+     */
+    public static List<Retrieval> retrieve(RetrievalParameters parameters) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException, InterruptedException {
+
+        return retrieve(parameters, (RetrievalListener) null);
+    }
+
+    /**
+     * <p>Performs retrieval with the XES given in the retrieval parameters as query, informing the given listener
+     * about its course.</p>
+     * <p>If the listener wants to receive intermediate rankings, the casebase is compared with the query in segments.
+     * After every segment, the best results among the cases compared so far are passed to the listener; the last
+     * ranking passed is the final one.</p>
+     *
+     * @param parameters parameters of the retrieval
+     * @param listener   listener informed about the course of the retrieval, or null
+     * @return list of retrieval results
+     * @throws NoSuchElementException   if the parameters refer to a configuration that is not registered
+     * @throws IllegalArgumentException if the parameters are not valid, see {@link #validate(RetrievalParameters)}
+     */
+    public static List<Retrieval> retrieve(RetrievalParameters parameters, RetrievalListener listener) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException, InterruptedException {
+
+        validate(parameters);
+        return retrieve(parameters.xes(), parameters, getConfiguration(parameters), getNumberOfWorkers(parameters),
+                listener);
+    }
+
+    private static List<Retrieval> retrieve(String xes, RetrievalParameters parameters, CompiledConfiguration configuration, int numberOfWorkers, RetrievalListener listener) throws InterruptedException {
+
+        String queryKey = RetrievalCache.hash(xes);
+
+        return retrieve(numberOfWorkers, parameters, "xes:" + queryKey,
+                getQuery(queryKey, xes, configuration.globalSimilarityMeasure()), false,
+                () -> TraceSignature.of(TraceFeatures.ofFirstTrace(xes)), configuration, listener);
+    }
+
+    /**
+     * <p>Performs retrieval with the trace with the given traceID as query.</p>
+     * <p>If the trace is part of the casebase, its converted form is used directly. Otherwise, the trace is read from
+     * the database and converted.</p>
+     *
+     * @param traceID    traceID of the query trace
+     * @param parameters parameters of the retrieval, the xes is ignored
+     * @return list of retrieval results
+     * @throws SQLException if the trace is not part of the casebase and could not be read from the database
+     */
+    public static List<Retrieval> retrieve(String traceID, RetrievalParameters parameters) throws SQLException, ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException, InterruptedException {
+
+        return retrieve(traceID, parameters, null);
+    }
+
+    /**
+     * Performs retrieval with the trace with the given traceID as query, informing the given listener about its
+     * course (see {@link #retrieve(RetrievalParameters, RetrievalListener)}).
+     *
+     * @param traceID    traceID of the query trace
+     * @param parameters parameters of the retrieval, the xes is ignored
+     * @param listener   listener informed about the course of the retrieval, or null
+     * @return list of retrieval results
+     * @throws SQLException             if the trace is not part of the casebase and could not be read from the database
+     * @throws IllegalArgumentException if the parameters are not valid, see {@link #validate(RetrievalParameters)}
+     */
+    public static List<Retrieval> retrieve(String traceID, RetrievalParameters parameters, RetrievalListener listener) throws SQLException, ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException, InterruptedException {
+
+        validate(parameters);
+        return retrieveStoredTrace(traceID, parameters, getConfiguration(parameters), getNumberOfWorkers(parameters),
+                listener);
+    }
+
+    private static List<Retrieval> retrieveStoredTrace(String traceID, RetrievalParameters parameters, CompiledConfiguration configuration, int numberOfWorkers, RetrievalListener listener) throws SQLException, InterruptedException {
+
+        Casebase currentCasebase = casebase.get();
+        DataObject stored = currentCasebase == null ? null : currentCasebase.pool().getObject(traceID);
+        if (stored instanceof NESTSequentialWorkflowObject query) {
+            // the query is the case itself, which has to stay part of the results like it does for a converted copy
+            return retrieve(numberOfWorkers, parameters, "trace:" + traceID, query, true,
+                    () -> currentCasebase.index().getSignature(traceID), configuration, listener);
+        }
+
+        return retrieve(getStoredTraceXES(traceID), parameters, configuration, numberOfWorkers, listener);
+    }
+
+    /**
+     * <p>Performs retrieval for a batch of query traces sharing the same parameters.</p>
+     * <p>The configuration is parsed once for the whole batch. The retrievals of the single query traces run
+     * concurrently on the shared retrieval executor with one worker each, so the batch is parallelized over its query
+     * traces instead of every retrieval starting its own workers. The results are returned in the order the retrievals
+     * finish. A failed retrieval yields a result containing the error instead of failing the batch.</p>
+     * <p>The returned stream has to be closed, which cancels the retrievals that have not finished yet.</p>
+     *
+     * @param traceIDs   traceIDs of the query traces, may be null
+     * @param xes        XES query traces, may be null
+     * @param parameters parameters shared by all retrievals, the xes is ignored
+     * @return stream of the results per query trace
+     * @throws NoSuchElementException   if the parameters refer to a configuration that is not registered
+     * @throws IllegalArgumentException if the parameters are not valid, see {@link #validate(RetrievalParameters)}
+     */
+    public static Stream<BatchRetrieval> retrieve(List<String> traceIDs, List<String> xes, RetrievalParameters parameters) throws ParserConfigurationException, IOException, SAXException, ClassNotFoundException, InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+
+        validate(parameters);
+        CompiledConfiguration configuration = getConfiguration(parameters);
+
+        CompletionService<BatchRetrieval> completionService = new ExecutorCompletionService<>(getRetrievalExecutor());
+        List<Future<BatchRetrieval>> futures = new ArrayList<>();
+
+        if (traceIDs != null) for (String traceID : traceIDs) {
+            futures.add(completionService.submit(() -> {
+                try {
+                    return new BatchRetrieval(traceID, null,
+                            retrieveStoredTrace(traceID, parameters, configuration, 1, null), null);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    return new BatchRetrieval(traceID, null, null, e.getMessage());
+                }
+            }));
+        }
+
+        if (xes != null) for (int i = 0; i < xes.size(); i++) {
+            int index = i;
+            futures.add(completionService.submit(() -> {
+                try {
+                    return new BatchRetrieval(null, index,
+                            retrieve(xes.get(index), parameters, configuration, 1, null), null);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    return new BatchRetrieval(null, index, null, e.getMessage());
+                }
+            }));
+        }
+
+        return Stream.generate(() -> {
+                    try {
+                        return completionService.take().get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Batch retrieval interrupted");
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                })
+                .limit(futures.size())
+                .onClose(() -> futures.forEach(future -> future.cancel(true)));
+    }
+
+    private static int getNumberOfWorkers(RetrievalParameters parameters) {
+        return parameters.numberOfWorkers() == null ? 0 : parameters.numberOfWorkers();
+    }
 
-        // - retrieval - //
+    /**
+     * Splices the trace with the given traceID into the header of its log.
+     *
+     * @param traceID traceID of the trace
+     * @return XES log containing the trace
+     * @throws SQLException if the trace or its log could not be read from the database
+     */
+    private static String getStoredTraceXES(String traceID) throws SQLException {
+
+        Map<String, Object> t = DatabaseService.getTrace(traceID);
+
+        Map<String, Object> l =
+                DatabaseService.getLog((String) t.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__logID));
+
+        // the header is written by XESLogReader, so its log element is not self-closing even if the log had no traces
+        String header = (String) l.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__header);
+        int end = DatabaseService.endOfTraces(header);
+        return header.substring(0, end) + t.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__xes) + header.substring(end);
+    }
+
+    /**
+     * Returns the converted query trace, converting it only if it is not cached.
+     *
+     * @param queryKey    hash of the XES
+     * @param xes         XES trace or log containing (at least) one trace
+     * @param measureName name of the global similarity measure of the retrieval, used to tag the conversion time
+     * @return the converted query trace
+     */
+    private static NESTSequentialWorkflowObject getQuery(String queryKey, String xes, String measureName) {
+
+        NESTSequentialWorkflowObject query = queryCache.get(queryKey);
+        if (query == null) {
+            Timer.Sample sample = ServiceMetrics.start();
+            query = convertQuery(xes);
+            ServiceMetrics.stopStage(sample, ServiceMetrics.STAGE_CONVERSION, measureName);
+            queryCache.put(queryKey, query);
+        }
+        return query;
+    }
+
+    /**
+     * Performs retrieval.
+     *
+     * @param numberOfWorkers maximum number of threads for parallel retrieval requested by the client, or 0 to let
+     *                        the {@link RetrievalScheduler} decide
+     * @param parameters      parameters of the retrieval
+     * @param queryKey        key identifying the query trace
+     * @param query           the converted query trace
+     * @param queryIsCase     whether the query trace is a case of the casebase
+     * @param querySignature  supplies the signature of the query trace, only called if the retrieval is pruned or
+     *                        abandons cases early
+     * @param configuration   the configuration of the retrieval
+     * @param listener        listener informed about the course of the retrieval, or null
+     * @return list of retrieval results
+     */
+    private static List<Retrieval> retrieve(int numberOfWorkers, RetrievalParameters parameters, String queryKey, NESTSequentialWorkflowObject query, boolean queryIsCase, Supplier<TraceSignature> querySignature, CompiledConfiguration configuration, RetrievalListener listener) throws InterruptedException {
+
+        Timer.Sample retrievalSample = ServiceMetrics.start();
+        String measureName = configuration.globalSimilarityMeasure();
+        boolean cached = false;
+        boolean success = false;
+        try {
+
+            int numberOfResults = parameters.numberOfResults();
+            PruningParameters pruning = parameters.pruning();
+            EarlyAbandoningParameters earlyAbandoning = parameters.earlyAbandoning();
+            SimilarityBound bound = earlyAbandoning == null ? null : SimilarityBound.of(earlyAbandoning.bound());
+
+            // - preparation of retrieval - //
+
+            // the retrieval works on the casebase published at this point, even if it is replaced in the meantime
+            Casebase currentCasebase = casebase.get();
+            if (currentCasebase == null) throw new IllegalStateException("Casebase not loaded yet");
+
+            // the number of workers does not change the results, so it is not part of the key
+            // the bound only changes the results if it is not admissible, which is why it is part of the key
+            String cacheKey = RetrievalCache.key(currentCasebase.version(), queryKey, configuration.id(),
+                    parameters.filterParameters(), numberOfResults, pruning, bound);
+            // looked up before filtering, so results found in the cache do not depend on the size of the casebase
+            RetrievalCache.Results cachedResults = retrievalCache.get(cacheKey);
+            if (cachedResults != null) {
+                if (listener != null)
+                    listener.onProgress(new ProgressiveRetrieval(cachedResults.retrievals(),
+                            cachedResults.numberOfCases(), cachedResults.numberOfCases(), true));
+                cached = true;
+                success = true;
+                return cachedResults.retrievals();
+            }
+
+            Timer.Sample filterSample = ServiceMetrics.start();
+            ReadableObjectPool<DataObject> filteredCasebase = getFilteredCasebase(currentCasebase, parameters.filterParameters());
+            ServiceMetrics.stopStage(filterSample, ServiceMetrics.STAGE_FILTER, measureName);
+
+            // - pruning - //
+
+            ReadableObjectPool<DataObject> candidates = filteredCasebase;
+            double cutoffSimilarity = 0;
+            boolean pruned = pruning != null && pruning.candidates() != null
+                    && pruning.candidates() < filteredCasebase.size();
+            if (pruned) {
+                Timer.Sample pruningSample = ServiceMetrics.start();
+                List<Candidate> best = prune(currentCasebase.index(), filteredCasebase, querySignature.get(),
+                        TraceSignature.Kind.of(pruning.signature()), pruning.candidates());
+                WriteableObjectPool<DataObject> candidatePool = ObjectPoolFactory.newObjectPool();
+                for (Candidate candidate : best) candidatePool.store(filteredCasebase.getObject(candidate.traceID()));
+                candidates = candidatePool;
+                if (!best.isEmpty()) cutoffSimilarity = best.get(best.size() - 1).similarity();
+                ServiceMetrics.stopStage(pruningSample, ServiceMetrics.STAGE_PRUNING, measureName);
+            }
+            int numberOfCases = candidates.size();
+
+            // - retrieval - //
+
+            // the number of workers depends on the current load and the size of the casebase
+            int workers = retrievalScheduler.acquire(numberOfWorkers, numberOfCases);
+
+            List<Retrieval> results = null;
+            Double recall = null;
+            EarlyAbandoningReport earlyAbandoningReport = null;
+            try {
+
+                // skipping cases only pays off if fewer results than cases are requested
+                boolean abandoning = bound != null && numberOfResults > 0 && numberOfResults < numberOfCases;
+                BoundedRetrieval boundedRetrieval = null;
+                if (abandoning && !inadmissibleBounds.contains(boundKey(configuration, bound))) {
+
+                    int batchSize = earlyAbandoning.batchSize() == null ? earlyAbandoningBatchSize : Math.max(1, earlyAbandoning.batchSize());
+                    boundedRetrieval = performBounded(currentCasebase.index(), candidates, query, queryIsCase,
+                            querySignature.get(), bound, configuration, numberOfResults, workers, batchSize, listener);
+                    results = boundedRetrieval.results();
+                }
+
+                if (results != null) {
+                    // the bound held on the compared cases, which does not prove that it holds on the skipped ones
+                    earlyAbandoningReport = new EarlyAbandoningReport(numberOfCases, boundedRetrieval.comparedCases(),
+                            boundedRetrieval.threshold(), false, boundedRetrieval.comparedCases() >= numberOfCases);
+                } else if (listener == null || !listener.isProgressive() || numberOfCases <= streamSegmentSize) {
+                    results = perform(candidates, query, queryIsCase, configuration, numberOfResults, workers);
+                } else {
+
+                    // the best results of the whole casebase are the best results among the best results of its
+                    // segments; only cases tied with the last result may be chosen differently than by a single pass
+                    results = new ArrayList<>();
+                    int comparedCases = 0;
+                    List<DataObject> segment = new ArrayList<>(streamSegmentSize);
+                    Iterator<DataObject> cases = candidates.getCollection().iterator();
+                    while (cases.hasNext()) {
+                        segment.add(cases.next());
+                        if (segment.size() < streamSegmentSize && cases.hasNext()) continue;
+
+                        WriteableObjectPool<DataObject> segmentPool = ObjectPoolFactory.newObjectPool();
+                        segmentPool.storeAll(segment);
+                        results.addAll(perform(segmentPool, query, queryIsCase, configuration, numberOfResults, workers));
+                        results.sort(RANKING);
+                        if (numberOfResults > 0 && results.size() > numberOfResults)
+                            results = new ArrayList<>(results.subList(0, numberOfResults));
+
+                        comparedCases += segment.size();
+                        segment.clear();
+                        if (cases.hasNext())
+                            listener.onProgress(new ProgressiveRetrieval(List.copyOf(results), comparedCases, numberOfCases, false));
+                    }
+                }
+
+                // the bound does not hold for the configured measure, so all cases were compared
+                if (abandoning && earlyAbandoningReport == null) {
+                    Double threshold = results.isEmpty() ? null : results.get(results.size() - 1).similarityValue();
+                    earlyAbandoningReport = new EarlyAbandoningReport(numberOfCases,
+                            numberOfCases + (boundedRetrieval == null ? 0 : boundedRetrieval.comparedCases()),
+                            threshold == null ? 0 : threshold, true, true);
+                }
+
+                if (pruned && Boolean.TRUE.equals(pruning.measureRecall())) {
+                    List<Retrieval> exactResults = perform(filteredCasebase, query, queryIsCase, configuration, numberOfResults, workers);
+                    recall = recall(results, exactResults);
+                }
+
+            } finally {
+                retrievalScheduler.release(workers);
+            }
+
+            retrievalCache.put(cacheKey, new RetrievalCache.Results(results, numberOfCases));
+            if (listener != null) {
+                if (pruned)
+                    listener.onPruning(new PruningReport(filteredCasebase.size(), numberOfCases, cutoffSimilarity, recall));
+                if (earlyAbandoningReport != null) listener.onEarlyAbandoning(earlyAbandoningReport);
+                listener.onProgress(new ProgressiveRetrieval(List.copyOf(results), numberOfCases, numberOfCases, true));
+            }
+
+            success = true;
+            return results;
+        } finally {
+            ServiceMetrics.stopRetrieval(retrievalSample, measureName, cached, success);
+        }
+    }
+
+    /**
+     * A case and the similarity of its signature to the signature of the query.
+     */
+    record Candidate(String traceID, double similarity) {
+    }
+
+    /**
+     * <p>Ranks the given cases by the similarity of their signatures to the signature of the query.</p>
+     * <p>Embeddings are searched in the {@link #nearestNeighbourIndex} if it is enabled, which only finds approximately
+     * the most similar ones. If the index finds fewer cases than requested, e.g. because most cases are filtered out,
+     * all cases are ranked instead.</p>
+     *
+     * @return the given number of cases with the most similar signatures, ordered by descending similarity
+     */
+    private static List<Candidate> prune(CasebaseIndex index, ReadableObjectPool<DataObject> cases, TraceSignature querySignature, TraceSignature.Kind kind, int numberOfCandidates) {
+
+        NearestNeighbourIndex nearestNeighbours = nearestNeighbourIndex;
+        if (kind == TraceSignature.Kind.EMBEDDING && nearestNeighbours != null && querySignature != null) {
+            List<Candidate> candidates = new ArrayList<>(numberOfCandidates);
+            for (NearestNeighbourIndex.Neighbour neighbour : nearestNeighbours.search(querySignature.embedding(),
+                    numberOfCandidates, nearestNeighbourSearchWidth, traceID -> cases.getObject(traceID) != null))
+                candidates.add(new Candidate(neighbour.traceID(), neighbour.similarity()));
+            if (candidates.size() >= Math.min(numberOfCandidates, cases.size())) return candidates;
+        }
+
+        List<String> traceIDs = new ArrayList<>(cases.size());
+        for (DataObject trace : cases.getCollection()) traceIDs.add(trace.getId());
+        return mostSimilar(index, traceIDs, querySignature, kind, numberOfCandidates);
+    }
+
+    /**
+     * Ranks the given cases by the similarity of their signatures to the signature of the query, comparing all of them.
+     *
+     * @return the given number of cases with the most similar signatures, ordered by descending similarity
+     */
+    static List<Candidate> mostSimilar(CasebaseIndex index, Collection<String> traceIDs, TraceSignature querySignature, TraceSignature.Kind kind, int numberOfCandidates) {
+
+        // min heap holding the best candidates so far, its head being the worst of them
+        PriorityQueue<Candidate> best = new PriorityQueue<>(numberOfCandidates + 1,
+                Comparator.comparingDouble(Candidate::similarity));
+        for (String traceID : traceIDs) {
+            TraceSignature signature = index.getSignature(traceID);
+            double similarity = signature == null || querySignature == null ? 0 : querySignature.similarity(signature, kind);
+            if (best.size() < numberOfCandidates) best.add(new Candidate(traceID, similarity));
+            else if (!best.isEmpty() && similarity > best.peek().similarity()) {
+                best.poll();
+                best.add(new Candidate(traceID, similarity));
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>(best);
+        candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return candidates;
+    }
+
+    /**
+     * The results of a retrieval with early abandoning.
+     *
+     * @param results       the best results, ordered by similarity, or null if the bound does not hold
+     * @param comparedCases number of cases compared with the query
+     * @param threshold     similarity of the worst result
+     */
+    record BoundedRetrieval(List<Retrieval> results, int comparedCases, double threshold) {
+    }
+
+    /**
+     * <p>Compares the query with the given cases in the order of the upper bounds of their similarities, skipping the
+     * cases that cannot be among the best results, see {@link #rankBounded}.</p>
+     * <p>If a similarity is above its bound, the pair of configuration and bound is remembered in
+     * {@link #inadmissibleBounds}.</p>
+     *
+     * @return the best results, ordered by {@link #RANKING}, or null results if the bound does not hold
+     */
+    private static BoundedRetrieval performBounded(CasebaseIndex index, ReadableObjectPool<DataObject> cases, NESTSequentialWorkflowObject query, boolean queryIsCase, TraceSignature querySignature, SimilarityBound bound, CompiledConfiguration configuration, int numberOfResults, int workers, int batchSize, RetrievalListener listener) {
+
+        Map<String, Double> bounds = new HashMap<>();
+        for (DataObject trace : cases.getCollection()) {
+            TraceSignature signature = index.getSignature(trace.getId());
+            // cases without a signature can not be bounded and have to be compared
+            bounds.put(trace.getId(), signature == null ? 1 : bound.of(querySignature, signature));
+        }
+
+        BoundedRetrieval boundedRetrieval = rankBounded(bounds, numberOfResults, batchSize, traceIDs -> {
+            WriteableObjectPool<DataObject> batch = ObjectPoolFactory.newObjectPool();
+            for (String traceID : traceIDs) batch.store(cases.getObject(traceID));
+            // all results of the batch are needed to check them against their bounds
+            return perform(batch, query, queryIsCase, configuration, batch.size(), workers);
+        }, listener == null || !listener.isProgressive() ? null : listener::onProgress);
+
+        if (boundedRetrieval.results() == null) {
+            logger.warn("Bound {} does not hold for configuration {}, comparing all cases", bound, configuration.id());
+            inadmissibleBounds.put(boundKey(configuration, bound), true);
+        }
+        return boundedRetrieval;
+    }
+
+    /**
+     * <p>Compares the query with the given cases in the order of the upper bounds of their similarities, skipping the
+     * cases that cannot be among the best results.</p>
+     * <p>The cases are compared in batches. After every batch, the similarity of the worst of the best results so far
+     * is the threshold of the next batch: cases whose bound is below the threshold cannot replace any of the results.
+     * As the cases are ordered by descending bound, the retrieval ends with the first case below the threshold.</p>
+     * <p>Whether the bound holds is checked on every similarity computed. The cases with the lowest bounds, which are
+     * skipped most likely, are compared first for that purpose. If a similarity is above its bound, the results could
+     * differ from those of comparing all cases, so the retrieval is abandoned.</p>
+     *
+     * @param bounds          upper bound of the similarity of every case by its id
+     * @param numberOfResults number of results, must be positive
+     * @param batchSize       number of cases compared at once
+     * @param compare         compares the query with the cases of the given ids, returning the results of all of them
+     * @param progress        receives the results after every batch but the last, may be null
+     * @return the best results, ordered by {@link #RANKING}, or null results if the bound does not hold
+     */
+    static BoundedRetrieval rankBounded(Map<String, Double> bounds, int numberOfResults, int batchSize, Function<List<String>, List<Retrieval>> compare, Consumer<ProgressiveRetrieval> progress) {
+
+        List<Candidate> ordered = new ArrayList<>(bounds.size());
+        for (Map.Entry<String, Double> bound : bounds.entrySet()) ordered.add(new Candidate(bound.getKey(), bound.getValue()));
+        ordered.sort(Comparator.comparingDouble(Candidate::similarity).reversed().thenComparing(Candidate::traceID));
+
+        // the cases with the lowest bounds
+        int end = ordered.size();
+        List<String> batch = new ArrayList<>(batchSize);
+        for (Candidate candidate : ordered.subList(Math.max(0, end - batchSize), end)) batch.add(candidate.traceID());
+        end -= batch.size();
+
+        List<Retrieval> results = new ArrayList<>();
+        double threshold = Double.NEGATIVE_INFINITY;
+        int comparedCases = 0;
+        int position = 0;
+        while (!batch.isEmpty()) {
+
+            List<Retrieval> batchResults = compare.apply(batch);
+            comparedCases += batch.size();
+            for (Retrieval result : batchResults) {
+                Double bounded = bounds.get(result.id());
+                if (bounded != null && result.similarityValue() != null
+                        && result.similarityValue() > bounded + BOUND_TOLERANCE) {
+                    logger.debug("Similarity {} of {} above its bound {}", result.similarityValue(), result.id(), bounded);
+                    return new BoundedRetrieval(null, comparedCases, 0);
+                }
+            }
+
+            results.addAll(batchResults);
+            results.sort(RANKING);
+            if (results.size() > numberOfResults) results = new ArrayList<>(results.subList(0, numberOfResults));
+            if (results.size() == numberOfResults && results.get(numberOfResults - 1).similarityValue() != null)
+                threshold = results.get(numberOfResults - 1).similarityValue();
+
+            if (progress != null && comparedCases < ordered.size())
+                progress.accept(new ProgressiveRetrieval(List.copyOf(results), comparedCases, ordered.size(), false));
+
+            // cases on the threshold are compared, they may win a tie by their id
+            batch = new ArrayList<>(batchSize);
+            int batchEnd = Math.min(end, position + batchSize);
+            for (; position < batchEnd && ordered.get(position).similarity() >= threshold - BOUND_TOLERANCE; position++)
+                batch.add(ordered.get(position).traceID());
+        }
+
+        return new BoundedRetrieval(results, comparedCases, Double.isInfinite(threshold) ? 0 : threshold);
+    }
+
+    private static String boundKey(CompiledConfiguration configuration, SimilarityBound bound) {
+        return configuration.id() + ":" + bound;
+    }
+
+    /**
+     * @return fraction of the exact results also contained in the given results
+     */
+    private static double recall(List<Retrieval> results, List<Retrieval> exactResults) {
+
+        if (exactResults.isEmpty()) return 1;
+        Set<String> found = new HashSet<>();
+        for (Retrieval result : results) found.add(result.id());
+        long hits = exactResults.stream().filter(result -> found.contains(result.id())).count();
+        return (double) hits / exactResults.size();
+    }
+
+    /**
+     * <p>Compares the query with all cases of the given pool.</p>
+     * <p>The retriever only keeps the requested number of results, which are then ordered by {@link #RANKING}.</p>
+     *
+     * @param numberOfResults number of results, 0 for the results of all cases
+     * @return the best results, ordered by {@link #RANKING}
+     */
+    private static List<Retrieval> perform(ReadableObjectPool<DataObject> pool, NESTSequentialWorkflowObject query, boolean queryIsCase, CompiledConfiguration configuration, int numberOfResults, int workers) {
 
         Retriever<DataObject, Query> linearRetrieverImplExt;
-        if (numberOfWorkers > 1) {
+        if (workers > 1) {
             linearRetrieverImplExt = new ParallelLinearRetrieverImplExt();
-            ((ParallelLinearRetrieverImplExt) linearRetrieverImplExt).setNumberOfWorkers(numberOfWorkers);
+            ((ParallelLinearRetrieverImplExt) linearRetrieverImplExt).setNumberOfWorkers(workers);
         } else linearRetrieverImplExt = new LinearRetrieverImplExt();
         linearRetrieverImplExt.setSimilarityModel(similarityModel);
-        linearRetrieverImplExt.setObjectPool(getFilteredCasebase(filterParameters));
-        linearRetrieverImplExt.setAddQueryToResults(false);
+        linearRetrieverImplExt.setObjectPool(pool);
+        linearRetrieverImplExt.setAddQueryToResults(queryIsCase);
 
-        ((RetrieverExt) linearRetrieverImplExt).setGlobalSimilarityMeasure(globalSimilarityMeasure);
-        ((RetrieverExt) linearRetrieverImplExt).setGlobalMethodInvokers(globalMethodInvokers);
-        ((RetrieverExt) linearRetrieverImplExt).setLocalSimilarityMeasureFunc(localSimilarityMeasureFunc);
-        ((RetrieverExt) linearRetrieverImplExt).setLocalMethodInvokersFunc(localMethodInvokersFunc);
-        ((RetrieverExt) linearRetrieverImplExt).setLocalWeightFunc(localWeightFunc);
+        ((RetrieverExt) linearRetrieverImplExt).setGlobalSimilarityMeasure(configuration.globalSimilarityMeasure());
+        ((RetrieverExt) linearRetrieverImplExt).setGlobalMethodInvokers(new ArrayList<>(configuration.globalMethodInvokers()));
+        ((RetrieverExt) linearRetrieverImplExt).setLocalSimilarityMeasureFunc(configuration.localSimilarityMeasureFunc());
+        ((RetrieverExt) linearRetrieverImplExt).setLocalMethodInvokersFunc(configuration.localMethodInvokersFunc());
+        ((RetrieverExt) linearRetrieverImplExt).setLocalWeightFunc(configuration.localWeightFunc());
 
-        Query query = linearRetrieverImplExt.newQuery();
-        query.setQueryObject(trace);
-        query.setRetrieveCases(false); //we only want id's & similarity scores
-        query.setNumberOfResults(numberOfResults);
+        Query retrievalQuery = linearRetrieverImplExt.newQuery();
+        retrievalQuery.setQueryObject(query);
+        retrievalQuery.setRetrieveCases(false); //we only want id's & similarity scores
+        retrievalQuery.setNumberOfResults(numberOfResults > 0 ? numberOfResults : Math.max(1, pool.size()));
 
-        RetrievalResultList retrievalResults = linearRetrieverImplExt.perform(query);
+        Timer.Sample scoringSample = ServiceMetrics.start();
+        RetrievalResultList retrievalResults = linearRetrieverImplExt.perform(retrievalQuery);
+        ServiceMetrics.stopStage(scoringSample, ServiceMetrics.STAGE_SCORING, configuration.globalSimilarityMeasure());
+
+        Timer.Sample mappingSample = ServiceMetrics.start();
         Iterator<RetrievalResult> retrievalResultIterator = retrievalResults.iterator();
 
         List<Retrieval> results = new ArrayList<>();
@@ -294,8 +1436,9 @@ public class ProCAKEService {
                     retrievalResult.getSimilarity().getValue()
             ));
         }
-
-        //HeapSpace.measure();
+        results.sort(RANKING);
+        if (numberOfResults > 0 && results.size() > numberOfResults) results = new ArrayList<>(results.subList(0, numberOfResults));
+        ServiceMetrics.stopStage(mappingSample, ServiceMetrics.STAGE_MAPPING, configuration.globalSimilarityMeasure());
 
         return results;
     }
@@ -307,15 +1450,13 @@ public class ProCAKEService {
      * @return trace in form of a NESTSequentialWorkflowObject
      * @throws java.lang.IndexOutOfBoundsException if there are no traces present
      */
-    private static NESTSequentialWorkflowObject convertQuery(String xes) throws java.lang.IndexOutOfBoundsException {
+    static NESTSequentialWorkflowObject convertQuery(String xes) throws java.lang.IndexOutOfBoundsException {
         if (!xes.contains("<log")) return convertQuery("<log>"+xes+"</log>");
         XEStoNESTsAXConverter converter = new XEStoNESTsAXConverter(model);
         converter.configure(false, false, null, null);
         NESTSequentialWorkflowObject workflow = converter.convert(xes).get(0);
         workflow.setId("CONVERTED_WORKFLOW");
 
-        //HeapSpace.measure();
-
         return workflow;
     }
 
@@ -383,10 +1524,28 @@ public class ProCAKEService {
         return globalMethodInvokerList;
     }
 
-    private static ReadableObjectPool<DataObject> getFilteredCasebase(FilterParameters parameters) {
+    /**
+     * Returns the traces of the casebase fulfilling the conditions of the given filter parameters, looked up in the
+     * indexes of the casebase (see {@link CasebaseIndex}).
+     *
+     * @param casebase   the casebase
+     * @param parameters the filter parameters, may be null
+     * @return the matching traces, the casebase itself if there are no conditions
+     */
+    private static ReadableObjectPool<DataObject> getFilteredCasebase(Casebase casebase, FilterParameters parameters) {
 
+        if (parameters == null) return casebase.pool();
+
+        Set<String> traceIDs = casebase.index().filter(parameters, casebase.traceIDsByLog());
+        if (traceIDs == null) return casebase.pool();
+
+        WriteableObjectPool<DataObject> filteredCasebase = ObjectPoolFactory.newObjectPool();
+        for (String traceID : traceIDs) {
+            DataObject trace = casebase.pool().getObject(traceID);
+            if (trace != null) filteredCasebase.store(trace);
+        }
 
-        return casebase; //todo
+        return filteredCasebase;
     }
 
 
@@ -394,7 +1553,7 @@ public class ProCAKEService {
     // for testing purposes only //ProCAKE service/controller should not provide method to get any cases from the casebase
     public static List<String[]> getCasebase() {
         List<String[]> cases = new ArrayList<>();
-        for (DataObject trace : casebase.getCollection()) {
+        for (DataObject trace : casebase.get().pool().getCollection()) {
             cases.add(new String[]{trace.getId(), ((StringObject) trace).getNativeString()});
         }
         return cases;
@@ -402,8 +1561,8 @@ public class ProCAKEService {
 
     @Deprecated
     // for testing purposes only //ProCAKE service/controller should not provide method to get any cases from the casebase
-    public static WriteableObjectPool<DataObject> getActualCasebase() {
-        return casebase;
+    public static ReadableObjectPool<DataObject> getActualCasebase() {
+        return casebase.get().pool();
     }
 
     @Deprecated
@@ -0,0 +1,20 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.procake.data.object.nest.*;
+
+/**
+ * <p>Bounded cache of converted query traces.</p>
+ *
+ * <p>Query traces sent as XES are keyed by the hash of the XES, so a query sent again is not parsed and converted
+ * again. The converted traces are not changed by a retrieval and can therefore be shared by any number of
+ * retrievals. If the cache is full, the least recently used traces are evicted.</p>
+ */
+class QueryCache extends BoundedCache<String, NESTSequentialWorkflowObject> {
+
+    /**
+     * @param capacity maximum number of cached query traces, 0 disables the cache
+     */
+    QueryCache(int capacity) {
+        super(capacity);
+    }
+}
@@ -0,0 +1,84 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * <p>Bounded cache of retrieval results.</p>
+ *
+ * <p>The results are keyed by a hash over the parameters of the retrieval and the version of the casebase the
+ * retrieval was performed on, so results never outlive the casebase they were computed on. If the cache is full,
+ * the least recently used results are evicted.</p>
+ */
+class RetrievalCache extends BoundedCache<String, RetrievalCache.Results> {
+
+    /**
+     * Record representing cached results.
+     *
+     * @param retrievals    the results of the retrieval
+     * @param numberOfCases number of cases compared by the retrieval
+     */
+    record Results(List<Retrieval> retrievals, int numberOfCases) {
+
+        Results {
+            retrievals = List.copyOf(retrievals);
+        }
+    }
+
+    /**
+     * @param capacity maximum number of cached results, 0 disables the cache
+     */
+    RetrievalCache(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * <p>Computes the key of a retrieval.</p>
+     * <p>XML parameters are normalized by removing whitespace between tags, so the same configuration formatted
+     * differently is mapped to the same key.</p>
+     *
+     * @param casebaseVersion version of the casebase the retrieval is performed on
+     * @param parameters      parameters of the retrieval, may contain null
+     * @return the key
+     */
+    static String key(long casebaseVersion, Object... parameters) {
+
+        Object[] versionAndParameters = new Object[parameters.length + 1];
+        versionAndParameters[0] = casebaseVersion;
+        System.arraycopy(parameters, 0, versionAndParameters, 1, parameters.length);
+
+        return hash(versionAndParameters);
+    }
+
+    /**
+     * Computes a hash over the given parameters, XML parameters being normalized (see {@link #key(long, Object...)}).
+     *
+     * @param parameters the parameters, may contain null
+     * @return hex representation of the hash
+     */
+    static String hash(Object... parameters) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (Object parameter : parameters) {
+            // separates the parameters, so that e.g. ("ab", "c") and ("a", "bc") do not have the same key
+            digest.update((byte) 0);
+            if (parameter == null) continue;
+            digest.update(normalize(String.valueOf(parameter)).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String normalize(String parameter) {
+        return parameter.strip().replaceAll(">\\s+<", "><");
+    }
+}
@@ -0,0 +1,43 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+
+/**
+ * Listener informed about the course of a retrieval.
+ */
+public interface RetrievalListener {
+
+    /**
+     * Called after the cases to be compared have been pruned, see {@link PruningParameters}. Not called if the
+     * retrieval is not pruned or its results are cached.
+     *
+     * @param report the effect of the pruning
+     */
+    default void onPruning(PruningReport report) {
+    }
+
+    /**
+     * Called after the cases have been compared with early abandoning, see {@link EarlyAbandoningParameters}. Not
+     * called if the retrieval does not abandon cases or its results are cached.
+     *
+     * @param report the effect of the early abandoning
+     */
+    default void onEarlyAbandoning(EarlyAbandoningReport report) {
+    }
+
+    /**
+     * Called with the intermediate rankings while the cases are compared with the query and with the final ranking.
+     * If a listener is given, the cases are compared in segments, see {@link ProCAKEService#setStreamSegmentSize(int)}.
+     *
+     * @param progress the current ranking
+     */
+    default void onProgress(ProgressiveRetrieval progress) {
+    }
+
+    /**
+     * @return whether the listener wants to receive intermediate rankings
+     */
+    default boolean isProgressive() {
+        return false;
+    }
+}
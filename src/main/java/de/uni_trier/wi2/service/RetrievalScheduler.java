@@ -0,0 +1,78 @@
+package de.uni_trier.wi2.service;
+
+import java.util.concurrent.*;
+
+/**
+ * <p>Decides how many workers a retrieval may use.</p>
+ *
+ * <p>All retrievals share a bounded number of workers, by default one per available processor. A retrieval gets as
+ * many of the currently free workers as it can use, so under load every retrieval gets fewer workers instead of
+ * all of them competing for the processors with their own full set of threads. A retrieval on a small casebase gets
+ * fewer workers, since splitting a few cases among many threads costs more than it saves. Every retrieval gets at
+ * least one worker, waiting for one to become free if necessary.</p>
+ */
+class RetrievalScheduler {
+
+    private final int maximumWorkers;
+    private final int minimumCasesPerWorker;
+    private final Semaphore workers;
+
+    /**
+     * @param maximumWorkers        number of workers shared by all retrievals
+     * @param minimumCasesPerWorker minimum number of cases a worker should compare
+     */
+    RetrievalScheduler(int maximumWorkers, int minimumCasesPerWorker) {
+        this.maximumWorkers = Math.max(1, maximumWorkers);
+        this.minimumCasesPerWorker = Math.max(1, minimumCasesPerWorker);
+        this.workers = new Semaphore(this.maximumWorkers);
+    }
+
+    /**
+     * Reserves workers for a retrieval. The workers have to be handed back by {@link #release(int)}.
+     *
+     * @param requestedWorkers maximum number of workers requested by the client, or 0 if the client did not request
+     *                         a number of workers
+     * @param numberOfCases    number of cases the retrieval compares the query with
+     * @return number of workers reserved, at least 1
+     * @throws InterruptedException if the thread was interrupted while waiting for a worker
+     */
+    int acquire(int requestedWorkers, int numberOfCases) throws InterruptedException {
+
+        int wanted = maximumWorkers;
+        if (requestedWorkers > 0) wanted = Math.min(wanted, requestedWorkers);
+        wanted = Math.min(wanted, Math.max(1, numberOfCases / minimumCasesPerWorker));
+
+        // take as many of the free workers as wanted, but at least one
+        int granted = 0;
+        while (granted < wanted && workers.tryAcquire()) granted++;
+        if (granted == 0) {
+            workers.acquire();
+            granted = 1;
+        }
+
+        return granted;
+    }
+
+    /**
+     * Hands back workers reserved by {@link #acquire(int, int)}.
+     *
+     * @param granted number of workers reserved
+     */
+    void release(int granted) {
+        workers.release(granted);
+    }
+
+    /**
+     * @return number of workers shared by all retrievals
+     */
+    int getMaximumWorkers() {
+        return maximumWorkers;
+    }
+
+    /**
+     * @return number of workers currently not reserved by any retrieval
+     */
+    int getFreeWorkers() {
+        return workers.availablePermits();
+    }
+}
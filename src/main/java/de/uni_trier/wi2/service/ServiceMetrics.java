@@ -0,0 +1,235 @@
+package de.uni_trier.wi2.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * <p>Timers, counters and gauges of the services.</p>
+ *
+ * <p>The meters are registered in the global Micrometer registry, which Spring Boot adds its own registry to, so they
+ * are exposed by the actuator endpoints <i>/actuator/metrics</i> and <i>/actuator/prometheus</i>. Without Spring, e.g.
+ * in the benchmarks, the global registry records nothing.</p>
+ *
+ * <p>Timers of stages of a retrieval are tagged by the global similarity measure of the retrieval. Only names of
+ * similarity measures registered in the similarity model are used as tags, any other name is replaced by
+ * {@value #UNKNOWN_MEASURE}, so clients cannot create arbitrarily many time series.</p>
+ */
+class ServiceMetrics {
+
+    /**
+     * Duration of whole retrievals, tagged by measure, whether the results were cached and outcome.
+     */
+    static final String RETRIEVAL = "procake.retrieval";
+
+    /**
+     * Duration of the stages of retrievals, tagged by stage and measure.
+     */
+    static final String RETRIEVAL_STAGE = "procake.retrieval.stage";
+
+    /**
+     * Duration of database statements, tagged by operation, table and outcome.
+     */
+    static final String DATABASE_QUERY = "database.query";
+
+    /**
+     * Duration of the insertion of uploaded logs, including the parsing of their XES.
+     */
+    static final String DATABASE_LOG_INSERT = "database.log.insert";
+
+    /**
+     * Number of traces of uploaded logs inserted.
+     */
+    static final String DATABASE_INSERTED_TRACES = "database.inserted.traces";
+
+    /**
+     * Duration of loads of the casebase.
+     */
+    static final String CASEBASE_LOAD = "casebase.load";
+
+    /**
+     * Duration of the conversion of chunks of traces while loading the casebase.
+     */
+    static final String CASEBASE_CONVERSION = "casebase.conversion";
+
+    /**
+     * Number of traces converted while loading the casebase.
+     */
+    static final String CASEBASE_CONVERTED_TRACES = "casebase.converted.traces";
+
+    // stages of a retrieval
+    static final String STAGE_CONFIGURATION = "configuration";
+    static final String STAGE_CONVERSION = "conversion";
+    static final String STAGE_FILTER = "filter";
+    static final String STAGE_PRUNING = "pruning";
+    static final String STAGE_SCORING = "scoring";
+    static final String STAGE_MAPPING = "mapping";
+
+    // outcomes of retrievals and database statements
+    static final String OUTCOME_SUCCESS = "success";
+    static final String OUTCOME_FAILURE = "failure";
+
+    static final String DEFAULT_MEASURE = "default";
+    static final String UNKNOWN_MEASURE = "unknown";
+
+    private static final Set<String> measureNames = Collections.synchronizedSet(new HashSet<>());
+
+    private ServiceMetrics() {
+    }
+
+    /**
+     * @param measureName name of a similarity measure registered in the similarity model
+     */
+    static void registerMeasure(String measureName) {
+        if (measureName != null) measureNames.add(measureName);
+    }
+
+    /**
+     * @return a started sample, to be stopped by one of the methods below
+     */
+    static Timer.Sample start() {
+        return Timer.start(Metrics.globalRegistry);
+    }
+
+    /**
+     * Records the duration of a stage of a retrieval.
+     *
+     * @param sample      sample started at the beginning of the stage
+     * @param stage       name of the stage
+     * @param measureName name of the global similarity measure of the retrieval, may be null
+     */
+    static void stopStage(Timer.Sample sample, String stage, String measureName) {
+
+        sample.stop(Timer.builder(RETRIEVAL_STAGE)
+                .description("Duration of the stages of retrievals")
+                .tag("stage", stage)
+                .tag("measure", measureTag(measureName))
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+    }
+
+    /**
+     * Records the duration of a whole retrieval.
+     *
+     * @param sample      sample started at the beginning of the retrieval
+     * @param measureName name of the global similarity measure of the retrieval, may be null
+     * @param cached      whether the results were taken from the cache
+     * @param success     whether the retrieval returned results, false if it failed
+     */
+    static void stopRetrieval(Timer.Sample sample, String measureName, boolean cached, boolean success) {
+
+        sample.stop(Timer.builder(RETRIEVAL)
+                .description("Duration of retrievals")
+                .tag("measure", measureTag(measureName))
+                .tag("cached", String.valueOf(cached))
+                .tag("outcome", success ? OUTCOME_SUCCESS : OUTCOME_FAILURE)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry));
+    }
+
+    /**
+     * A database statement to be timed.
+     */
+    interface TimedStatement<T> {
+        T execute() throws SQLException;
+    }
+
+    /**
+     * Executes a database statement and records its duration, also if it fails.
+     *
+     * @param operation kind of the statement, e.g. <i>select</i>
+     * @param table     name of the table
+     * @param statement the statement
+     * @return the result of the statement
+     * @throws SQLException if the statement failed
+     */
+    static <T> T timeQuery(String operation, String table, TimedStatement<T> statement) throws SQLException {
+
+        Timer.Sample sample = start();
+        boolean success = false;
+        try {
+            T result = statement.execute();
+            success = true;
+            return result;
+        } finally {
+            sample.stop(Timer.builder(DATABASE_QUERY)
+                    .description("Duration of database statements")
+                    .tag("operation", operation)
+                    .tag("table", table)
+                    .tag("outcome", success ? OUTCOME_SUCCESS : OUTCOME_FAILURE)
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry));
+        }
+    }
+
+    /**
+     * Records the duration of a load of the casebase.
+     *
+     * @param sample sample started at the beginning of the load
+     */
+    static void stopLoad(Timer.Sample sample) {
+
+        sample.stop(Timer.builder(CASEBASE_LOAD)
+                .description("Duration of loads of the casebase")
+                .register(Metrics.globalRegistry));
+    }
+
+    /**
+     * Records the insertion of an uploaded log.
+     *
+     * @param nanos          duration of the insertion
+     * @param numberOfTraces number of traces inserted
+     */
+    static void recordLogInsert(long nanos, int numberOfTraces) {
+
+        Timer.builder(DATABASE_LOG_INSERT)
+                .description("Duration of the insertion of uploaded logs")
+                .register(Metrics.globalRegistry)
+                .record(java.time.Duration.ofNanos(nanos));
+        Counter.builder(DATABASE_INSERTED_TRACES)
+                .description("Number of traces of uploaded logs inserted")
+                .register(Metrics.globalRegistry)
+                .increment(numberOfTraces);
+    }
+
+    /**
+     * Records the conversion of a chunk of traces.
+     *
+     * @param nanos          duration of the conversion
+     * @param numberOfTraces number of traces converted
+     */
+    static void recordConversion(long nanos, int numberOfTraces) {
+
+        Timer.builder(CASEBASE_CONVERSION)
+                .description("Duration of the conversion of chunks of traces")
+                .register(Metrics.globalRegistry)
+                .record(java.time.Duration.ofNanos(nanos));
+        Counter.builder(CASEBASE_CONVERTED_TRACES)
+                .description("Number of traces converted")
+                .register(Metrics.globalRegistry)
+                .increment(numberOfTraces);
+    }
+
+    /**
+     * Registers a gauge reporting a property of the casebase, e.g. its number of traces.
+     *
+     * @param name        name of the gauge
+     * @param description description of the gauge
+     * @param value       supplies the current value
+     */
+    static void gauge(String name, String description, Supplier<Number> value) {
+
+        Gauge.builder(name, value)
+                .description(description)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static String measureTag(String measureName) {
+
+        if (measureName == null) return DEFAULT_MEASURE;
+        return measureNames.contains(measureName) ? measureName : UNKNOWN_MEASURE;
+    }
+}
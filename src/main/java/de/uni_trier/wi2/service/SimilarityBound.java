@@ -0,0 +1,96 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+
+/**
+ * <p>Upper bounds of the similarity of a case to a query, used to skip cases that cannot be among the best results.</p>
+ *
+ * <p>The bounds are computed from the {@link TraceSignature}s of the traces and estimate the fraction of the events of
+ * the query that can be aligned with an event of the case. They are only admissible, i.e. never below the similarity
+ * computed by the configured similarity measure, if every aligned pair of events contributes at most 1 and the
+ * similarity is normalized by at least the length of the query. Which other assumptions have to hold depends on the
+ * bound. Events without a name are assumed to possibly match any event.</p>
+ *
+ * <p>None of the assumptions can be checked for the configured measure in advance, only on the cases that are
+ * compared, so results of a retrieval that skipped cases are reported as unverified, see
+ * {@link de.uni_trier.wi2.model.EarlyAbandoningReport}.</p>
+ */
+enum SimilarityBound {
+    /**
+     * shorter length divided by the length of the query, assumes that every event of the case is aligned with at most
+     * one event of the query (e.g. SWA)
+     */
+    LENGTH,
+    /**
+     * number of events of the query matched by an event of the case with the same name, each event of the case
+     * matching at most one, divided by the length of the query; additionally assumes that events with different names
+     * have a similarity of 0
+     */
+    ACTIVITIES,
+    /**
+     * number of events of the query whose name occurs in the case divided by the length of the query; allows an event
+     * of the case to be aligned with several events of the query (e.g. DTW), but assumes that events with different
+     * names have a similarity of 0
+     */
+    ACTIVITY_SET;
+
+    private static final String UNNAMED = "";
+
+    /**
+     * @param name name of the bound in camel case (e.g. <i>activitySet</i>)
+     * @return the bound
+     * @throws IllegalArgumentException if there is no bound with the given name
+     */
+    static SimilarityBound of(String name) {
+
+        if (name == null) throw new IllegalArgumentException("Early abandoning requires a bound");
+        for (SimilarityBound bound : values()) {
+            if (bound.name().replace("_", "").equalsIgnoreCase(name)) return bound;
+        }
+        throw new IllegalArgumentException(String.format("Unknown bound '%s'", name));
+    }
+
+    /**
+     * @param query signature of the query
+     * @param trace signature of the case
+     * @return upper bound of the similarity of the case to the query between 0 and 1
+     */
+    double of(TraceSignature query, TraceSignature trace) {
+
+        if (query.length() == 0) return 1;
+        if (trace.length() == 0) return 0;
+
+        int matched = switch (this) {
+            case LENGTH -> Math.min(query.length(), trace.length());
+            case ACTIVITIES -> matchedActivities(query, trace);
+            case ACTIVITY_SET -> matchedActivitySet(query, trace);
+        };
+        return Math.min(1, (double) matched / query.length());
+    }
+
+    private static int matchedActivities(TraceSignature query, TraceSignature trace) {
+
+        int matched = 0;
+        for (Map.Entry<String, Integer> event : query.eventCounts().entrySet()) {
+            if (event.getKey().equals(UNNAMED)) continue;
+            matched += Math.min(event.getValue(), trace.eventCounts().getOrDefault(event.getKey(), 0));
+        }
+
+        // unnamed events may be matched with any of the remaining events
+        int unnamed = query.eventCounts().getOrDefault(UNNAMED, 0) + trace.eventCounts().getOrDefault(UNNAMED, 0);
+        return matched + Math.min(unnamed, Math.min(query.length(), trace.length()) - matched);
+    }
+
+    private static int matchedActivitySet(TraceSignature query, TraceSignature trace) {
+
+        // an unnamed event of the case may be aligned with every event of the query
+        if (trace.eventCounts().containsKey(UNNAMED)) return query.length();
+
+        int matched = query.eventCounts().getOrDefault(UNNAMED, 0);
+        for (Map.Entry<String, Integer> event : query.eventCounts().entrySet()) {
+            if (!event.getKey().equals(UNNAMED) && trace.eventCounts().containsKey(event.getKey()))
+                matched += event.getValue();
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,162 @@
+package de.uni_trier.wi2.service;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Reads the traces of a log in chunks on a thread of its own, so the log is parsed while the chunks read before
+ * are inserted into the database.</p>
+ *
+ * <p>A chunk holds at most the given number of traces and at most the given number of characters of XES, so a
+ * statement inserting a chunk stays below the packet size limit of the database even if the traces are large. At
+ * most two chunks wait to be taken, so parsing cannot outrun the inserts and only a few chunks are held in memory.</p>
+ */
+class TraceChunkReader implements Closeable {
+
+    /**
+     * A chunk of traces of a log.
+     *
+     * @param traces XES of the traces of the chunk, in the order of the log
+     * @param header the log without its traces as far as it has been read
+     * @param last   whether this is the last chunk, i.e. the header is complete
+     */
+    record Chunk(List<String> traces, String header, boolean last) {
+    }
+
+    // signals that reading the log failed, see failure
+    private static final Chunk FAILED = new Chunk(List.of(), null, true);
+
+    private final XESLogReader reader;
+    private final int chunkSize;
+    private final long maxChunkCharacters;
+
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(2);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    // the thread reading the log, interrupted when this is closed
+    private final Object lock = new Object();
+    private Thread thread;
+    private boolean closed = false;
+
+    private volatile Exception failure;
+    private long waitedNanos = 0;
+
+    /**
+     * Starts reading the log. The reader must not be used by the caller until this is closed.
+     *
+     * @param reader             reader of the log
+     * @param chunkSize          maximum number of traces per chunk
+     * @param maxChunkCharacters maximum number of characters of XES per chunk, unless a single trace is longer
+     * @param executor           executor running the reading
+     */
+    TraceChunkReader(XESLogReader reader, int chunkSize, long maxChunkCharacters, Executor executor) {
+        this.reader = reader;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxChunkCharacters = Math.max(1, maxChunkCharacters);
+        executor.execute(this::read);
+    }
+
+    /**
+     * Waits for the next chunk of the log.
+     *
+     * @return the next chunk, the last one having {@link Chunk#last()} set
+     * @throws XMLStreamException if the log is not well-formed or could not be read
+     */
+    Chunk next() throws XMLStreamException {
+
+        Chunk chunk;
+        long start = System.nanoTime();
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException("Reading of log was interrupted.");
+        } finally {
+            waitedNanos += System.nanoTime() - start;
+        }
+
+        if (chunk == FAILED) {
+            if (failure instanceof XMLStreamException e) throw e;
+            throw (RuntimeException) failure;
+        }
+        return chunk;
+    }
+
+    /**
+     * @return nanoseconds {@link #next()} waited for chunks, i.e. the time parsing was slower than inserting
+     */
+    long getWaitedNanos() {
+        return waitedNanos;
+    }
+
+    /**
+     * Stops reading and waits until the reading thread no longer uses the reader or its stream.
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized (lock) {
+            closed = true;
+            if (thread != null) thread.interrupt();
+        }
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the reading of the log to stop.");
+        }
+    }
+
+    private void read() {
+
+        synchronized (lock) {
+            if (closed) {
+                finished.countDown();
+                return;
+            }
+            thread = Thread.currentThread();
+        }
+
+        try {
+            List<String> traces = new ArrayList<>();
+            long characters = 0;
+
+            String trace;
+            while ((trace = reader.nextTrace()) != null) {
+                // a trace exceeding the limit on its own is put into a chunk of its own
+                if (!traces.isEmpty() && characters + trace.length() > maxChunkCharacters) {
+                    chunks.put(new Chunk(traces, reader.getHeader(), false));
+                    traces = new ArrayList<>();
+                    characters = 0;
+                }
+                traces.add(trace);
+                characters += trace.length();
+                if (traces.size() >= chunkSize) {
+                    chunks.put(new Chunk(traces, reader.getHeader(), false));
+                    traces = new ArrayList<>();
+                    characters = 0;
+                }
+            }
+            chunks.put(new Chunk(traces, reader.getHeader(), true));
+
+        } catch (InterruptedException e) {
+            // closed before the log was read completely
+        } catch (XMLStreamException | RuntimeException e) {
+            failure = e;
+            // the queue is drained by next() unless this was closed, which interrupts the put
+            try {
+                chunks.put(FAILED);
+            } catch (InterruptedException ignored) {
+            }
+        } finally {
+            synchronized (lock) {
+                thread = null;
+                // an interrupt by close must not affect the next task of the thread
+                Thread.interrupted();
+            }
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package de.uni_trier.wi2.service;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * <p>Record representing the properties of a trace the casebase can be filtered and pruned by.</p>
+ *
+ * <p>The properties are read from the XES of the trace by a StAX reader, which is much cheaper than its conversion
+ * and does not depend on the converted form. Only the <i>event</i> elements directly below the <i>trace</i> element
+ * and only their top-level <i>string</i> attributes are read, so names of nested attributes are not taken for the
+ * name of the event.</p>
+ *
+ * @param events names (<i>concept:name</i>) of the events of the trace in their order, the empty String for events
+ *               without a name
+ */
+record TraceFeatures(List<String> events) {
+
+    private static final String TRACE = "trace";
+    private static final String EVENT = "event";
+    private static final String STRING = "string";
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+    private static final String CONCEPT_NAME = "concept:name";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    static {
+        // queries are sent by clients, so they must not make the parser read other files
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        // a trace stored on its own may use prefixes declared by its log only
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    }
+
+    TraceFeatures {
+        events = List.copyOf(events);
+    }
+
+    /**
+     * @param xes XES of a single trace
+     * @return the properties of the trace
+     * @throws IllegalArgumentException if the XES cannot be parsed
+     */
+    static TraceFeatures of(String xes) {
+        return ofFirstTrace(xes);
+    }
+
+    /**
+     * @param xes XES trace or log containing (at least) one trace
+     * @return the properties of the first trace, no events if there is no trace
+     * @throws IllegalArgumentException if the XES cannot be parsed
+     */
+    static TraceFeatures ofFirstTrace(String xes) {
+
+        List<TraceFeatures> features = read(xes, false);
+        return features.isEmpty() ? new TraceFeatures(List.of()) : features.get(0);
+    }
+
+    /**
+     * Reads the properties of all traces of a log in a single pass, e.g. of a chunk of traces assembled for their
+     * conversion, instead of reading every trace on its own.
+     *
+     * @param xes XES log
+     * @return the properties of the traces directly below the log element, in their order
+     * @throws IllegalArgumentException if the XES cannot be parsed
+     */
+    static List<TraceFeatures> ofLog(String xes) {
+        return read(xes, true);
+    }
+
+    /**
+     * @param wholeLog whether all traces directly below the root element are read, otherwise only the first trace
+     *                 found at any depth is read
+     */
+    private static List<TraceFeatures> read(String xes, boolean wholeLog) {
+
+        List<TraceFeatures> traces = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(xes));
+            try {
+                // depths of the current trace and of the current event, 0 outside of them
+                int depth = 0;
+                int traceDepth = 0;
+                int eventDepth = 0;
+                String eventName = null;
+
+                while (reader.hasNext()) {
+                    int type = reader.next();
+                    if (type == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String element = localName(reader.getLocalName());
+                        if (traceDepth == 0) {
+                            if (element.equals(TRACE) && (!wholeLog || depth == 2)) traceDepth = depth;
+                        } else if (eventDepth == 0) {
+                            if (depth == traceDepth + 1 && element.equals(EVENT)) eventDepth = depth;
+                        } else if (depth == eventDepth + 1 && eventName == null && element.equals(STRING)
+                                && CONCEPT_NAME.equals(attribute(reader, KEY))) {
+                            String value = attribute(reader, VALUE);
+                            eventName = value == null ? "" : value;
+                        }
+                    } else if (type == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == eventDepth) {
+                            events.add(eventName == null ? "" : eventName);
+                            eventDepth = 0;
+                            eventName = null;
+                        } else if (depth == traceDepth) {
+                            traces.add(new TraceFeatures(events));
+                            if (!wholeLog) break;
+                            events.clear();
+                            traceDepth = 0;
+                        }
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("XES could not be parsed: " + e.getMessage(), e);
+        }
+
+        return traces;
+    }
+
+    // the reader is not aware of namespaces, so the names still contain their prefixes
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (localName(reader.getAttributeLocalName(i)).equals(name)) return reader.getAttributeValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * @return number of events of the trace
+     */
+    int length() {
+        return events.size();
+    }
+
+    /**
+     * @return names of the events of the trace
+     */
+    Set<String> eventNames() {
+
+        Set<String> eventNames = new HashSet<>(events);
+        eventNames.remove("");
+        return eventNames;
+    }
+}
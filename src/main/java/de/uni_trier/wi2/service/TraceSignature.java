@@ -0,0 +1,209 @@
+package de.uni_trier.wi2.service;
+
+import java.util.*;
+
+/**
+ * <p>Cheap signature of a trace, used to prune the casebase before the configured similarity measure runs.</p>
+ *
+ * <p>A signature consists of the length of the trace, its bag of activities (the number of occurrences of each
+ * event name), a MinHash over the set of its activity n-grams and an embedding of the trace in a vector space of
+ * fixed dimension. Comparing two signatures takes time linear in the number of distinct activities and the size of
+ * the MinHash and the embedding, independent of the length of the traces, whereas sequence measures like DTW or SWA
+ * take quadratic time.</p>
+ *
+ * <p>The embedding hashes the activities, the activity n-grams and the magnitude of the length of the trace to the
+ * dimensions of the vector (feature hashing) and is normalized to unit length, so the similarity of two embeddings is
+ * their dot product. Unlike the other signatures, embeddings can be searched by a {@link NearestNeighbourIndex}.</p>
+ *
+ * @param length      number of events
+ * @param eventCounts number of occurrences by event name
+ * @param minHash     minimum hash values of the activity n-grams, one per hash function
+ * @param embedding   unit vector of hashed activities, activity n-grams and length
+ */
+record TraceSignature(int length, Map<String, Integer> eventCounts, int[] minHash, float[] embedding) {
+
+    /**
+     * Signatures a trace can be compared by.
+     */
+    enum Kind {
+        /**
+         * generalized Jaccard similarity of the bags of activities
+         */
+        BAG_OF_WORDS,
+        /**
+         * ratio of the shorter to the longer length
+         */
+        LENGTH,
+        /**
+         * estimated Jaccard similarity of the sets of activity n-grams
+         */
+        MIN_HASH,
+        /**
+         * mean of the similarities above
+         */
+        COMBINED,
+        /**
+         * cosine similarity of the embeddings, can be searched by a {@link NearestNeighbourIndex}
+         */
+        EMBEDDING;
+
+        /**
+         * @param name name of the kind in camel case (e.g. <i>bagOfWords</i>), or null for {@link #COMBINED}
+         * @return the kind
+         * @throws IllegalArgumentException if there is no kind with the given name
+         */
+        static Kind of(String name) {
+
+            if (name == null) return COMBINED;
+            for (Kind kind : values()) {
+                if (kind.name().replace("_", "").equalsIgnoreCase(name)) return kind;
+            }
+            throw new IllegalArgumentException(String.format("Unknown signature '%s'", name));
+        }
+    }
+
+    private static int nGramSize = 3;
+    private static long[] seeds = seeds(64);
+    private static int embeddingSize = 64;
+
+    // distinguish the kinds of features hashed into the embedding
+    private static final long ACTIVITY_FEATURE = 0x4143544956495459L;
+    private static final long N_GRAM_FEATURE = 0x4e4752414d53L;
+    private static final long LENGTH_FEATURE = 0x4c454e475448L;
+
+    /**
+     * Sets the length of the activity n-grams, the number of hash functions of the MinHash and the dimension of the
+     * embedding. Signatures computed before are not comparable with signatures computed afterwards, so this has to be
+     * called before the casebase is loaded.
+     *
+     * @param nGramSize     length of the n-grams
+     * @param minHashSize   number of hash functions
+     * @param embeddingSize dimension of the embedding
+     */
+    static synchronized void configure(int nGramSize, int minHashSize, int embeddingSize) {
+        TraceSignature.nGramSize = Math.max(1, nGramSize);
+        TraceSignature.seeds = seeds(Math.max(1, minHashSize));
+        TraceSignature.embeddingSize = Math.max(1, embeddingSize);
+    }
+
+    private static long[] seeds(int size) {
+
+        // fixed seed, so signatures are comparable across restarts
+        Random random = new Random(0x5347L);
+        long[] seeds = new long[size];
+        for (int i = 0; i < size; i++) seeds[i] = random.nextLong();
+        return seeds;
+    }
+
+    /**
+     * @param features the properties of a trace
+     * @return the signature of the trace
+     */
+    static TraceSignature of(TraceFeatures features) {
+
+        List<String> events = features.events();
+
+        Map<String, Integer> eventCounts = new HashMap<>();
+        for (String event : events) eventCounts.merge(event, 1, Integer::sum);
+
+        long[] seeds = TraceSignature.seeds;
+        int n = Math.min(nGramSize, Math.max(1, events.size()));
+        int[] minHash = new int[seeds.length];
+        Arrays.fill(minHash, Integer.MAX_VALUE);
+        float[] embedding = new float[embeddingSize];
+        for (int start = 0; start + n <= events.size(); start++) {
+            long hash = String.join("\u0000", events.subList(start, start + n)).hashCode();
+            for (int i = 0; i < seeds.length; i++) {
+                int value = (int) mix(hash ^ seeds[i]);
+                if (value < minHash[i]) minHash[i] = value;
+            }
+            if (n > 1) addFeature(embedding, mix(hash ^ N_GRAM_FEATURE));
+        }
+        for (Map.Entry<String, Integer> event : eventCounts.entrySet())
+            addFeature(embedding, mix(event.getKey().hashCode() ^ ACTIVITY_FEATURE), event.getValue());
+        // traces of the same order of magnitude of length share a feature
+        addFeature(embedding, mix((32 - Integer.numberOfLeadingZeros(events.size())) ^ LENGTH_FEATURE), Math.sqrt(events.size()));
+        normalize(embedding);
+
+        return new TraceSignature(events.size(), Map.copyOf(eventCounts), minHash, embedding);
+    }
+
+    private static void addFeature(float[] embedding, long hash) {
+        addFeature(embedding, hash, 1);
+    }
+
+    private static void addFeature(float[] embedding, long hash, double weight) {
+
+        // the sign taken from another bit of the hash makes collisions cancel out instead of adding up
+        int dimension = (int) Long.remainderUnsigned(hash, embedding.length);
+        embedding[dimension] += (float) ((hash & (1L << 63)) == 0 ? weight : -weight);
+    }
+
+    private static void normalize(float[] embedding) {
+
+        double norm = 0;
+        for (float value : embedding) norm += value * value;
+        if (norm == 0) return;
+        float factor = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < embedding.length; i++) embedding[i] *= factor;
+    }
+
+    /**
+     * @param other the other signature
+     * @param kind  the kind of signature to compare
+     * @return similarity of the signatures between 0 and 1
+     */
+    double similarity(TraceSignature other, Kind kind) {
+
+        return switch (kind) {
+            case BAG_OF_WORDS -> bagOfWordsSimilarity(other);
+            case LENGTH -> lengthSimilarity(other);
+            case MIN_HASH -> minHashSimilarity(other);
+            case COMBINED -> (bagOfWordsSimilarity(other) + lengthSimilarity(other) + minHashSimilarity(other)) / 3;
+            case EMBEDDING -> embeddingSimilarity(other);
+        };
+    }
+
+    private double bagOfWordsSimilarity(TraceSignature other) {
+
+        int intersection = 0;
+        for (Map.Entry<String, Integer> event : eventCounts.entrySet()) {
+            Integer count = other.eventCounts.get(event.getKey());
+            if (count != null) intersection += Math.min(count, event.getValue());
+        }
+        int union = length + other.length - intersection;
+        return union == 0 ? 1 : (double) intersection / union;
+    }
+
+    private double lengthSimilarity(TraceSignature other) {
+
+        int longer = Math.max(length, other.length);
+        return longer == 0 ? 1 : (double) Math.min(length, other.length) / longer;
+    }
+
+    private double minHashSimilarity(TraceSignature other) {
+
+        int size = Math.min(minHash.length, other.minHash.length);
+        if (size == 0) return 0;
+        int equal = 0;
+        for (int i = 0; i < size; i++) if (minHash[i] == other.minHash[i]) equal++;
+        return (double) equal / size;
+    }
+
+    private double embeddingSimilarity(TraceSignature other) {
+
+        double dot = 0;
+        int size = Math.min(embedding.length, other.embedding.length);
+        for (int i = 0; i < size; i++) dot += embedding[i] * other.embedding[i];
+        return Math.max(0, dot);
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreads the bits of a hash.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
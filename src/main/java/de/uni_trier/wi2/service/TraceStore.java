@@ -0,0 +1,455 @@
+package de.uni_trier.wi2.service;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Local append-only store of the XES of the traces and the headers of the logs, so they can be read without a
+ * round trip to the database and without holding them on the Java heap.</p>
+ *
+ * <p>The store consists of two files in its directory. The data file holds the UTF-8 encoded XES one after another
+ * and is memory-mapped in segments of {@value #SEGMENT_SIZE} bytes, a record never spanning two segments. The index
+ * file holds a record for every log and trace with its id and the position of its XES in the data file, and a record
+ * for every removed log. The index is read into memory when the store is opened.</p>
+ *
+ * <p>The XES of a log is written to the data file and forced to disk before its records are appended to the index,
+ * so a crash leaves at most unreferenced bytes in the data file, which are overwritten later, and a truncated last
+ * record in the index, which is dropped. An index append that fails is truncated again, so later records are never
+ * appended after a partial one. The space of removed logs is not reclaimed.</p>
+ *
+ * <p>The database remains the primary storage. Besides the XES of the headers and traces, which never changes once
+ * a log is uploaded, the store only knows the log of every trace and whether a log was removed, so a log or trace it
+ * holds is read without a round trip to the database. A log is never restored once removed, so the removed flag can
+ * only lag behind the database, if the log is removed by another instance or by hand. The traces belonging to a log
+ * and the metadata are always read from the database. The store only holds the logs uploaded since it was enabled,
+ * and every read falls back to the database if the store does not know the requested header or trace.</p>
+ */
+class TraceStore {
+
+    private static final int MAGIC = 0x52545253; // "RTRS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_SIZE = 1 << 28;
+
+    private static final byte LOG = 1;
+    private static final byte TRACE = 2;
+    private static final byte REMOVED = 3;
+
+    private static final String DATA_FILE = "traces.dat";
+    private static final String INDEX_FILE = "traces.idx";
+
+    /**
+     * Position and length of an XES in the data file.
+     */
+    private record Location(long position, int length) {
+    }
+
+    /**
+     * Location of the XES of a trace and the id of its log.
+     */
+    private record StoredTrace(Location xes, String logID) {
+    }
+
+    private final Path directory;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final int segmentSize;
+
+    // locations of the headers of the logs and of the XES of the traces by their ids
+    private final Map<String, Location> logs = new ConcurrentHashMap<>();
+    private final Map<String, StoredTrace> traces = new ConcurrentHashMap<>();
+    private final Set<String> removedLogs = ConcurrentHashMap.newKeySet();
+
+    // replaced by a larger copy when a segment is added, so readers never see a partially filled array
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long end = 0;
+
+    private TraceStore(Path directory, FileChannel data, FileChannel index, int segmentSize) {
+        this.directory = directory;
+        this.data = data;
+        this.index = index;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it does not exist.
+     *
+     * @param directory directory of the store
+     * @return the store
+     * @throws IOException if the files of the store could not be opened or were written in another format version
+     */
+    static TraceStore open(Path directory) throws IOException {
+        return open(directory, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the store in the given directory with segments of the given size, which has to be the size the store was
+     * written with.
+     *
+     * @param directory   directory of the store
+     * @param segmentSize size of the memory-mapped segments of the data file in bytes
+     * @return the store
+     * @throws IOException if the files of the store could not be opened or were written in another format version
+     */
+    static TraceStore open(Path directory, int segmentSize) throws IOException {
+
+        Files.createDirectories(directory);
+        FileChannel data = FileChannel.open(directory.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        TraceStore store = new TraceStore(directory, data, index, segmentSize);
+        try {
+            store.readIndex();
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            index.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * A log whose traces are being appended, see {@link #startLog(String)}.
+     */
+    static final class PendingLog {
+
+        private final String logID;
+        private final List<String> traceIDs = new ArrayList<>();
+        private final List<Location> locations = new ArrayList<>();
+        private long start = -1;
+
+        private PendingLog(String logID) {
+            this.logID = logID;
+        }
+    }
+
+    /**
+     * Starts appending a log whose traces are not known in advance, e.g. because they are read from an upload. The
+     * traces are written to the data file by {@link #addTrace(PendingLog, String, String)} as they arrive, so only
+     * their ids and positions are held in memory, and the log becomes part of the store once
+     * {@link #commitLog(PendingLog, String)} wrote its records to the index. A log that is never committed only
+     * leaves unreferenced bytes in the data file.
+     *
+     * @param logID id of the log
+     * @return the log to add the traces to
+     */
+    PendingLog startLog(String logID) {
+        return new PendingLog(logID);
+    }
+
+    /**
+     * Appends the XES of a trace of a pending log to the data file.
+     *
+     * @param log     the pending log
+     * @param traceID id of the trace
+     * @param xes     XES of the trace
+     * @throws IOException if the trace could not be written
+     */
+    synchronized void addTrace(PendingLog log, String traceID, String xes) throws IOException {
+
+        Location location = append(xes);
+        if (log.start < 0) log.start = location.position();
+        log.traceIDs.add(traceID);
+        log.locations.add(location);
+    }
+
+    /**
+     * Appends the header of a pending log and makes the log part of the store.
+     *
+     * @param log    the pending log
+     * @param header the log without its traces
+     * @throws IOException if the log could not be written
+     */
+    synchronized void commitLog(PendingLog log, String header) throws IOException {
+
+        Location headerLocation = append(header);
+        // the traces of other logs appended meanwhile are forced as well, which does no harm
+        force(log.start < 0 ? headerLocation.position() : log.start, end);
+
+        String logID = log.logID;
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeRecord(records, out -> {
+            out.writeByte(LOG);
+            out.writeUTF(logID);
+            out.writeLong(headerLocation.position());
+            out.writeInt(headerLocation.length());
+        });
+        for (int i = 0; i < log.traceIDs.size(); i++) {
+            Location location = log.locations.get(i);
+            String traceID = log.traceIDs.get(i);
+            writeRecord(records, out -> {
+                out.writeByte(TRACE);
+                out.writeUTF(traceID);
+                out.writeUTF(logID);
+                out.writeLong(location.position());
+                out.writeInt(location.length());
+            });
+        }
+        appendToIndex(records.toByteArray());
+
+        for (int i = 0; i < log.traceIDs.size(); i++)
+            traces.put(log.traceIDs.get(i), new StoredTrace(log.locations.get(i), logID));
+        logs.put(logID, headerLocation);
+    }
+
+    /**
+     * Marks a log and its traces as removed. Does nothing if the log is not part of the store.
+     *
+     * @param logID id of the log
+     * @throws IOException if the removal could not be written to the index, the log is marked as removed until the
+     *                     store is opened again nevertheless
+     */
+    synchronized void removeLog(String logID) throws IOException {
+
+        if (!logs.containsKey(logID) || removedLogs.contains(logID)) return;
+
+        removedLogs.add(logID);
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeRecord(records, out -> {
+            out.writeByte(REMOVED);
+            out.writeUTF(logID);
+        });
+        appendToIndex(records.toByteArray());
+    }
+
+    /**
+     * Removes all logs from the index. The data file is neither truncated nor overwritten, since buffers returned by
+     * {@link #getXESBuffer(String)} and logs pending meanwhile may still refer to it, so its space is only reused
+     * once the store is opened again.
+     *
+     * @throws IOException if the index could not be cleared
+     */
+    synchronized void clear() throws IOException {
+
+        // reading a truncated mapped region crashes the JVM
+        index.truncate(0);
+        writeIndexHeader();
+        logs.clear();
+        traces.clear();
+        removedLogs.clear();
+    }
+
+    /**
+     * @param logID id of a log
+     * @return whether the XES of the log is part of the store
+     */
+    boolean containsLog(String logID) {
+        return logs.containsKey(logID);
+    }
+
+    /**
+     * @param logID id of a log
+     * @return the log without its traces, or null if the log is not part of the store
+     */
+    String getHeader(String logID) {
+
+        Location header = logs.get(logID);
+        return header == null ? null : read(header);
+    }
+
+    /**
+     * @param logID id of a log
+     * @return whether the log is part of the store and was removed
+     */
+    boolean isRemoved(String logID) {
+        return removedLogs.contains(logID);
+    }
+
+    /**
+     * @param traceID id of a trace
+     * @return the id of the log of the trace, or null if the trace is not part of the store
+     */
+    String getLogID(String traceID) {
+
+        StoredTrace trace = traces.get(traceID);
+        return trace == null ? null : trace.logID();
+    }
+
+    /**
+     * @param traceID id of a trace
+     * @return the XES of the trace, or null if the trace is not part of the store
+     */
+    String getXES(String traceID) {
+
+        StoredTrace trace = traces.get(traceID);
+        return trace == null ? null : read(trace.xes());
+    }
+
+    /**
+     * Returns the UTF-8 encoded XES of a trace without copying it from the mapped data file.
+     *
+     * @param traceID id of a trace
+     * @return read-only buffer containing the XES of the trace, or null if the trace is not part of the store
+     */
+    ByteBuffer getXESBuffer(String traceID) {
+
+        StoredTrace trace = traces.get(traceID);
+        if (trace == null) return null;
+        Location location = trace.xes();
+        return segments[segmentOf(location.position())]
+                .slice(offsetOf(location.position()), location.length())
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * @return {@link Map} containing directory, number of logs and traces and the bytes used of the data file
+     */
+    synchronized Map<String, Object> getStatistics() {
+
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("directory", directory.toString());
+        statistics.put("logs", logs.size());
+        statistics.put("traces", traces.size());
+        statistics.put("removedLogs", removedLogs.size());
+        statistics.put("bytes", end);
+        return statistics;
+    }
+
+    private String read(Location location) {
+
+        byte[] bytes = new byte[location.length()];
+        segments[segmentOf(location.position())].get(offsetOf(location.position()), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Location append(String value) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > segmentSize)
+            throw new IOException(String.format("XES of %d bytes exceeds the maximum of %d bytes", bytes.length, segmentSize));
+
+        long position = end;
+        if (offsetOf(position) + (long) bytes.length > segmentSize)
+            position = (long) (segmentOf(position) + 1) * segmentSize;
+
+        segment(segmentOf(position)).put(offsetOf(position), bytes);
+        end = position + bytes.length;
+        return new Location(position, bytes.length);
+    }
+
+    private void force(long from, long to) {
+
+        for (int segment = segmentOf(from); segment <= segmentOf(Math.max(from, to - 1)) && segment < segments.length; segment++)
+            segments[segment].force();
+    }
+
+    private MappedByteBuffer segment(int segment) throws IOException {
+
+        MappedByteBuffer[] current = segments;
+        if (segment < current.length) return current[segment];
+
+        MappedByteBuffer[] grown = Arrays.copyOf(current, segment + 1);
+        for (int i = current.length; i <= segment; i++)
+            grown[i] = data.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+        segments = grown;
+        return grown[segment];
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream records, RecordWriter writer) throws IOException {
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(record));
+        DataOutputStream out = new DataOutputStream(records);
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+
+    private void appendToIndex(byte[] records) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        long start = index.size();
+        long position = start;
+        try {
+            while (buffer.hasRemaining()) position += index.write(buffer, position);
+            index.force(false);
+        } catch (IOException e) {
+            // the records appended next must not follow a partial record
+            try {
+                index.truncate(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private void writeIndexHeader() throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        while (header.hasRemaining()) index.write(header, header.position());
+        index.force(false);
+    }
+
+    private void readIndex() throws IOException {
+
+        if (index.size() == 0) {
+            writeIndexHeader();
+            return;
+        }
+
+        long valid = 8;
+        // not closed, since that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(index.position(0))));
+
+        if (in.readInt() != MAGIC) throw new IOException("Not a trace store: " + directory);
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION)
+            throw new IOException(String.format("Unsupported trace store format version %d", formatVersion));
+
+        while (true) {
+            byte[] record;
+            try {
+                record = new byte[in.readInt()];
+                in.readFully(record);
+            } catch (EOFException e) {
+                break;
+            }
+            valid += 4 + record.length;
+            readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+        }
+
+        // a record cut off by a crash is dropped, so the next one is appended at the right position
+        if (index.size() > valid) index.truncate(valid);
+    }
+
+    private void readRecord(DataInputStream in) throws IOException {
+
+        byte type = in.readByte();
+        String id = in.readUTF();
+        switch (type) {
+            case LOG -> {
+                Location header = new Location(in.readLong(), in.readInt());
+                logs.put(id, header);
+                end = Math.max(end, header.position() + header.length());
+            }
+            case TRACE -> {
+                String logID = in.readUTF();
+                Location xes = new Location(in.readLong(), in.readInt());
+                traces.put(id, new StoredTrace(xes, logID));
+                end = Math.max(end, xes.position() + xes.length());
+            }
+            case REMOVED -> removedLogs.add(id);
+            default -> throw new IOException(String.format("Trace store is corrupt, unknown record type %d", type));
+        }
+
+        if (end > 0) segment(segmentOf(end - 1));
+    }
+
+    private int segmentOf(long position) {
+        return (int) (position / segmentSize);
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentSize);
+    }
+}
@@ -0,0 +1,337 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * <p>The service storing uploaded logs, either while the upload request is open or asynchronously by jobs.</p>
+ *
+ * <p>An asynchronous upload first copies the request body to a file in the spool directory, so the request only
+ * lasts as long as the transfer of the log. The log is then inserted from that file by a job running on a bounded
+ * executor, optionally followed by adding its traces to the casebase. The state of a job, including the number of
+ * traces inserted so far and the throughput, can be requested by its id while it runs and for a while after it
+ * finished.</p>
+ *
+ * <p>The class only has static members, its jobs are configured on startup by
+ * {@link de.uni_trier.wi2.config.ConnectToDatabase}.</p>
+ */
+public class UploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadService.class);
+
+    private static final String QUEUED = "queued";
+    private static final String RUNNING = "running";
+    private static final String CONVERTING = "converting";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+
+    /**
+     * Number of finished jobs whose state is kept.
+     */
+    private static final int RETAINED_JOBS = 100;
+
+    private static int threads = 1;
+    private static int queueCapacity = 4;
+    private static Path spoolDirectory = null;
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Slots of the jobs running or waiting, one is reserved before an upload is copied to the spool directory, so
+     * uploads that would be rejected are not copied at all.
+     */
+    private static Semaphore slots;
+
+    /**
+     * The jobs by their ids, in the order they were submitted.
+     */
+    private static final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    /**
+     * Mutable state of a job, read by {@link #toUploadJob()}.
+     */
+    private static final class Job {
+
+        final String jobID = UUID.randomUUID().toString();
+        final Instant submitted = Instant.now();
+        final Path file;
+        final long bytes;
+        final boolean addToCasebase;
+
+        final AtomicInteger tracesProcessed = new AtomicInteger();
+        final AtomicLong bytesRead = new AtomicLong();
+        volatile String status = QUEUED;
+        volatile String logID;
+        volatile Instant started;
+        volatile Instant finished;
+        volatile Long casebaseVersion;
+        volatile String error;
+
+        Job(Path file, long bytes, boolean addToCasebase) {
+            this.file = file;
+            this.bytes = bytes;
+            this.addToCasebase = addToCasebase;
+        }
+
+        boolean isFinished() {
+            return finished != null;
+        }
+
+        UploadJob toUploadJob() {
+
+            Instant start = started;
+            Instant end = finished;
+            int traces = tracesProcessed.get();
+            double seconds = start == null ? 0 : Duration.between(start, end == null ? Instant.now() : end).toNanos() / 1e9;
+
+            return new UploadJob(jobID, status, logID, traces, bytesRead.get(), bytes,
+                    seconds > 0 ? traces / seconds : 0, submitted.toString(),
+                    start == null ? null : start.toString(), end == null ? null : end.toString(),
+                    casebaseVersion, error);
+        }
+    }
+
+    /**
+     * Sets the executor of the upload jobs. Has to be called before the first job is submitted.
+     *
+     * @param threads        number of jobs running at the same time
+     * @param queueCapacity  number of jobs waiting for a thread, further jobs are rejected
+     * @param spoolDirectory directory the uploaded logs are copied to, null for the directory of temporary files
+     */
+    public static synchronized void setJobs(int threads, int queueCapacity, Path spoolDirectory) {
+        UploadService.threads = Math.max(1, threads);
+        UploadService.queueCapacity = Math.max(0, queueCapacity);
+        UploadService.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * <p>Inserts a log into the database within a transaction and assigns the date of the upload to the log and its
+     * traces as metadata.</p>
+     *
+     * <p>Nothing is inserted if the log is not valid.</p>
+     *
+     * @param xes      stream of an XES-log
+     * @param progress consumer of the number of traces inserted by every chunk, may be null
+     * @return id of the log
+     * @throws SQLException if there was a problem with the sql query
+     * @throws IOException  if the log could not be read
+     */
+    public static String storeLog(InputStream xes, IntConsumer progress) throws SQLException, IOException {
+
+        DatabaseService.startTransaction();
+        try {
+
+            // read log trace by trace and put header and traces in database
+            String[] ids = DatabaseService.putLog(xes, progress);
+
+            // assign metadata (date)
+            String date = Instant.now().toString();
+            String logID = ids[0];
+            DatabaseService.putLogMetadata(logID, METADATATYPE_NAMES.DATE_OF_UPLOAD, date);
+            DatabaseService.putTraceMetadataOfLog(logID, METADATATYPE_NAMES.DATE_OF_UPLOAD, date);
+
+            DatabaseService.commit();
+            return logID;
+
+        } catch (Exception e) {
+            DatabaseService.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Copies an uploaded log to the spool directory and submits a job inserting it into the database.</p>
+     * <p>The job takes one of the slots of the jobs running or waiting before the log is copied, so an upload is
+     * rejected before its body is read if there is no slot left.</p>
+     *
+     * @param xes           stream of an XES-log, read completely before this returns
+     * @param addToCasebase whether the traces of the log are added to the casebase once it is inserted
+     * @return the state of the submitted job
+     * @throws IOException                if the log could not be copied
+     * @throws RejectedExecutionException if too many jobs are waiting already
+     */
+    public static UploadJob submit(InputStream xes, boolean addToCasebase) throws IOException {
+
+        Semaphore slots = slots();
+        if (!slots.tryAcquire()) throw new RejectedExecutionException("Too many upload jobs are waiting");
+
+        Path file = null;
+        Job job;
+        try {
+            file = spoolDirectory == null
+                    ? Files.createTempFile("upload-", ".xes")
+                    : Files.createTempFile(Files.createDirectories(spoolDirectory), "upload-", ".xes");
+            Files.copy(xes, file, StandardCopyOption.REPLACE_EXISTING);
+            job = new Job(file, Files.size(file), addToCasebase);
+            synchronized (UploadService.class) {
+                executor().execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        slots.release();
+                    }
+                });
+                jobs.put(job.jobID, job);
+                removeFinishedJobs();
+            }
+        } catch (IOException | RuntimeException e) {
+            slots.release();
+            if (file != null) Files.deleteIfExists(file);
+            throw e;
+        }
+
+        logger.info("upload job {} submitted ({} bytes)", job.jobID, job.bytes);
+        return job.toUploadJob();
+    }
+
+    /**
+     * @param jobID id of a job
+     * @return the state of the job, or null if there is no such job or it finished too long ago
+     */
+    public static synchronized UploadJob getJob(String jobID) {
+
+        Job job = jobs.get(jobID);
+        return job == null ? null : job.toUploadJob();
+    }
+
+    /**
+     * @return the states of the jobs running, waiting or finished recently, in the order they were submitted
+     */
+    public static synchronized List<UploadJob> getJobs() {
+
+        List<UploadJob> uploadJobs = new ArrayList<>(jobs.size());
+        for (Job job : jobs.values()) uploadJobs.add(job.toUploadJob());
+        return uploadJobs;
+    }
+
+    private static void run(Job job) {
+
+        job.started = Instant.now();
+        job.status = RUNNING;
+        try {
+            try (InputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(job.file)), job.bytesRead)) {
+                job.logID = storeLog(in, job.tracesProcessed::addAndGet);
+            }
+
+            // make the log's traces available for retrieval
+            if (job.addToCasebase) {
+                job.status = CONVERTING;
+                try {
+                    job.casebaseVersion = ProCAKEService.addLogToCasebase(job.logID);
+                } catch (Exception e) {
+                    job.error = "Traces could not be added to casebase: " + e.getMessage();
+                    logger.warn("traces of log {} could not be added to casebase: {}", job.logID, e.getMessage());
+                }
+            }
+            job.status = DONE;
+
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            job.status = FAILED;
+            logger.warn("upload job {} failed: {}", job.jobID, e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(job.file);
+            } catch (IOException e) {
+                logger.warn("uploaded log {} could not be deleted: {}", job.file, e.getMessage());
+            }
+            // set last, so a finished job no longer uses its file
+            job.finished = Instant.now();
+        }
+
+        UploadJob state = job.toUploadJob();
+        logger.info("upload job {} {}: {} traces of log {} in {} ({} traces/s)", state.jobID(), state.status(),
+                state.tracesProcessed(), state.logID(), Duration.between(job.started, job.finished),
+                Math.round(state.tracesPerSecond()));
+    }
+
+    private static synchronized Semaphore slots() {
+
+        if (slots == null) slots = new Semaphore(threads + queueCapacity);
+        return slots;
+    }
+
+    // the number of jobs is bounded by the slots, so the queue does not have to be
+    private static ThreadPoolExecutor executor() {
+
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "log-upload");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Removes the oldest finished jobs beyond the number of retained jobs.
+     */
+    private static void removeFinishedJobs() {
+
+        int finishedJobs = 0;
+        for (Job job : jobs.values()) if (job.isFinished()) finishedJobs++;
+
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (finishedJobs > RETAINED_JOBS && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finishedJobs--;
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int b = super.read();
+            if (b >= 0) count.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int n = super.read(b, off, len);
+            if (n > 0) count.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
+    private static final class METADATATYPE_NAMES {
+        private static final String DATE_OF_UPLOAD = "dateOfUpload";
+
+        private METADATATYPE_NAMES() {
+        }
+    }
+}
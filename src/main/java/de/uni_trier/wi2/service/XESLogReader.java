@@ -0,0 +1,166 @@
+package de.uni_trier.wi2.service;
+
+import javax.xml.stream.*;
+import java.io.*;
+
+/**
+ * <p>Reads an XES log trace by trace, so a log of any size can be stored while holding only one of its traces in
+ * memory.</p>
+ *
+ * <p>The log is parsed by a StAX reader. Every <i>trace</i> element directly below the <i>log</i> element is written
+ * to a String of its own, starting with "&lt;trace" and ending with "&lt;/trace&gt;", and returned by
+ * {@link #nextTrace()}. Everything else is written to the header, i.e. the log without its traces. Unlike splitting
+ * the text at "&lt;trace", this is not misled by "&lt;trace" in attribute values, comments or CDATA sections.</p>
+ *
+ * <p>Elements and attributes are written as they were read, but the text is written anew: quotes, whitespace within
+ * tags and escaping may differ from the original, and the XML declaration is reduced to its version. Namespaces are
+ * declared where they were declared in the log, so a trace using the default namespace of the log does not declare it
+ * again, just like the text of the trace in the original log.</p>
+ */
+class XESLogReader implements Closeable {
+
+    private static final String TRACE = "trace";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        // logs are uploaded by clients, so they must not make the parser read other files
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private final XMLStreamReader reader;
+    private final StringWriter header = new StringWriter();
+    private final XMLStreamWriter headerWriter;
+
+    private int depth = 0;
+    private boolean finished = false;
+
+    /**
+     * @param in the log, its encoding is taken from the XML declaration
+     * @throws XMLStreamException if the log cannot be parsed
+     */
+    XESLogReader(InputStream in) throws XMLStreamException {
+        this(inputFactory.createXMLStreamReader(in));
+    }
+
+    /**
+     * @param in the log
+     * @throws XMLStreamException if the log cannot be parsed
+     */
+    XESLogReader(Reader in) throws XMLStreamException {
+        this(inputFactory.createXMLStreamReader(in));
+    }
+
+    private XESLogReader(XMLStreamReader reader) throws XMLStreamException {
+        this.reader = reader;
+        this.headerWriter = outputFactory.createXMLStreamWriter(header);
+        // the reader is positioned at the start of the document, where the declaration is known
+        if (reader.getVersion() != null) headerWriter.writeStartDocument(reader.getVersion());
+    }
+
+    /**
+     * @return the next trace of the log, or null if there are no more traces
+     * @throws XMLStreamException if the log is not well-formed
+     */
+    String nextTrace() throws XMLStreamException {
+
+        if (finished) return null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT && depth == 1 && TRACE.equals(reader.getLocalName()))
+                return readTrace();
+
+            copy(reader, headerWriter);
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+
+        headerWriter.writeEndDocument();
+        headerWriter.flush();
+        finished = true;
+        return null;
+    }
+
+    /**
+     * @return the log without its traces, complete once {@link #nextTrace()} returned null
+     */
+    String getHeader() throws XMLStreamException {
+
+        headerWriter.flush();
+        return header.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            reader.close();
+            headerWriter.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the trace element the reader is positioned at, leaving the reader at its end.
+     */
+    private String readTrace() throws XMLStreamException {
+
+        StringWriter trace = new StringWriter();
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(trace);
+
+        int traceDepth = 0;
+        do {
+            int event = reader.getEventType();
+            copy(reader, writer);
+            if (event == XMLStreamConstants.START_ELEMENT) traceDepth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) traceDepth--;
+            if (traceDepth == 0) break;
+            reader.next();
+        } while (true);
+
+        writer.flush();
+        writer.close();
+        return trace.toString();
+    }
+
+    private static void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+
+        switch (reader.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT -> {
+                String prefix = reader.getPrefix();
+                String namespace = reader.getNamespaceURI();
+                writer.writeStartElement(prefix == null ? "" : prefix, reader.getLocalName(), namespace == null ? "" : namespace);
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    String namespacePrefix = reader.getNamespacePrefix(i);
+                    if (namespacePrefix == null || namespacePrefix.isEmpty())
+                        writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+                    else writer.writeNamespace(namespacePrefix, reader.getNamespaceURI(i));
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String attributePrefix = reader.getAttributePrefix(i);
+                    String attributeNamespace = reader.getAttributeNamespace(i);
+                    if (attributePrefix == null || attributePrefix.isEmpty())
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    else
+                        writer.writeAttribute(attributePrefix, attributeNamespace == null ? "" : attributeNamespace,
+                                reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                }
+            }
+            case XMLStreamConstants.END_ELEMENT -> writer.writeEndElement();
+            case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> writer.writeCharacters(reader.getText());
+            case XMLStreamConstants.CDATA -> writer.writeCData(reader.getText());
+            case XMLStreamConstants.COMMENT -> writer.writeComment(reader.getText());
+            case XMLStreamConstants.PROCESSING_INSTRUCTION -> writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+            case XMLStreamConstants.ENTITY_REFERENCE -> writer.writeEntityRef(reader.getLocalName());
+            default -> {
+                // document start and end and DTDs are not copied
+            }
+        }
+    }
+}
@@ -19,7 +19,8 @@ CREATE TABLE trace (
     logID VARCHAR(36) REFERENCES log.logID,
     xes MEDIUMTEXT NOT NULL,
     removed BOOLEAN DEFAULT FALSE,
-    PRIMARY KEY (traceID)
+    PRIMARY KEY (traceID),
+    INDEX trace_logID (logID, traceID)
 );
 
 CREATE TABLE metadata (
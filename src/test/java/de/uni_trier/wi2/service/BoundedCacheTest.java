@@ -0,0 +1,74 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() {
+
+        BoundedCache<String, String> cache = new BoundedCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    void containsDoesNotMarkEntryAsUsed() {
+
+        BoundedCache<String, String> cache = new BoundedCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertTrue(cache.contains("a"));
+        cache.put("c", "3");
+
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+    }
+
+    @Test
+    void putIfAbsentKeepsExistingValue() {
+
+        BoundedCache<String, String> cache = new BoundedCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.putIfAbsent("a", "10");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertFalse(cache.contains("b"));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+
+        BoundedCache<String, String> cache = new BoundedCache<>(2);
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2L, cache.getStatistics().get("hits"));
+        assertEquals(1L, cache.getStatistics().get("misses"));
+        assertEquals(2, cache.getStatistics().get("capacity"));
+        assertEquals(1, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    void cacheWithoutCapacityKeepsNothing() {
+
+        BoundedCache<String, String> cache = new BoundedCache<>(0);
+        cache.put("a", "1");
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,104 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CasebaseIndexTest {
+
+    private static Map<String, TraceFeatures> features(int from, int to, long seed) {
+
+        Random random = new Random(seed);
+        Map<String, TraceFeatures> featuresByTrace = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            List<String> events = new ArrayList<>();
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++) events.add(String.valueOf((char) ('a' + random.nextInt(6))));
+            featuresByTrace.put("trace" + i, new TraceFeatures(events));
+        }
+        return featuresByTrace;
+    }
+
+    private static List<FilterParameters> filters() {
+
+        List<FilterParameters> filters = new ArrayList<>();
+        for (String eventName : List.of("a", "b", "f", "x"))
+            filters.add(new FilterParameters(null, null, null, null, List.of(eventName)));
+        for (int length = 1; length <= 6; length++)
+            filters.add(new FilterParameters(null, null, length, length, null));
+        filters.add(new FilterParameters(null, null, 2, 4, List.of("a", "c")));
+        return filters;
+    }
+
+    private static void assertSameIndex(CasebaseIndex expected, CasebaseIndex actual) {
+
+        assertEquals(expected.getFeaturesByTrace(), actual.getFeaturesByTrace());
+        for (FilterParameters filter : filters())
+            assertEquals(expected.filter(filter, Map.of()), actual.filter(filter, Map.of()), filter.toString());
+    }
+
+    @Test
+    void addedTracesAreIndexedLikeBuiltTraces() {
+
+        Map<String, TraceFeatures> first = features(0, 50, 1);
+        Map<String, TraceFeatures> second = features(50, 80, 2);
+        Map<String, TraceFeatures> all = new HashMap<>(first);
+        all.putAll(second);
+
+        CasebaseIndex index = new CasebaseIndex(first, Map.of());
+        CasebaseIndex added = index.with(second, Map.of());
+
+        assertSameIndex(new CasebaseIndex(all, Map.of()), added);
+        // the signatures of the traces indexed before are not computed again
+        for (String traceID : first.keySet()) assertSame(index.getSignature(traceID), added.getSignature(traceID));
+        assertNotNull(added.getSignature("trace60"));
+    }
+
+    @Test
+    void removedTracesAreNotFound() {
+
+        Map<String, TraceFeatures> all = features(0, 80, 3);
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 80; i += 3) removed.add("trace" + i);
+        Map<String, TraceFeatures> remaining = new HashMap<>(all);
+        remaining.keySet().removeAll(removed);
+
+        CasebaseIndex index = new CasebaseIndex(all, Map.of());
+        CasebaseIndex without = index.without(removed);
+
+        assertSameIndex(new CasebaseIndex(remaining, Map.of()), without);
+        assertNull(without.getSignature("trace0"));
+        assertSame(index.getSignature("trace1"), without.getSignature("trace1"));
+    }
+
+    @Test
+    void changesDoNotAffectTheIndexTheyAreBuiltFrom() {
+
+        Map<String, TraceFeatures> all = features(0, 60, 4);
+        CasebaseIndex index = new CasebaseIndex(all, Map.of());
+        CasebaseIndex copy = new CasebaseIndex(all, Map.of());
+
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 60; i += 2) removed.add("trace" + i);
+        index.without(removed);
+        index.with(features(60, 90, 5), Map.of());
+        // replaces the events of a trace already indexed
+        index.with(Map.of("trace1", new TraceFeatures(List.of("x", "x"))), Map.of());
+
+        assertSameIndex(copy, index);
+    }
+
+    @Test
+    void addedTraceReplacesTraceWithSameId() {
+
+        CasebaseIndex index = new CasebaseIndex(Map.of("trace0", new TraceFeatures(List.of("a", "b"))), Map.of());
+        CasebaseIndex replaced = index.with(Map.of("trace0", new TraceFeatures(List.of("c"))), Map.of());
+
+        assertEquals(Set.of(), replaced.filter(new FilterParameters(null, null, null, null, List.of("a")), Map.of()));
+        assertEquals(Set.of("trace0"), replaced.filter(new FilterParameters(null, null, null, null, List.of("c")), Map.of()));
+        assertEquals(Set.of(), replaced.filter(new FilterParameters(null, null, 2, 2, null), Map.of()));
+    }
+}
@@ -0,0 +1,223 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseServiceTest {
+
+    private static final String NAMESPACED_LOG = """
+            <?xml version="1.0" encoding="utf-8" ?>
+            <log xmlns="http://www.xes-standard.org/" xmlns:ext="urn:example:ext" xes.version="1.0">
+            <ext:info ext:key="source" value="test"/>
+            <trace><string key="concept:name" ext:note="first" value="trace0"/></trace>
+            <trace><string key="concept:name" value="trace1"/></trace>
+            <string key="after" value="traces"/>
+            </log>""";
+
+    private static final String CDATA_LOG = """
+            <log xes.version="1.0">
+            <!-- the header may mention </log> -->
+            <trace><string key="concept:name" value="trace0"/><![CDATA[<trace> & </log>]]></trace>
+            </log>""";
+
+    private static final String EMPTY_LOG = """
+            <log xes.version="1.0">
+            <string key="concept:name" value="empty"/>
+            </log>""";
+
+    /**
+     * A statement executed on the {@link #recordingConnection(List)}, with the values of its parameters in order.
+     */
+    private record Executed(String sql, List<Object> values) {
+    }
+
+    /**
+     * @return connection that executes nothing, but records the statements prepared on it
+     */
+    private static Connection recordingConnection(List<Executed> executed) {
+
+        return (Connection) Proxy.newProxyInstance(DatabaseServiceTest.class.getClassLoader(), new Class[]{Connection.class},
+                (connection, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> recordingStatement((String) args[0], executed);
+                    case "getAutoCommit", "isClosed" -> false;
+                    default -> null;
+                });
+    }
+
+    private static PreparedStatement recordingStatement(String sql, List<Executed> executed) {
+
+        List<Object> values = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(DatabaseServiceTest.class.getClassLoader(), new Class[]{PreparedStatement.class},
+                (statement, method, args) -> switch (method.getName()) {
+                    case "setObject" -> {
+                        values.add(args[1]);
+                        yield null;
+                    }
+                    case "executeUpdate" -> {
+                        executed.add(new Executed(sql, List.copyOf(values)));
+                        yield 1;
+                    }
+                    case "executeBatch" -> {
+                        executed.add(new Executed(sql, List.copyOf(values)));
+                        yield new int[0];
+                    }
+                    case "isClosed" -> false;
+                    default -> null;
+                });
+    }
+
+    /**
+     * Inserts a log into the recording connection.
+     *
+     * @return the header (at index 0) and the traces as they would be stored in the database
+     */
+    private static String[] putLog(String log, boolean asStream) throws Exception {
+
+        List<Executed> executed = new ArrayList<>();
+        String[] ids;
+        DatabaseService.startTransaction(recordingConnection(executed));
+        try {
+            ids = asStream
+                    ? DatabaseService.putLog(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)))
+                    : DatabaseService.putLog(log);
+        } finally {
+            DatabaseService.rollback();
+        }
+
+        String header = null;
+        List<String> traces = new ArrayList<>();
+        for (Executed statement : executed) {
+            if (statement.sql().startsWith("INSERT INTO " + DatabaseService.DATABASE_NAMES.TABLENAME__log + " "))
+                header = (String) statement.values().get(1);
+            else if (statement.sql().startsWith("UPDATE " + DatabaseService.DATABASE_NAMES.TABLENAME__log))
+                header = (String) statement.values().get(0);
+            else if (statement.sql().startsWith("INSERT INTO " + DatabaseService.DATABASE_NAMES.TABLENAME__trace + " ")) {
+                // every row consists of traceID, logID, xes and removed
+                for (int i = 2; i < statement.values().size(); i += 4) traces.add((String) statement.values().get(i));
+            }
+        }
+        assertEquals(traces.size() + 1, ids.length);
+
+        List<String> stored = new ArrayList<>();
+        stored.add(header);
+        stored.addAll(traces);
+        return stored.toArray(new String[0]);
+    }
+
+    /**
+     * @return the log containing only the given trace, like a stored trace is read back
+     */
+    private static String storedTraceXES(String header, String trace) {
+
+        int end = DatabaseService.endOfTraces(header);
+        return header.substring(0, end) + trace + header.substring(end);
+    }
+
+    @Test
+    void storedLogIsSplitLog() throws Exception {
+
+        for (String log : List.of(NAMESPACED_LOG, CDATA_LOG, EMPTY_LOG)) {
+            String[] split = DatabaseService.splitLog(log);
+            split[0] = split[0].replace(System.lineSeparator(), "");
+
+            assertArrayEquals(split, putLog(log, false));
+            assertArrayEquals(split, putLog(log, true));
+        }
+    }
+
+    @Test
+    void logWithoutTracesIsStoredWithHeaderOnly() throws Exception {
+
+        String[] stored = putLog(EMPTY_LOG, true);
+
+        assertEquals(1, stored.length);
+        assertTrue(stored[0].contains("value=\"empty\""), stored[0]);
+        assertTrue(stored[0].endsWith("</log>"), stored[0]);
+    }
+
+    @Test
+    void storedTraceIsReadBackWithItsHeader() throws Exception {
+
+        for (String log : List.of(NAMESPACED_LOG, CDATA_LOG)) {
+            String[] stored = putLog(log, true);
+            for (int i = 1; i < stored.length; i++) {
+                String[] split = DatabaseService.splitLog(storedTraceXES(stored[0], stored[i]));
+
+                assertEquals(2, split.length);
+                assertEquals(stored[i], split[1]);
+                assertEquals(stored[0], split[0].replace(System.lineSeparator(), ""));
+            }
+        }
+    }
+
+    @Test
+    void textAfterTracesIsKeptInHeader() throws Exception {
+
+        String[] stored = putLog(NAMESPACED_LOG, true);
+
+        assertEquals(3, stored.length);
+        assertTrue(stored[0].contains("key=\"after\""), stored[0]);
+        assertTrue(stored[0].contains("xmlns:ext=\"urn:example:ext\""), stored[0]);
+        assertFalse(stored[1].contains("xmlns"), stored[1]);
+    }
+
+    @Test
+    void traceStoreIsOnlyChangedByCommittedTransactions() throws Exception {
+
+        Path directory = Files.createTempDirectory("trace-store");
+        DatabaseService.openTraceStore(directory);
+        try {
+            DatabaseService.startTransaction(recordingConnection(new ArrayList<>()));
+            String[] rolledBack;
+            try {
+                rolledBack = DatabaseService.putLog(CDATA_LOG);
+            } finally {
+                DatabaseService.rollback();
+            }
+
+            DatabaseService.startTransaction(recordingConnection(new ArrayList<>()));
+            String[] committed = DatabaseService.putLog(CDATA_LOG);
+            DatabaseService.commit();
+
+            // there is no database, so the log is only found if the store holds it
+            assertThrows(SQLException.class, () -> DatabaseService.getLog(rolledBack[0]));
+            assertThrows(SQLException.class, () -> DatabaseService.getTrace(rolledBack[1]));
+            assertEquals(false, DatabaseService.getLog(committed[0]).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__removed));
+
+            Map<String, Object> trace = DatabaseService.getTrace(committed[1]);
+            assertEquals(committed[0], trace.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__logID));
+            assertEquals(DatabaseService.splitLog(CDATA_LOG)[1], trace.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__xes));
+            assertEquals(false, trace.get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__removed));
+
+            // a removal is deferred to the commit as well
+            DatabaseService.startTransaction(recordingConnection(new ArrayList<>()));
+            try {
+                DatabaseService.removeLog(committed[0]);
+            } finally {
+                DatabaseService.rollback();
+            }
+            assertEquals(false, DatabaseService.getLog(committed[0]).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__removed));
+
+            DatabaseService.startTransaction(recordingConnection(new ArrayList<>()));
+            DatabaseService.removeLog(committed[0]);
+            DatabaseService.commit();
+            assertEquals(true, DatabaseService.getLog(committed[0]).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__log__removed));
+            assertEquals(true, DatabaseService.getTrace(committed[1]).get(DatabaseService.DATABASE_NAMES.COLUMNNAME__trace__removed));
+
+        } finally {
+            DatabaseService.openTraceStore(null);
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+}
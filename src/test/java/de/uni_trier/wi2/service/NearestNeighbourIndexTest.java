@@ -0,0 +1,151 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearestNeighbourIndexTest {
+
+    private static final int NUMBER_OF_TRACES = 200;
+
+    private static CasebaseIndex index(long seed) {
+
+        Random random = new Random(seed);
+        Map<String, TraceFeatures> featuresByTrace = new HashMap<>();
+        for (int i = 0; i < NUMBER_OF_TRACES; i++) featuresByTrace.put(String.format("trace%03d", i), features(random));
+        return new CasebaseIndex(featuresByTrace, Map.of());
+    }
+
+    private static TraceFeatures features(Random random) {
+
+        List<String> events = new ArrayList<>();
+        int length = 2 + random.nextInt(7);
+        for (int i = 0; i < length; i++) events.add(String.valueOf((char) ('a' + random.nextInt(8))));
+        return new TraceFeatures(events);
+    }
+
+    private static List<Double> similarities(List<NearestNeighbourIndex.Neighbour> neighbours) {
+        return neighbours.stream().map(NearestNeighbourIndex.Neighbour::similarity).toList();
+    }
+
+    /**
+     * @return the similarities of the given number of traces most similar to the query, compared one by one
+     */
+    private static List<Double> bruteForce(CasebaseIndex index, float[] query, int numberOfNeighbours) {
+
+        List<Double> similarities = new ArrayList<>();
+        for (String traceID : index.getFeaturesByTrace().keySet()) {
+            float[] embedding = index.getSignature(traceID).embedding();
+            double similarity = 0;
+            for (int i = 0; i < query.length; i++) similarity += query[i] * embedding[i];
+            similarities.add(Math.max(0, similarity));
+        }
+        similarities.sort(Comparator.reverseOrder());
+        return similarities.subList(0, Math.min(numberOfNeighbours, similarities.size()));
+    }
+
+    private static void assertSimilarities(List<Double> expected, List<Double> actual) {
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertEquals(expected.get(i), actual.get(i), 1e-6);
+    }
+
+    @Test
+    void searchOfWholeGraphFindsMostSimilarTraces() {
+
+        CasebaseIndex index = index(1);
+        NearestNeighbourIndex nearestNeighbours = new NearestNeighbourIndex(16, 100);
+        nearestNeighbours.update(index);
+        assertEquals(NUMBER_OF_TRACES, nearestNeighbours.size());
+
+        Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            float[] query = TraceSignature.of(features(random)).embedding();
+            List<NearestNeighbourIndex.Neighbour> found = nearestNeighbours.search(query, 10, NUMBER_OF_TRACES, traceID -> true);
+
+            assertSimilarities(bruteForce(index, query, 10), similarities(found));
+        }
+    }
+
+    @Test
+    void searchReturnsOnlyAcceptedTraces() {
+
+        CasebaseIndex index = index(3);
+        NearestNeighbourIndex nearestNeighbours = new NearestNeighbourIndex(16, 100);
+        nearestNeighbours.update(index);
+
+        float[] query = TraceSignature.of(features(new Random(4))).embedding();
+        List<NearestNeighbourIndex.Neighbour> found = nearestNeighbours.search(query, 10, NUMBER_OF_TRACES,
+                traceID -> traceID.endsWith("7"));
+
+        assertEquals(10, found.size());
+        for (NearestNeighbourIndex.Neighbour neighbour : found) assertTrue(neighbour.traceID().endsWith("7"));
+    }
+
+    @Test
+    void removedTracesAreNotFoundAfterRebuild() {
+
+        CasebaseIndex index = index(5);
+        NearestNeighbourIndex nearestNeighbours = new NearestNeighbourIndex(16, 100);
+        nearestNeighbours.update(index);
+
+        // removing more than half of the traces rebuilds the graph
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 150; i++) removed.add(String.format("trace%03d", i));
+        CasebaseIndex remaining = index.without(removed);
+        nearestNeighbours.update(remaining);
+        assertEquals(NUMBER_OF_TRACES - removed.size(), nearestNeighbours.size());
+
+        Random random = new Random(6);
+        for (int i = 0; i < 20; i++) {
+            float[] query = TraceSignature.of(features(random)).embedding();
+            List<NearestNeighbourIndex.Neighbour> found = nearestNeighbours.search(query, 10, NUMBER_OF_TRACES, traceID -> true);
+
+            for (NearestNeighbourIndex.Neighbour neighbour : found) assertFalse(removed.contains(neighbour.traceID()));
+            assertSimilarities(bruteForce(remaining, query, 10), similarities(found));
+        }
+
+        // removed traces are inserted again once they are part of the casebase again
+        nearestNeighbours.update(index);
+        assertEquals(NUMBER_OF_TRACES, nearestNeighbours.size());
+    }
+
+    @Test
+    void searchOfEmptyGraphFindsNothing() {
+
+        NearestNeighbourIndex nearestNeighbours = new NearestNeighbourIndex(16, 100);
+
+        assertTrue(nearestNeighbours.search(new float[]{1}, 10, 100, traceID -> true).isEmpty());
+        assertEquals(0, nearestNeighbours.size());
+    }
+
+    @Test
+    void searchesDuringRebuildSkipRemovedTraces() throws Exception {
+
+        CasebaseIndex index = index(7);
+        NearestNeighbourIndex nearestNeighbours = new NearestNeighbourIndex(16, 100);
+        nearestNeighbours.update(index);
+
+        Set<String> removed = new HashSet<>();
+        for (int i = 0; i < 150; i++) removed.add(String.format("trace%03d", i));
+        float[] query = TraceSignature.of(features(new Random(8))).embedding();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> update = executor.submit(() -> nearestNeighbours.update(index.without(removed)));
+            // once the update started, the removed traces are skipped, whether the graph was swapped or not
+            while (!update.isDone()) {
+                boolean started = nearestNeighbours.size() < NUMBER_OF_TRACES;
+                for (NearestNeighbourIndex.Neighbour neighbour : nearestNeighbours.search(query, 10, 50, traceID -> true))
+                    if (started) assertFalse(removed.contains(neighbour.traceID()));
+            }
+            update.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(NUMBER_OF_TRACES - removed.size(), nearestNeighbours.size());
+    }
+}
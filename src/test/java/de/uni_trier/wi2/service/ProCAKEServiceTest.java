@@ -0,0 +1,219 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProCAKEServiceTest {
+
+    private static final List<List<String>> TRACES = List.of(
+            List.of("a", "b", "c"),
+            List.of("a", "b", "c", "d"),
+            List.of("a", "b"),
+            List.of("c", "b", "a"),
+            List.of("d", "e"),
+            List.of("a", "a", "b", "c", "c"),
+            List.of("e"),
+            List.of("a", "b", "c"));
+
+    private static final TraceSignature QUERY = TraceSignature.of(new TraceFeatures(List.of("a", "b", "c")));
+
+    private static CasebaseIndex index() {
+
+        Map<String, TraceFeatures> featuresByTrace = new HashMap<>();
+        for (int i = 0; i < TRACES.size(); i++) featuresByTrace.put("trace" + i, new TraceFeatures(TRACES.get(i)));
+        return new CasebaseIndex(featuresByTrace, Map.of());
+    }
+
+    private static List<String> traceIDs() {
+
+        List<String> traceIDs = new ArrayList<>();
+        for (int i = 0; i < TRACES.size(); i++) traceIDs.add("trace" + i);
+        // a case without signature is ranked last rather than dropped
+        traceIDs.add("unindexed");
+        return traceIDs;
+    }
+
+    private static Set<String> ids(List<ProCAKEService.Candidate> candidates) {
+
+        Set<String> ids = new HashSet<>();
+        for (ProCAKEService.Candidate candidate : candidates) ids.add(candidate.traceID());
+        return ids;
+    }
+
+    /**
+     * @return compares the cases of the given ids by the given similarities, collecting the ids of the compared cases
+     */
+    private static Function<List<String>, List<Retrieval>> compare(Map<String, Double> similarities, List<String> compared) {
+
+        return traceIDs -> {
+            compared.addAll(traceIDs);
+            List<Retrieval> results = new ArrayList<>();
+            for (String traceID : traceIDs) results.add(new Retrieval(traceID, similarities.get(traceID)));
+            Collections.shuffle(results, new Random(traceIDs.size()));
+            return results;
+        };
+    }
+
+    private static List<Retrieval> fullScan(Map<String, Double> similarities, int numberOfResults) {
+
+        List<Retrieval> results = new ArrayList<>();
+        for (Map.Entry<String, Double> similarity : similarities.entrySet())
+            results.add(new Retrieval(similarity.getKey(), similarity.getValue()));
+        results.sort(Comparator.comparing(Retrieval::similarityValue, Comparator.<Double>reverseOrder())
+                .thenComparing(Retrieval::id));
+        return results.subList(0, Math.min(numberOfResults, results.size()));
+    }
+
+    private static RetrievalParameters parameters(PruningParameters pruning, EarlyAbandoningParameters earlyAbandoning) {
+        return new RetrievalParameters(null, null, null, null, null, null, null, 10, null, null, pruning, earlyAbandoning);
+    }
+
+    @Test
+    void pruningToAllCasesKeepsEveryCase() {
+
+        CasebaseIndex index = index();
+        for (TraceSignature.Kind kind : TraceSignature.Kind.values()) {
+            List<ProCAKEService.Candidate> candidates = ProCAKEService.mostSimilar(index, traceIDs(), QUERY, kind, traceIDs().size());
+
+            assertEquals(new HashSet<>(traceIDs()), ids(candidates), kind.name());
+            assertEquals(traceIDs().size(), candidates.size(), kind.name());
+        }
+    }
+
+    @Test
+    void pruningKeepsMostSimilarCases() {
+
+        CasebaseIndex index = index();
+        for (TraceSignature.Kind kind : TraceSignature.Kind.values()) {
+            List<ProCAKEService.Candidate> all = ProCAKEService.mostSimilar(index, traceIDs(), QUERY, kind, traceIDs().size());
+            List<ProCAKEService.Candidate> pruned = ProCAKEService.mostSimilar(index, traceIDs(), QUERY, kind, 3);
+
+            assertEquals(3, pruned.size(), kind.name());
+            for (int i = 0; i < pruned.size(); i++) {
+                assertEquals(all.get(i).similarity(), pruned.get(i).similarity(), 0, kind.name());
+                if (i > 0) assertTrue(pruned.get(i - 1).similarity() >= pruned.get(i).similarity(), kind.name());
+            }
+            assertEquals(0, all.get(all.size() - 1).similarity(), 0, kind.name());
+        }
+    }
+
+    @Test
+    void pruningRanksIdenticalTracesFirst() {
+
+        List<ProCAKEService.Candidate> pruned = ProCAKEService.mostSimilar(index(), traceIDs(), QUERY, TraceSignature.Kind.COMBINED, 2);
+
+        assertEquals(Set.of("trace0", "trace7"), ids(pruned));
+        assertEquals(1, pruned.get(1).similarity(), 1e-9);
+    }
+
+    @Test
+    void validateAcceptsKnownParameters() {
+
+        ProCAKEService.validate(parameters(null, null));
+        ProCAKEService.validate(parameters(new PruningParameters(5, "bagOfWords", null), null));
+        ProCAKEService.validate(parameters(new PruningParameters(null, null, null), new EarlyAbandoningParameters("activitySet", null)));
+    }
+
+    @Test
+    void validateRejectsInvalidPruning() {
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ProCAKEService.validate(parameters(new PruningParameters(0, null, null), null)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProCAKEService.validate(parameters(new PruningParameters(-1, null, null), null)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProCAKEService.validate(parameters(new PruningParameters(5, "unknown", null), null)));
+    }
+
+    @Test
+    void validateRejectsUnknownBound() {
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ProCAKEService.validate(parameters(null, new EarlyAbandoningParameters("unknown", null))));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProCAKEService.validate(parameters(null, new EarlyAbandoningParameters(null, null))));
+    }
+
+    @Test
+    void boundedRankingEqualsFullScan() {
+
+        Random random = new Random(42);
+        for (int run = 0; run < 50; run++) {
+            Map<String, Double> similarities = new HashMap<>();
+            Map<String, Double> bounds = new HashMap<>();
+            int numberOfCases = 1 + random.nextInt(60);
+            for (int i = 0; i < numberOfCases; i++) {
+                // few distinct similarities, so there are ties at the boundary of the results
+                double similarity = random.nextInt(5) / 4.0;
+                similarities.put("trace" + i, similarity);
+                bounds.put("trace" + i, random.nextBoolean() ? similarity : Math.min(1, similarity + random.nextInt(3) / 4.0));
+            }
+
+            for (int numberOfResults : new int[]{1, 3, 10, numberOfCases}) {
+                for (int batchSize : new int[]{1, 4, 100}) {
+                    ProCAKEService.BoundedRetrieval bounded = ProCAKEService.rankBounded(bounds, numberOfResults,
+                            batchSize, compare(similarities, new ArrayList<>()), null);
+
+                    assertEquals(fullScan(similarities, numberOfResults), bounded.results(),
+                            String.format("run %d, %d results, batches of %d", run, numberOfResults, batchSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    void boundedRankingSkipsCasesBelowThreshold() {
+
+        Map<String, Double> similarities = new HashMap<>();
+        for (int i = 0; i < 100; i++) similarities.put(String.format("trace%03d", i), i / 100.0);
+        List<String> compared = new ArrayList<>();
+
+        ProCAKEService.BoundedRetrieval bounded = ProCAKEService.rankBounded(similarities, 5, 10,
+                compare(similarities, compared), null);
+
+        assertEquals(fullScan(similarities, 5), bounded.results());
+        assertEquals(0.95, bounded.threshold(), 1e-9);
+        // the probe of the lowest bounds and the first batch
+        assertEquals(20, bounded.comparedCases());
+        assertEquals(20, new HashSet<>(compared).size());
+    }
+
+    @Test
+    void boundedRankingAbandonsIfBoundDoesNotHold() {
+
+        Map<String, Double> similarities = new HashMap<>();
+        Map<String, Double> bounds = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            similarities.put("trace" + i, 0.5);
+            bounds.put("trace" + i, 0.5);
+        }
+        bounds.put("trace7", 0.25);
+
+        ProCAKEService.BoundedRetrieval bounded = ProCAKEService.rankBounded(bounds, 5, 4,
+                compare(similarities, new ArrayList<>()), null);
+
+        assertNull(bounded.results());
+        // the case with the violated bound is compared first, among the lowest bounds
+        assertEquals(4, bounded.comparedCases());
+    }
+
+    @Test
+    void boundedRankingReportsProgressOfBatches() {
+
+        Map<String, Double> similarities = new HashMap<>();
+        for (int i = 0; i < 30; i++) similarities.put(String.format("trace%02d", i), 1.0);
+        List<ProgressiveRetrieval> progress = new ArrayList<>();
+
+        ProCAKEService.BoundedRetrieval bounded = ProCAKEService.rankBounded(similarities, 30, 10,
+                compare(similarities, new ArrayList<>()), progress::add);
+
+        assertEquals(30, bounded.comparedCases());
+        assertEquals(List.of(10, 20), progress.stream().map(ProgressiveRetrieval::comparedCases).toList());
+        assertFalse(progress.get(1).complete());
+    }
+}
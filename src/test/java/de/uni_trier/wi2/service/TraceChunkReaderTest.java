@@ -0,0 +1,131 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceChunkReaderTest {
+
+    private static String log(int numberOfTraces) {
+
+        StringBuilder log = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\" ?><log xes.version=\"1.0\">");
+        for (int i = 0; i < numberOfTraces; i++)
+            log.append("<trace><string key=\"concept:name\" value=\"trace").append(i).append("\"/></trace>");
+        return log.append("</log>").toString();
+    }
+
+    private static List<TraceChunkReader.Chunk> readAll(String log, int chunkSize, long maxChunkCharacters) throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (XESLogReader reader = new XESLogReader(new StringReader(log));
+             TraceChunkReader chunks = new TraceChunkReader(reader, chunkSize, maxChunkCharacters, executor)) {
+
+            List<TraceChunkReader.Chunk> read = new ArrayList<>();
+            TraceChunkReader.Chunk chunk;
+            do {
+                chunk = chunks.next();
+                read.add(chunk);
+            } while (!chunk.last());
+            return read;
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Integer> sizes(List<TraceChunkReader.Chunk> chunks) {
+        return chunks.stream().map(chunk -> chunk.traces().size()).toList();
+    }
+
+    private static List<String> traces(List<TraceChunkReader.Chunk> chunks) {
+        return chunks.stream().flatMap(chunk -> chunk.traces().stream()).toList();
+    }
+
+    @Test
+    void splitsByNumberOfTraces() throws Exception {
+
+        List<TraceChunkReader.Chunk> chunks = readAll(log(5), 2, Long.MAX_VALUE);
+
+        assertEquals(List.of(2, 2, 1), sizes(chunks));
+        assertEquals(5, traces(chunks).size());
+        assertTrue(traces(chunks).get(4).contains("trace4"));
+        assertTrue(chunks.get(2).header().contains("</log>"));
+    }
+
+    @Test
+    void endsWithEmptyChunkIfTracesFillTheLastChunk() throws Exception {
+
+        List<TraceChunkReader.Chunk> chunks = readAll(log(4), 2, Long.MAX_VALUE);
+
+        assertEquals(List.of(2, 2, 0), sizes(chunks));
+        assertFalse(chunks.get(1).last());
+        assertTrue(chunks.get(2).last());
+    }
+
+    @Test
+    void splitsByCharacters() throws Exception {
+
+        String trace = readAll(log(1), 1, Long.MAX_VALUE).get(0).traces().get(0);
+        // all traces have the same length, so at most two fit into a chunk
+        List<TraceChunkReader.Chunk> chunks = readAll(log(5), 100, 2L * trace.length() + 1);
+
+        assertEquals(List.of(2, 2, 1), sizes(chunks));
+        assertEquals(readAll(log(5), 100, Long.MAX_VALUE).get(0).traces(), traces(chunks));
+    }
+
+    @Test
+    void putsTraceExceedingTheLimitIntoChunkOfItsOwn() throws Exception {
+
+        List<TraceChunkReader.Chunk> chunks = readAll(log(3), 100, 1);
+
+        assertEquals(List.of(1, 1, 1), sizes(chunks));
+    }
+
+    @Test
+    void propagatesFailureOfParsing() throws Exception {
+
+        String log = log(3).replace("</log>", "</trace>");
+
+        assertThrows(XMLStreamException.class, () -> readAll(log, 1, Long.MAX_VALUE));
+    }
+
+    @Test
+    void passesChunksReadBeforeFailure() throws Exception {
+
+        String log = log(3) + "<trace>";
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (XESLogReader reader = new XESLogReader(new StringReader(log));
+             TraceChunkReader chunks = new TraceChunkReader(reader, 1, Long.MAX_VALUE, executor)) {
+
+            for (int i = 0; i < 3; i++) assertEquals(1, chunks.next().traces().size());
+            assertThrows(XMLStreamException.class, chunks::next);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void closeStopsReadingWhileChunksAreNotTaken() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (XESLogReader reader = new XESLogReader(new StringReader(log(100)))) {
+
+            TraceChunkReader chunks = new TraceChunkReader(reader, 1, Long.MAX_VALUE, executor);
+            chunks.next();
+            // the reading thread is blocked on the full queue and must be interrupted
+            chunks.close();
+
+            // the thread is free for the next task
+            assertTrue(executor.submit(() -> true).get(10, TimeUnit.SECONDS));
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceFeaturesTest {
+
+    private static String trace(String... events) {
+
+        StringBuilder trace = new StringBuilder("<trace><string key=\"concept:name\" value=\"trace\"/>");
+        for (String event : events) {
+            trace.append("<event>");
+            // the name of a nested attribute is not the name of the event
+            trace.append("<list key=\"nested\"><string key=\"concept:name\" value=\"nested\"/></list>");
+            if (event != null) trace.append("<string key=\"concept:name\" value=\"").append(event).append("\"/>");
+            trace.append("</event>");
+        }
+        return trace.append("</trace>").toString();
+    }
+
+    @Test
+    void logIsReadLikeItsTraces() {
+
+        List<String> traces = List.of(trace("a", "b", "a"), trace(), trace("c", null), trace("b"));
+        String log = "<log xes.version=\"1.0\"><global scope=\"trace\"><trace/></global>"
+                + String.join("", traces) + "</log>";
+
+        List<TraceFeatures> features = TraceFeatures.ofLog(log);
+
+        // the trace element of the header is not below the log element
+        assertEquals(traces.size(), features.size());
+        for (int i = 0; i < traces.size(); i++) assertEquals(TraceFeatures.of(traces.get(i)), features.get(i));
+        assertEquals(List.of("a", "b", "a"), features.get(0).events());
+        assertEquals(List.of("c", ""), features.get(2).events());
+    }
+
+    @Test
+    void firstTraceIsReadAtAnyDepth() {
+
+        assertEquals(List.of("a"), TraceFeatures.ofFirstTrace("<log><x>" + trace("a") + "</x>" + trace("b") + "</log>").events());
+        assertEquals(List.of(), TraceFeatures.ofFirstTrace("<log/>").events());
+        assertEquals(List.of(), TraceFeatures.ofLog("<log/>"));
+    }
+}
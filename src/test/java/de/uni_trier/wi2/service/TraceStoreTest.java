@@ -0,0 +1,158 @@
+package de.uni_trier.wi2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceStoreTest {
+
+    private static final int SEGMENT_SIZE = 64;
+
+    private static String trace(int i) {
+        return "<trace><string key=\"concept:name\" value=\"trace" + i + "\"/></trace>";
+    }
+
+    /**
+     * Commits a log with the given number of traces, their ids being the id of the log followed by their index.
+     */
+    private static void commitLog(TraceStore store, String logID, int numberOfTraces) throws IOException {
+
+        TraceStore.PendingLog log = store.startLog(logID);
+        for (int i = 0; i < numberOfTraces; i++) store.addTrace(log, logID + "-" + i, trace(i));
+        store.commitLog(log, "<log>" + logID + "</log>");
+    }
+
+    private static void assertLog(TraceStore store, String logID, int numberOfTraces) {
+
+        assertEquals("<log>" + logID + "</log>", store.getHeader(logID));
+        for (int i = 0; i < numberOfTraces; i++) {
+            String traceID = logID + "-" + i;
+            assertEquals(trace(i), store.getXES(traceID));
+            assertEquals(logID, store.getLogID(traceID));
+            assertEquals(trace(i), StandardCharsets.UTF_8.decode(store.getXESBuffer(traceID)).toString());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void tracesAreReadAcrossSegments() throws Exception {
+
+        Path directory = Files.createTempDirectory("trace-store");
+        try {
+            TraceStore store = TraceStore.open(directory, SEGMENT_SIZE);
+            // every trace takes more than half of a segment, so the traces never share one
+            commitLog(store, "a", 5);
+            commitLog(store, "b", 3);
+
+            assertLog(store, "a", 5);
+            assertLog(store, "b", 3);
+            assertTrue((long) store.getStatistics().get("bytes") > 8L * SEGMENT_SIZE);
+
+            TraceStore reopened = TraceStore.open(directory, SEGMENT_SIZE);
+            assertLog(reopened, "a", 5);
+            assertLog(reopened, "b", 3);
+            assertEquals(store.getStatistics().get("bytes"), reopened.getStatistics().get("bytes"));
+
+            TraceStore.PendingLog tooLarge = reopened.startLog("c");
+            assertThrows(IOException.class, () -> reopened.addTrace(tooLarge, "c-0", "x".repeat(SEGMENT_SIZE + 1)));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void truncatedIndexRecordIsDropped() throws Exception {
+
+        Path directory = Files.createTempDirectory("trace-store");
+        try {
+            commitLog(TraceStore.open(directory, SEGMENT_SIZE), "a", 2);
+            Path index = directory.resolve("traces.idx");
+            long size = Files.size(index);
+
+            // a record cut off by a crash, its length announcing more bytes than were written
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.allocate(7).putInt(100).put(new byte[]{2, 0, 1}).flip());
+            }
+
+            TraceStore reopened = TraceStore.open(directory, SEGMENT_SIZE);
+            assertEquals(size, Files.size(index));
+            assertLog(reopened, "a", 2);
+
+            // the records appended next are read again
+            commitLog(reopened, "b", 2);
+            reopened.removeLog("a");
+            TraceStore recovered = TraceStore.open(directory, SEGMENT_SIZE);
+            assertLog(recovered, "a", 2);
+            assertLog(recovered, "b", 2);
+            assertTrue(recovered.isRemoved("a"));
+            assertFalse(recovered.isRemoved("b"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void removedLogIsKeptAcrossReopening() throws Exception {
+
+        Path directory = Files.createTempDirectory("trace-store");
+        try {
+            TraceStore store = TraceStore.open(directory, SEGMENT_SIZE);
+            commitLog(store, "a", 1);
+            store.removeLog("a");
+            // unknown logs are not recorded
+            store.removeLog("unknown");
+
+            assertTrue(store.isRemoved("a"));
+            assertFalse(store.isRemoved("unknown"));
+            assertLog(store, "a", 1);
+
+            TraceStore reopened = TraceStore.open(directory, SEGMENT_SIZE);
+            assertTrue(reopened.isRemoved("a"));
+            assertFalse(reopened.isRemoved("unknown"));
+            assertEquals(1, reopened.getStatistics().get("removedLogs"));
+
+            reopened.clear();
+            assertNull(reopened.getHeader("a"));
+            assertFalse(TraceStore.open(directory, SEGMENT_SIZE).isRemoved("a"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void uncommittedLogIsNotPartOfStore() throws Exception {
+
+        Path directory = Files.createTempDirectory("trace-store");
+        try {
+            TraceStore store = TraceStore.open(directory, SEGMENT_SIZE);
+            TraceStore.PendingLog pending = store.startLog("a");
+            store.addTrace(pending, "a-0", trace(0));
+
+            assertFalse(store.containsLog("a"));
+            assertNull(store.getXES("a-0"));
+            assertNull(store.getLogID("a-0"));
+
+            // the bytes of the uncommitted trace are overwritten once the store is opened again
+            TraceStore reopened = TraceStore.open(directory, SEGMENT_SIZE);
+            assertEquals(0L, reopened.getStatistics().get("bytes"));
+            commitLog(reopened, "b", 1);
+            assertLog(reopened, "b", 1);
+        } finally {
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.model.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs without a database, so every job fails once it starts inserting its log.
+ */
+class UploadServiceTest {
+
+    private static final byte[] LOG = "<?xml version=\"1.0\" encoding=\"utf-8\" ?><log xes.version=\"1.0\"><trace/></log>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    @TempDir
+    Path spoolDirectory;
+
+    private static List<Path> spooled(Path directory) throws IOException {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    // the slot of a job is released just after it finished, so a job of another test may still hold it
+    private static UploadJob submitWhenSlotIsFree(InputStream xes) throws Exception {
+
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                return UploadService.submit(xes, false);
+            } catch (RejectedExecutionException e) {
+                if (System.nanoTime() - start > TIMEOUT) throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static UploadJob awaitFinished(String jobID) throws InterruptedException {
+
+        long start = System.nanoTime();
+        UploadJob job = UploadService.getJob(jobID);
+        while (job.finished() == null) {
+            if (System.nanoTime() - start > TIMEOUT) fail("Job " + jobID + " did not finish");
+            Thread.sleep(10);
+            job = UploadService.getJob(jobID);
+        }
+        return job;
+    }
+
+    @Test
+    void failedJobIsFinishedAndDeletesItsLog() throws Exception {
+
+        UploadService.setJobs(1, 0, spoolDirectory);
+
+        UploadJob submitted = submitWhenSlotIsFree(new ByteArrayInputStream(LOG));
+
+        assertNotNull(submitted.jobID());
+        assertNotNull(submitted.submitted());
+        assertEquals(LOG.length, submitted.bytes());
+        assertTrue(Set.of("queued", "running", "failed").contains(submitted.status()), submitted.status());
+
+        UploadJob finished = awaitFinished(submitted.jobID());
+
+        assertEquals("failed", finished.status());
+        assertNotNull(finished.error());
+        assertNotNull(finished.started());
+        assertNull(finished.logID());
+        assertTrue(spooled(spoolDirectory).isEmpty());
+        assertTrue(UploadService.getJobs().stream().anyMatch(job -> job.jobID().equals(submitted.jobID())));
+    }
+
+    @Test
+    void rejectsUploadWithoutSlotBeforeCopyingIt() throws Exception {
+
+        UploadService.setJobs(1, 0, spoolDirectory);
+
+        // holds the only slot while its body is copied
+        CountDownLatch transferred = new CountDownLatch(1);
+        InputStream blocking = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    transferred.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return -1;
+            }
+        };
+        CompletableFuture<UploadJob> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return submitWhenSlotIsFree(blocking);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        long start = System.nanoTime();
+        while (spooled(spoolDirectory).isEmpty()) {
+            if (System.nanoTime() - start > TIMEOUT) fail("First upload was not spooled");
+            Thread.sleep(10);
+        }
+
+        InputStream second = new ByteArrayInputStream(LOG);
+        assertThrows(RejectedExecutionException.class, () -> UploadService.submit(second, false));
+        assertEquals(LOG.length, second.available(), "rejected upload was read");
+        assertEquals(1, spooled(spoolDirectory).size());
+
+        transferred.countDown();
+        UploadJob finished = awaitFinished(first.get(10, TimeUnit.SECONDS).jobID());
+        assertEquals("failed", finished.status());
+
+        // the slot is free again
+        UploadJob next = submitWhenSlotIsFree(new ByteArrayInputStream(LOG));
+        assertEquals("failed", awaitFinished(next.jobID()).status());
+    }
+}
@@ -0,0 +1,113 @@
+package de.uni_trier.wi2.service;
+
+import de.uni_trier.wi2.error.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XESLogReaderTest {
+
+    private static final String NAMESPACED_LOG = """
+            <?xml version="1.0" encoding="utf-8" ?>
+            <log xmlns="http://www.xes-standard.org/" xmlns:ext="urn:example:ext" xes.version="1.0">
+            <ext:info ext:key="source" value="test"/>
+            <trace><string key="concept:name" ext:note="first" value="trace0"/></trace>
+            <trace><string key="concept:name" value="trace1"/><ext:info value="x"/></trace>
+            </log>""";
+
+    private static final String CDATA_LOG = """
+            <log xes.version="1.0">
+            <!-- <trace> in a comment is no trace, neither is </log> -->
+            <string key="concept:name" value="cdata"/>
+            <trace><string key="concept:name" value="trace0"/><![CDATA[<trace> & </log>]]></trace>
+            </log>""";
+
+    private record Split(String header, List<String> traces) {
+    }
+
+    private static Split read(String log) throws Exception {
+
+        try (XESLogReader reader = new XESLogReader(new StringReader(log))) {
+            List<String> traces = new ArrayList<>();
+            String trace;
+            while ((trace = reader.nextTrace()) != null) traces.add(trace);
+            return new Split(reader.getHeader(), traces);
+        }
+    }
+
+    /**
+     * Inserts the traces into the header, like the traces stored in the database are joined with their log.
+     */
+    private static String join(Split split) {
+
+        int end = DatabaseService.endOfTraces(split.header());
+        return split.header().substring(0, end) + String.join("", split.traces()) + split.header().substring(end);
+    }
+
+    @Test
+    void namespacesAreDeclaredWhereTheyWereDeclared() throws Exception {
+
+        Split split = read(NAMESPACED_LOG);
+
+        assertEquals(2, split.traces().size());
+        assertTrue(split.header().contains("xmlns=\"http://www.xes-standard.org/\""), split.header());
+        assertTrue(split.header().contains("xmlns:ext=\"urn:example:ext\""), split.header());
+        assertTrue(split.header().contains("ext:key=\"source\""), split.header());
+        assertFalse(split.header().contains("<trace"), split.header());
+        for (String trace : split.traces()) {
+            assertTrue(trace.startsWith("<trace") && trace.endsWith("</trace>"), trace);
+            assertFalse(trace.contains("xmlns"), trace);
+        }
+        assertTrue(split.traces().get(0).contains("ext:note=\"first\""), split.traces().get(0));
+        assertTrue(split.traces().get(1).contains("<ext:info"), split.traces().get(1));
+    }
+
+    @Test
+    void joinedLogIsSplitAlike() throws Exception {
+
+        for (String log : List.of(NAMESPACED_LOG, CDATA_LOG)) {
+            Split split = read(log);
+            Split rejoined = read(join(split));
+
+            assertEquals(split, rejoined);
+        }
+    }
+
+    @Test
+    void cdataIsKeptAsEscapedText() throws Exception {
+
+        Split split = read(CDATA_LOG);
+
+        assertEquals(1, split.traces().size());
+        String trace = split.traces().get(0);
+        assertTrue(trace.contains("&lt;trace&gt; &amp; &lt;/log&gt;"), trace);
+        // the comment of the header is kept, "</log>" in it does not end the log
+        assertTrue(split.header().contains("<!-- <trace> in a comment is no trace, neither is </log> -->"), split.header());
+        assertTrue(DatabaseService.endOfTraces(split.header()) > split.header().indexOf("-->"));
+    }
+
+    @Test
+    void logWithoutTracesHasEndTag() throws Exception {
+
+        for (String log : List.of("<log xes.version=\"1.0\"><string key=\"concept:name\" value=\"empty\"/></log>",
+                "<log xes.version=\"1.0\"/>")) {
+            Split split = read(log);
+
+            assertEquals(List.of(), split.traces());
+            assertTrue(split.header().endsWith("</log>"), split.header());
+            assertEquals(split.header().lastIndexOf("</log>"), DatabaseService.endOfTraces(split.header()));
+        }
+    }
+
+    @Test
+    void endTagMayHavePrefix() {
+
+        String header = "<xes:log xmlns:xes=\"http://www.xes-standard.org/\"><!-- </log> --></xes:log >";
+
+        assertEquals(header.indexOf("</xes:log >"), DatabaseService.endOfTraces(header));
+        assertThrows(XESnotValidException.class, () -> DatabaseService.endOfTraces("<log/>"));
+    }
+}